@@ -0,0 +1,73 @@
+package me.gotter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ID construction and comparison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IDBenchmark
+{
+    private int number = 1234567;
+    private long longNumber = 1234567890123L;
+    private String text = "1234567";
+
+    private ID id = new ID(1234567);
+    private ID same = new ID("1234567");
+    private ID other = new ID(7654321);
+
+    @Benchmark
+    public ID fromInt()
+    {
+        return new ID(number);
+    }
+
+    @Benchmark
+    public ID fromLong()
+    {
+        return new ID(longNumber);
+    }
+
+    @Benchmark
+    public ID fromString()
+    {
+        return new ID(text);
+    }
+
+    @Benchmark
+    public boolean equalsSame()
+    {
+        return id.equals(same);
+    }
+
+    @Benchmark
+    public boolean equalsOther()
+    {
+        return id.equals(other);
+    }
+
+    @Benchmark
+    public boolean equalsRaw()
+    {
+        return id.equals(number);
+    }
+
+    @Benchmark
+    public int hash()
+    {
+        return new ID(number).hashCode();
+    }
+
+    @Benchmark
+    public long toLong()
+    {
+        return id.toLong();
+    }
+}
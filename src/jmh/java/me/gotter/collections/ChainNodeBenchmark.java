@@ -0,0 +1,111 @@
+package me.gotter.collections;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Core ChainNode operations over documents of different shapes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainNodeBenchmark
+{
+    @Param({Documents.WIDE, Documents.DEEP, Documents.NUMERIC, Documents.STRING})
+    public String shape;
+
+    private ChainNode node;
+    private ChainNode copy;
+    private ChainNode scratch = new ChainNode();
+    private String path;
+    private ChainPath compiled;
+
+    @Setup
+    public void setUp()
+    {
+        node = Documents.node(shape);
+        copy = Documents.node(shape);
+        path = Documents.path(shape);
+        compiled = ChainPath.compile(path);
+    }
+
+    @Benchmark
+    public ChainNode buildMap()
+    {
+        ChainNode map = new ChainNode();
+        for (int i = 0; i < 16; i++) {
+            map.set("key" + (i & 7), i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public ChainNode setPrimitive()
+    {
+        return scratch.get("value").setLong(42L);
+    }
+
+    @Benchmark
+    public ChainNode path()
+    {
+        return node.path(path);
+    }
+
+    @Benchmark
+    public ChainNode pathCompiled()
+    {
+        return node.path(compiled);
+    }
+
+    @Benchmark
+    public ChainNode find()
+    {
+        return node.find(compiled);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole)
+    {
+        iterate(node, blackhole);
+    }
+
+    private static void iterate(ChainNode node, Blackhole blackhole)
+    {
+        if (node.isMap()) {
+            for (Map.Entry<String, ChainNode> entry : node.entrySet()) {
+                blackhole.consume(entry.getKey());
+                iterate(entry.getValue(), blackhole);
+            }
+        } else if (node.isList()) {
+            for (ChainNode item : node) {
+                iterate(item, blackhole);
+            }
+        } else {
+            blackhole.consume(node);
+        }
+    }
+
+    @Benchmark
+    public int hashCodeTree()
+    {
+        return node.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsTree()
+    {
+        return node.equals(copy);
+    }
+
+    @Benchmark
+    public ChainNode freeze()
+    {
+        return node.freeze();
+    }
+}
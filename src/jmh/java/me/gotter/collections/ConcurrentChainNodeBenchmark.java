@@ -0,0 +1,75 @@
+package me.gotter.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contended updates of ConcurrentChainNode, compared to plain ChainNode,
+ * guarded by one global lock
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentChainNodeBenchmark
+{
+    /**
+     * Amount of distinct counters, fewer keys mean more contention
+     */
+    @Param({"1", "64"})
+    public int keys;
+
+    private ConcurrentChainNode node;
+    private ChainNode locked;
+    private final Object lock = new Object();
+    private String[] paths;
+
+    @Setup
+    public void setUp()
+    {
+        node = new ConcurrentChainNode();
+        locked = new ChainNode();
+        paths = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            paths[i] = "counters.c" + i;
+        }
+    }
+
+    @Benchmark
+    public long increment()
+    {
+        return node.increment(paths[ThreadLocalRandom.current().nextInt(keys)], 1);
+    }
+
+    @Benchmark
+    public ChainNode read()
+    {
+        return node.find(paths[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    @Benchmark
+    public long lockedIncrement()
+    {
+        String path = paths[ThreadLocalRandom.current().nextInt(keys)];
+        synchronized (lock) {
+            ChainNode counter = locked.path(path);
+            long value = counter.isNull() ? 1 : counter.getLong() + 1;
+            counter.setLong(value);
+            return value;
+        }
+    }
+
+    @Benchmark
+    public ChainNode lockedRead()
+    {
+        String path = paths[ThreadLocalRandom.current().nextInt(keys)];
+        synchronized (lock) {
+            return locked.find(path);
+        }
+    }
+}
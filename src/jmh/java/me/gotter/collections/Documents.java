@@ -0,0 +1,114 @@
+package me.gotter.collections;
+
+/**
+ * Document shapes, shared by benchmarks
+ */
+public final class Documents
+{
+    /**
+     * Shapes, used as @Param values
+     */
+    public static final String WIDE = "wide";
+    public static final String DEEP = "deep";
+    public static final String NUMERIC = "numeric";
+    public static final String STRING = "string";
+
+    private static final int SIZE = 1000;
+    private static final int DEPTH = 50;
+
+    private Documents()
+    {
+    }
+
+    /**
+     * Returns JSON of document with provided shape
+     * <ul>
+     * <li>wide - single map with 1000 int values</li>
+     * <li>deep - 50 nested maps</li>
+     * <li>numeric - list of 1000 records of ints, longs and doubles</li>
+     * <li>string - list of 1000 records of strings with escapes and non-ASCII chars</li>
+     * </ul>
+     *
+     * @param shape Shape
+     * @return JSON
+     */
+    public static String json(String shape)
+    {
+        StringBuilder sb = new StringBuilder();
+        if (WIDE.equals(shape)) {
+            sb.append('{');
+            for (int i = 0; i < SIZE; i++) {
+                sb.append(i > 0 ? "," : "").append("\"key").append(i).append("\":").append(i);
+            }
+            return sb.append('}').toString();
+        }
+        if (DEEP.equals(shape)) {
+            for (int i = 0; i < DEPTH; i++) {
+                sb.append("{\"value\":").append(i).append(",\"name\":\"level ").append(i).append("\",\"level\":");
+            }
+            sb.append("null");
+            for (int i = 0; i < DEPTH; i++) {
+                sb.append('}');
+            }
+            return sb.toString();
+        }
+        if (NUMERIC.equals(shape)) {
+            sb.append('[');
+            for (int i = 0; i < SIZE; i++) {
+                sb.append(i > 0 ? "," : "")
+                        .append("{\"id\":").append(i)
+                        .append(",\"timestamp\":").append(1400000000000L + i * 1000L)
+                        .append(",\"x\":").append(i / 3.0)
+                        .append(",\"y\":").append(-i * 0.125)
+                        .append('}');
+            }
+            return sb.append(']').toString();
+        }
+        if (STRING.equals(shape)) {
+            sb.append('[');
+            for (int i = 0; i < SIZE; i++) {
+                sb.append(i > 0 ? "," : "")
+                        .append("{\"name\":\"user ").append(i)
+                        .append("\",\"email\":\"user").append(i).append("@example.com")
+                        .append("\",\"bio\":\"Line one\\nLine \\\"two\\\" \\u00e9\\u4e2d ").append(i)
+                        .append("\",\"tags\":[\"alpha\",\"beta\",\"gamma\"]}");
+            }
+            return sb.append(']').toString();
+        }
+        throw new IllegalArgumentException("Unknown shape " + shape);
+    }
+
+    /**
+     * @param shape Shape
+     * @return Path of single scalar deep inside the document
+     */
+    public static String path(String shape)
+    {
+        if (WIDE.equals(shape)) {
+            return "key500";
+        }
+        if (DEEP.equals(shape)) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < DEPTH / 2; i++) {
+                sb.append("level.");
+            }
+            return sb.append("value").toString();
+        }
+        if (NUMERIC.equals(shape)) {
+            return "500.x";
+        }
+        if (STRING.equals(shape)) {
+            return "500.bio";
+        }
+        throw new IllegalArgumentException("Unknown shape " + shape);
+    }
+
+    /**
+     * @param shape Shape
+     * @return New document of provided shape
+     */
+    public static ChainNode node(String shape)
+    {
+        return ChainNode.fromJSON(json(shape));
+    }
+}
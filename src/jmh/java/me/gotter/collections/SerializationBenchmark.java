@@ -0,0 +1,89 @@
+package me.gotter.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON and binary encoding and decoding of documents of different shapes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark
+{
+    @Param({Documents.WIDE, Documents.DEEP, Documents.NUMERIC, Documents.STRING})
+    public String shape;
+
+    private ChainNode node;
+    private String json;
+    private byte[] jsonBytes;
+    private byte[] binary;
+    private String path;
+
+    @Setup
+    public void setUp()
+    {
+        node = Documents.node(shape);
+        json = Documents.json(shape);
+        jsonBytes = json.getBytes(Charset.forName("UTF-8"));
+        binary = node.toBinary();
+        path = Documents.path(shape);
+    }
+
+    @Benchmark
+    public String toJSON()
+    {
+        return node.toJSON();
+    }
+
+    @Benchmark
+    public String toJSONParallel()
+    {
+        return node.toJSONParallel();
+    }
+
+    @Benchmark
+    public byte[] writeJSON() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jsonBytes.length);
+        node.writeJSON(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public ChainNode fromJSON()
+    {
+        return ChainNode.fromJSON(json);
+    }
+
+    @Benchmark
+    public ChainNode fromJSONBytes()
+    {
+        return ChainNode.fromJSON(jsonBytes);
+    }
+
+    @Benchmark
+    public ChainNode fromJSONLazyPath()
+    {
+        return ChainNode.fromJSONLazy(jsonBytes).find(path);
+    }
+
+    @Benchmark
+    public byte[] toBinary()
+    {
+        return node.toBinary();
+    }
+
+    @Benchmark
+    public ChainNode fromBinary()
+    {
+        return ChainNode.fromBinary(binary);
+    }
+}
@@ -0,0 +1,842 @@
+package me.gotter.collections;
+
+import java.util.*;
+
+/**
+ * ChainNode facade over node record in ChainNodeArena
+ * <p/>
+ * Node record is 16 bytes: tag byte, then int table handle, int size and
+ * int capacity or index handle for lists and maps, or long bits for
+ * primitives, or int string handle for strings. List table holds int
+ * element handles. Map table holds capacity and insertion-ordered pairs
+ * of key and value handles, maps above CompactMap.THRESHOLD keys get
+ * open addressing index of entry positions.
+ * <p/>
+ * Facade keeps nothing but handle, so any amount of facades over the same
+ * node see each other's changes. Views, returned by keySet(), values()
+ * and entrySet() are read-only.
+ */
+final class ArenaChainNode extends ChainNode {
+
+	private static final byte STRING = 6;
+	private static final byte LIST = 7;
+	private static final byte MAP = 8;
+
+	private static final int NODE_SIZE = 16;
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private final ChainNodeArena arena;
+	private final int handle;
+
+	ArenaChainNode(ChainNodeArena arena, int handle) {
+		this.arena = arena;
+		this.handle = handle;
+	}
+
+	static int allocate(ChainNodeArena arena) {
+		return arena.allocate(NODE_SIZE);
+	}
+
+	private long address() {
+		return ChainNodeArena.address(handle);
+	}
+
+	private byte tag() {
+		return arena.getByte(address());
+	}
+
+	private int table() {
+		return arena.getInt(address() + 4);
+	}
+
+	private int count() {
+		return arena.getInt(address() + 8);
+	}
+
+	private long bits() {
+		return arena.getLong(address() + 8);
+	}
+
+	private ArenaChainNode node(int child) {
+		return new ArenaChainNode(arena, child);
+	}
+
+	/**
+	 * Stores value as new node of the arena, nodes of the same arena are linked
+	 *
+	 * @return Handle of child node
+	 */
+	private int child(Object value) {
+		if (value instanceof ArenaChainNode && ((ArenaChainNode) value).arena == arena) {
+			return ((ArenaChainNode) value).handle;
+		}
+		int child = allocate(arena);
+		node(child).set(value);
+		return child;
+	}
+
+	/**
+	 * @return Deep copy of the node on heap
+	 */
+	ChainNode toHeap() {
+		switch (tag()) {
+			case LIST:
+				ChainNode list = new ChainNode();
+				int size = count();
+				list.ensureCapacity(size);
+				for (int i = 0; i < size; i++) {
+					list.append(listGet(i).toHeap());
+				}
+				return list;
+			case MAP:
+				ChainNode map = new ChainNode();
+				map.putAll(Collections.<String, ChainNode>emptyMap());
+				for (int i = 0; i < count(); i++) {
+					map.put(arena.readString(entryKey(i)), node(entryValue(i)).toHeap());
+				}
+				return map;
+			default:
+				return new ChainNode(get());
+		}
+	}
+
+	/////////////////////////    Types    /////////////////////////
+
+	@Override
+	public boolean isNull() {
+		return tag() == PRIMITIVE_NONE;
+	}
+
+	@Override
+	protected boolean isNotNullScalar() {
+		byte tag = tag();
+		return tag != PRIMITIVE_NONE && tag != LIST && tag != MAP;
+	}
+
+	@Override
+	public boolean isBool() {
+		return tag() == PRIMITIVE_BOOL;
+	}
+
+	@Override
+	public boolean isString() {
+		return tag() == STRING;
+	}
+
+	@Override
+	public boolean isInt() {
+		return tag() == PRIMITIVE_INT;
+	}
+
+	@Override
+	public boolean isLong() {
+		byte tag = tag();
+		return tag == PRIMITIVE_INT || tag == PRIMITIVE_LONG;
+	}
+
+	@Override
+	public boolean isFloat() {
+		return tag() == PRIMITIVE_FLOAT;
+	}
+
+	@Override
+	public boolean isDouble() {
+		byte tag = tag();
+		return tag == PRIMITIVE_FLOAT || tag == PRIMITIVE_DOUBLE;
+	}
+
+	@Override
+	public boolean isIterable() {
+		byte tag = tag();
+		return tag == LIST || tag == MAP;
+	}
+
+	@Override
+	public boolean isList() {
+		return tag() == LIST;
+	}
+
+	@Override
+	public boolean isMap() {
+		return tag() == MAP;
+	}
+
+	@Override
+	public ChainNode freeze() {
+		return toHeap().freeze();
+	}
+
+	/////////////////////////    Scalars    /////////////////////////
+
+	@Override
+	public Object get() {
+		switch (tag()) {
+			case PRIMITIVE_BOOL:
+				return bits() != 0;
+			case PRIMITIVE_INT:
+				return (int) bits();
+			case PRIMITIVE_LONG:
+				return bits();
+			case PRIMITIVE_FLOAT:
+				return (float) Double.longBitsToDouble(bits());
+			case PRIMITIVE_DOUBLE:
+				return Double.longBitsToDouble(bits());
+			case STRING:
+				return arena.readString(table());
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public boolean getBool() {
+		if (tag() == PRIMITIVE_BOOL) {
+			return bits() != 0;
+		}
+		return (Boolean) get();
+	}
+
+	@Override
+	public String getString() {
+		switch (tag()) {
+			case PRIMITIVE_NONE:
+				return "";
+			case PRIMITIVE_BOOL:
+				return String.valueOf(bits() != 0);
+			case PRIMITIVE_INT:
+			case PRIMITIVE_LONG:
+				return String.valueOf(bits());
+			case PRIMITIVE_FLOAT:
+				return String.valueOf((float) Double.longBitsToDouble(bits()));
+			case PRIMITIVE_DOUBLE:
+				return String.valueOf(Double.longBitsToDouble(bits()));
+			case STRING:
+				return arena.readString(table());
+			default:
+				throw new RuntimeException("ChainNode not a scalar");
+		}
+	}
+
+	@Override
+	public int getInt() {
+		if (tag() == PRIMITIVE_INT) {
+			return (int) bits();
+		}
+		return (Integer) get();
+	}
+
+	@Override
+	public long getLong() {
+		byte tag = tag();
+		if (tag == PRIMITIVE_INT || tag == PRIMITIVE_LONG) {
+			return bits();
+		}
+		return (Long) get();
+	}
+
+	@Override
+	public float getFloat() {
+		if (tag() == PRIMITIVE_FLOAT) {
+			return (float) Double.longBitsToDouble(bits());
+		}
+		return (Float) get();
+	}
+
+	@Override
+	public double getDouble() {
+		byte tag = tag();
+		if (tag == PRIMITIVE_FLOAT || tag == PRIMITIVE_DOUBLE) {
+			return Double.longBitsToDouble(bits());
+		}
+		return (Double) get();
+	}
+
+	/////////////////////////    Setters    /////////////////////////
+
+	@Override
+	public void clear() {
+		beforeWrite();
+		long address = address();
+		arena.putLong(address, 0);
+		arena.putLong(address + 8, 0);
+	}
+
+	@Override
+	protected void setPrimitive(byte type, long bits) {
+		beforeWrite();
+		long address = address();
+		arena.putByte(address, type);
+		arena.putLong(address + 8, bits);
+	}
+
+	@Override
+	public ChainNode set(Object value) {
+		if (value instanceof ChainNode) {
+			copy((ChainNode) value);
+			return this;
+		}
+		clear();
+		if (value == null) {
+			return this;
+		} else if (value instanceof Integer) {
+			setPrimitive(PRIMITIVE_INT, (Integer) value);
+		} else if (value instanceof Long) {
+			setPrimitive(PRIMITIVE_LONG, (Long) value);
+		} else if (value instanceof Boolean) {
+			setPrimitive(PRIMITIVE_BOOL, (Boolean) value ? 1 : 0);
+		} else if (value instanceof Double) {
+			setPrimitive(PRIMITIVE_DOUBLE, Double.doubleToRawLongBits((Double) value));
+		} else if (value instanceof Float) {
+			setPrimitive(PRIMITIVE_FLOAT, Double.doubleToRawLongBits((Float) value));
+		} else if (value instanceof CharSequence) {
+			setString(value.toString());
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			initList(array.length);
+			for (Object o : array) {
+				listAdd(child(o));
+			}
+		} else if (value instanceof Collection<?>) {
+			Collection<?> collection = (Collection<?>) value;
+			initList(collection.size());
+			for (Object o : collection) {
+				listAdd(child(o));
+			}
+		} else if (value instanceof Map<?, ?>) {
+			initMap(((Map<?, ?>) value).size());
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				mapPut(entry.getKey().toString(), child(entry.getValue()));
+			}
+		} else if (!ChainNodeAdapters.isScalar(value.getClass())) {
+			// Primitive arrays, registered beans and values of custom adapters
+			copy(new ChainNode(value));
+		} else {
+			throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+		}
+		return this;
+	}
+
+	private void copy(ChainNode source) {
+		if (source instanceof ArenaChainNode && ((ArenaChainNode) source).arena == arena
+				&& ((ArenaChainNode) source).handle == handle) {
+			return;
+		}
+		// Children of source stay intact, even if source is inside this node
+		if (source.isMap()) {
+			List<Map.Entry<String, ChainNode>> entries = new ArrayList<Map.Entry<String, ChainNode>>(source.entrySet());
+			clear();
+			initMap(entries.size());
+			for (Map.Entry<String, ChainNode> entry : entries) {
+				mapPut(entry.getKey(), child(entry.getValue()));
+			}
+		} else if (source.isList()) {
+			List<ChainNode> items = new ArrayList<ChainNode>(source.size());
+			for (ChainNode item : source) {
+				items.add(item);
+			}
+			clear();
+			initList(items.size());
+			for (ChainNode item : items) {
+				listAdd(child(item));
+			}
+		} else if (source.isNull()) {
+			clear();
+		} else if (source.isBool()) {
+			setBool(source.getBool());
+		} else if (source.isInt()) {
+			setInt(source.getInt());
+		} else if (source.isLong()) {
+			setLong(source.getLong());
+		} else if (source.isFloat()) {
+			setFloat(source.getFloat());
+		} else if (source.isDouble()) {
+			setDouble(source.getDouble());
+		} else {
+			set(source.get());
+		}
+	}
+
+	private void setString(String value) {
+		int string = arena.string(value);
+		long address = address();
+		arena.putByte(address, STRING);
+		arena.putInt(address + 4, string);
+	}
+
+	/////////////////////////    List    /////////////////////////
+
+	private void initList(int capacity) {
+		capacity = Math.max(capacity, DEFAULT_CAPACITY);
+		int table = arena.allocate(capacity * 4L);
+		long address = address();
+		arena.putLong(address, 0);
+		arena.putByte(address, LIST);
+		arena.putInt(address + 4, table);
+		arena.putInt(address + 8, 0);
+		arena.putInt(address + 12, capacity);
+	}
+
+	private void toList(int capacity) {
+		if (!isList()) {
+			if (!isEmpty()) {
+				throw new IllegalStateException("Not a list");
+			}
+			initList(capacity);
+		}
+	}
+
+	private void growList(int capacity) {
+		long address = address();
+		if (capacity <= arena.getInt(address + 12)) {
+			return;
+		}
+		int size = count();
+		long from = ChainNodeArena.address(table());
+		int table = arena.allocate(capacity * 4L);
+		long to = ChainNodeArena.address(table);
+		for (int i = 0; i < size; i++) {
+			arena.putInt(to + i * 4L, arena.getInt(from + i * 4L));
+		}
+		arena.putInt(address + 4, table);
+		arena.putInt(address + 12, capacity);
+	}
+
+	private void listAdd(int child) {
+		int size = count();
+		if (size == arena.getInt(address() + 12)) {
+			growList(size * 2);
+		}
+		arena.putInt(ChainNodeArena.address(table()) + size * 4L, child);
+		arena.putInt(address() + 8, size + 1);
+	}
+
+	private ArenaChainNode listGet(int index) {
+		int size = count();
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return node(arena.getInt(ChainNodeArena.address(table()) + index * 4L));
+	}
+
+	@Override
+	public ChainNode add(Object value) {
+		beforeWrite();
+		toList(0);
+		listAdd(child(value));
+		return this;
+	}
+
+	@Override
+	public ChainNode append(ChainNode node) {
+		beforeWrite();
+		toList(0);
+		listAdd(child(node));
+		return this;
+	}
+
+	@Override
+	public ChainNode ensureCapacity(int capacity) {
+		beforeWrite();
+		toList(capacity);
+		growList(capacity);
+		return this;
+	}
+
+	@Override
+	public ChainNode get(int index) {
+		if (!isList()) {
+			throw new RuntimeException("ChainNode not a list");
+		}
+		return listGet(index);
+	}
+
+	@Override
+	public ChainNode peek(int index) {
+		if (!isList() || index < 0 || index >= count()) {
+			return MISSING;
+		}
+		return listGet(index);
+	}
+
+	@Override
+	public ChainNode set(int index, Object value) {
+		if (!isList()) {
+			throw new RuntimeException("ChainNode is not list");
+		}
+		listGet(index);
+		beforeWrite();
+		arena.putInt(ChainNodeArena.address(table()) + index * 4L, child(value));
+		return this;
+	}
+
+	/////////////////////////    Map    /////////////////////////
+
+	private void initMap(int capacity) {
+		capacity = Math.max(capacity, DEFAULT_CAPACITY);
+		int table = arena.allocate(8 + capacity * 8L);
+		arena.putInt(ChainNodeArena.address(table), capacity);
+		long address = address();
+		arena.putLong(address, 0);
+		arena.putByte(address, MAP);
+		arena.putInt(address + 4, table);
+		arena.putLong(address + 8, 0);
+	}
+
+	private void toMap() {
+		if (isNull()) {
+			initMap(0);
+		}
+		if (!isMap()) {
+			throw new RuntimeException("ChainNode not a map");
+		}
+	}
+
+	private long entry(int i) {
+		return ChainNodeArena.address(table()) + 8 + i * 8L;
+	}
+
+	private int entryKey(int i) {
+		return arena.getInt(entry(i));
+	}
+
+	private int entryValue(int i) {
+		return arena.getInt(entry(i) + 4);
+	}
+
+	private int index() {
+		return arena.getInt(address() + 12);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return Position of entry or -1
+	 */
+	private int mapFind(String key) {
+		int index = index();
+		if (index == 0) {
+			int size = count();
+			for (int i = 0; i < size; i++) {
+				if (arena.stringEquals(entryKey(i), key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		long address = ChainNodeArena.address(index);
+		int mask = arena.getInt(address) - 1;
+		int slot = spread(key.hashCode()) & mask;
+		while (true) {
+			int position = arena.getInt(address + 8 + slot * 4L);
+			if (position == 0) {
+				return -1;
+			}
+			if (arena.stringEquals(entryKey(position - 1), key)) {
+				return position - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return Handle of replaced value or 0
+	 */
+	private int mapPut(String key, int value) {
+		int i = mapFind(key);
+		if (i >= 0) {
+			int previous = entryValue(i);
+			arena.putInt(entry(i) + 4, value);
+			return previous;
+		}
+
+		int size = count();
+		long table = ChainNodeArena.address(table());
+		int capacity = arena.getInt(table);
+		if (size == capacity) {
+			int grown = arena.allocate(8 + capacity * 16L);
+			long to = ChainNodeArena.address(grown);
+			arena.putInt(to, capacity * 2);
+			for (int j = 0; j < size; j++) {
+				arena.putLong(to + 8 + j * 8L, arena.getLong(table + 8 + j * 8L));
+			}
+			arena.putInt(address() + 4, grown);
+		}
+		long entry = entry(size);
+		arena.putInt(entry, arena.key(key));
+		arena.putInt(entry + 4, value);
+		arena.putInt(address() + 8, size + 1);
+
+		size++;
+		if (size > CompactMap.THRESHOLD) {
+			int index = index();
+			if (index == 0 || size * 2 > arena.getInt(ChainNodeArena.address(index))) {
+				reindex(size);
+			} else {
+				indexPut(ChainNodeArena.address(index), size - 1);
+			}
+		}
+		return 0;
+	}
+
+	private void reindex(int size) {
+		if (size <= CompactMap.THRESHOLD) {
+			arena.putInt(address() + 12, 0);
+			return;
+		}
+		int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+		int index = arena.allocate(8 + capacity * 4L);
+		long address = ChainNodeArena.address(index);
+		arena.putInt(address, capacity);
+		for (int i = 0; i < size; i++) {
+			indexPut(address, i);
+		}
+		arena.putInt(address() + 12, index);
+	}
+
+	private void indexPut(long index, int i) {
+		int mask = arena.getInt(index) - 1;
+		int slot = spread(arena.stringHash(entryKey(i))) & mask;
+		while (arena.getInt(index + 8 + slot * 4L) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		arena.putInt(index + 8 + slot * 4L, i + 1);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key != null && isMap() && mapFind(key.toString()) >= 0;
+	}
+
+	@Override
+	public ChainNode get(Object key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		toMap();
+		int i = mapFind(key.toString());
+		if (i >= 0) {
+			return node(entryValue(i));
+		}
+		beforeWrite();
+		int child = allocate(arena);
+		mapPut(key.toString(), child);
+		return node(child);
+	}
+
+	@Override
+	public ChainNode peek(Object key) {
+		if (key == null || !isMap()) {
+			return MISSING;
+		}
+		int i = mapFind(key.toString());
+		return i < 0 ? MISSING : node(entryValue(i));
+	}
+
+	@Override
+	public ChainNode set(String key, Object value) {
+		beforeWrite();
+		if (isNull()) {
+			initMap(0);
+		}
+		if (!isMap()) {
+			throw new RuntimeException("ChainNode is not map");
+		}
+		mapPut(key, child(value));
+		return this;
+	}
+
+	@Override
+	public ChainNode put(String key, ChainNode value) {
+		beforeWrite();
+		toMap();
+		int previous = mapPut(key, child(value));
+		return previous == 0 ? null : node(previous);
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends ChainNode> m) {
+		beforeWrite();
+		toMap();
+		for (Map.Entry<? extends String, ? extends ChainNode> entry : m.entrySet()) {
+			mapPut(entry.getKey(), child(entry.getValue()));
+		}
+	}
+
+	@Override
+	public ChainNode remove(Object key) {
+		if (key == null || !isMap()) {
+			return null;
+		}
+		int i = mapFind(key.toString());
+		if (i < 0) {
+			return null;
+		}
+		beforeWrite();
+		int previous = entryValue(i);
+		int size = count();
+		for (int j = i + 1; j < size; j++) {
+			arena.putLong(entry(j - 1), arena.getLong(entry(j)));
+		}
+		arena.putInt(address() + 8, size - 1);
+		reindex(size - 1);
+		return node(previous);
+	}
+
+	@Override
+	public int size() {
+		switch (tag()) {
+			case PRIMITIVE_NONE:
+				return 0;
+			case LIST:
+			case MAP:
+				return count();
+			default:
+				return 1;
+		}
+	}
+
+	@Override
+	public Set<String> keySet() {
+		if (isNull()) {
+			return new HashSet<String>();
+		}
+		if (!isMap()) {
+			throw new RuntimeException("ChainNode not a map");
+		}
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new ImmutableChainNode.ArrayIterator<String>(count()) {
+					@Override
+					String element(int i) {
+						return arena.readString(entryKey(i));
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return count();
+			}
+		};
+	}
+
+	@Override
+	public Collection<ChainNode> values() {
+		if (!isIterable()) {
+			return new HashSet<ChainNode>();
+		}
+		return new AbstractList<ChainNode>() {
+			@Override
+			public ChainNode get(int index) {
+				return isList() ? listGet(index) : node(entryValue(index));
+			}
+
+			@Override
+			public int size() {
+				return count();
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<String, ChainNode>> entrySet() {
+		toMap();
+		return new AbstractSet<Entry<String, ChainNode>>() {
+			@Override
+			public Iterator<Entry<String, ChainNode>> iterator() {
+				return new ImmutableChainNode.ArrayIterator<Entry<String, ChainNode>>(count()) {
+					@Override
+					Entry<String, ChainNode> element(int i) {
+						return new AbstractMap.SimpleImmutableEntry<String, ChainNode>(
+								arena.readString(entryKey(i)), node(entryValue(i)));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return count();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<ChainNode> iterator() {
+		if (!isIterable()) {
+			throw new RuntimeException("Not iterable");
+		}
+		return values().iterator();
+	}
+
+	@Override
+	public Spliterator<ChainNode> spliterator() {
+		if (!isIterable()) {
+			return Spliterators.emptySpliterator();
+		}
+		return ChainNodeSpliterators.list((List<ChainNode>) values());
+	}
+
+	/////////////////////////    Java core    /////////////////////////
+
+	@Override
+	public String toString() {
+		return isIterable() ? toHeap().toString() : getString();
+	}
+
+	/**
+	 * Nodes are views over handles, written through other instances too
+	 */
+	@Override
+	boolean tracksWrites() {
+		return false;
+	}
+
+	/**
+	 * Containers are hashed and compared by ChainNodeWalker, same as heap
+	 * nodes, so depth of arena trees is not limited by thread stack
+	 */
+	@Override
+	public int hashCode() {
+		switch (tag()) {
+			case PRIMITIVE_NONE:
+				return 0;
+			case LIST:
+			case MAP:
+				return ChainNodeWalker.hash(this);
+			default:
+				return get().hashCode();
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null) {
+			// Same as heap nodes, null nodes are equal to null
+			return isNull();
+		}
+		if (!(o instanceof ChainNode)) {
+			return equals(new ChainNode(o));
+		}
+		ChainNode other = (ChainNode) o;
+		switch (tag()) {
+			case PRIMITIVE_NONE:
+				return other.isNull();
+			case LIST:
+			case MAP:
+				return ChainNodeWalker.equal(this, other);
+			default:
+				return !other.isIterable() && get().equals(other.get());
+		}
+	}
+}
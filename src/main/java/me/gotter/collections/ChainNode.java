@@ -1,8 +1,20 @@
 package me.gotter.collections;
 
+import me.gotter.collections.util.ChainNodeBinaryParser;
+import me.gotter.collections.util.ChainNodeBinarySerializer;
+import me.gotter.collections.util.ChainNodeJsonParser;
 import me.gotter.collections.util.ChainNodeJsonSerializer;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Special collection, containing either hash map, either list, either plain
@@ -11,11 +23,39 @@ import java.util.*;
  */
 public class ChainNode implements Map<String, ChainNode>, Iterable<ChainNode> {
 
+	/**
+	 * Shared immutable node, returned by read-only lookups on misses
+	 */
+	public static final ChainNode MISSING = new ImmutableChainNode();
+
+	/**
+	 * Primitive type tags
+	 */
+	protected static final byte PRIMITIVE_NONE = 0;
+	protected static final byte PRIMITIVE_BOOL = 1;
+	protected static final byte PRIMITIVE_INT = 2;
+	protected static final byte PRIMITIVE_LONG = 3;
+	protected static final byte PRIMITIVE_FLOAT = 4;
+	protected static final byte PRIMITIVE_DOUBLE = 5;
+
 	/**
 	 * Scalar internal value Only one of the values can be set at time
+	 * Never holds boxed boolean, int, long, float or double - they are
+	 * stored unboxed in valuePrimitive
 	 */
 	protected Object valueObject = null;
 
+	/**
+	 * Type of primitive, stored in valuePrimitive, or PRIMITIVE_NONE
+	 */
+	protected byte primitiveType = PRIMITIVE_NONE;
+
+	/**
+	 * Primitive internal value Only one of the values can be set at time
+	 * Booleans are stored as 0 or 1, floats and doubles as double bits
+	 */
+	protected long valuePrimitive = 0;
+
 	/**
 	 * Hash table internal value Only one of the values can be set at time
 	 */
@@ -26,6 +66,25 @@ public class ChainNode implements Map<String, ChainNode>, Iterable<ChainNode> {
 	 */
 	protected List<ChainNode> valueArray = null;
 
+	/**
+	 * True if containers are borrowed from frozen node by copy-on-write clone
+	 * Shared containers are never modified, they are copied on first write
+	 */
+	protected boolean shared = false;
+
+	/**
+	 * Current hash stamp, hashes are cached with it. Bumped by write to node,
+	 * hashed with current stamp - such node is part of some cached hash, and
+	 * without links to parents hashes of its ancestors are dropped this way.
+	 * Writes to nodes, not hashed since last bump, keep cached hashes.
+	 */
+	private static final AtomicLong HASH_STAMP = new AtomicLong(1);
+
+	/**
+	 * Cached structural hash of container and stamp, node was last hashed with
+	 */
+	private HashCache hashCache;
+
 	/////////////////////////    Constructors    /////////////////////////
 	/**
 	 * Creates new empty node
@@ -35,41 +94,221 @@ public class ChainNode implements Map<String, ChainNode>, Iterable<ChainNode> {
 
 	/**
 	 * Creates new node with provided object as value
+	 * <p/>
+	 * ChainNode values are cloned. Frozen nodes are cloned in O(1) - clone
+	 * borrows their containers until first write to it, then only that node's
+	 * container is copied, and its children become clones in turn, so a write
+	 * copies only nodes along its path. Until then reads and collection views
+	 * of the clone return frozen children, use get(key) or path() to obtain
+	 * children for writing. Mutable nodes are copied up to frozen and
+	 * borrowed subtrees, so clone and source never share mutable nodes.
+	 * Sources are never modified, so frozen templates can be cloned by any
+	 * amount of threads concurrently.
+	 * <p/>
+	 * Copying of mutable source takes time, proportional to its size, so
+	 * templates, cloned repeatedly, should be frozen once with freeze() and
+	 * cloned from frozen copy - that is the supported pattern for cheap clones.
 	 * 
 	 * @param value data
 	 */
 	public ChainNode(Object value) {
-		if (value instanceof ChainNode) {
-			// cloning values
-			ChainNode source = (ChainNode) value;
+		if (value instanceof ArenaChainNode) {
+			// Arena nodes keep no state on heap, their heap copy is taken as is
+			ChainNode source = ((ArenaChainNode) value).toHeap();
 			this.valueObject = source.valueObject;
+			this.primitiveType = source.primitiveType;
+			this.valuePrimitive = source.valuePrimitive;
 			this.valueArray = source.valueArray;
 			this.valueHash = source.valueHash;
+		} else if (value instanceof ChainNode) {
+			// cloning values
+			copyOf((ChainNode) value);
 		} else {
 			this.set(value);
 		}
 	}
 
+	/**
+	 * Creates container for map content of the node
+	 * Small maps are array based and turn into hash table when grow
+	 *
+	 * @return Empty map
+	 */
+	protected Map<String, ChainNode> newMap() {
+		return new CompactMap();
+	}
+
+	/**
+	 * Creates container for list content of the node
+	 *
+	 * @param capacity Expected amount of elements, 0 if unknown
+	 * @return Empty list
+	 */
+	protected List<ChainNode> newList(int capacity) {
+		if (capacity <= 0) {
+			return new ArrayList<ChainNode>();
+		}
+		return new ArrayList<ChainNode>(capacity);
+	}
+
+	/**
+	 * Creates child node for provided value, used whenever node wraps
+	 * plain values into children
+	 *
+	 * @param value Value
+	 * @return New node
+	 */
+	protected ChainNode newChild(Object value) {
+		return new ChainNode(value);
+	}
+
+	/**
+	 * Invoked before any modification of the node, including modifications
+	 * through collection views. Mutable nodes, hashed with current stamp,
+	 * drop cached hashes, read-only ones throw
+	 *
+	 * @throws UnsupportedOperationException if node cannot be modified
+	 */
+	protected void beforeWrite() {
+		HashCache cache = hashCache;
+		if (cache != null && cache.stamp == HASH_STAMP.get()) {
+			HASH_STAMP.compareAndSet(cache.stamp, cache.stamp + 1);
+		}
+	}
+
+	/**
+	 * Takes value of provided node - containers of frozen and borrowing nodes
+	 * are borrowed, mutable containers are copied together with their
+	 * children, without recursion, down to borrowed subtrees
+	 *
+	 * @param root Source node
+	 */
+	private void copyOf(ChainNode root) {
+		ArrayDeque<ChainNode> pending = new ArrayDeque<ChainNode>();
+		pending.push(root);
+		pending.push(this);
+		while (!pending.isEmpty()) {
+			ChainNode target = pending.pop();
+			ChainNode source = pending.pop();
+			target.valueObject = source.valueObject;
+			target.primitiveType = source.primitiveType;
+			target.valuePrimitive = source.valuePrimitive;
+			if (source.valueHash == null && source.valueArray == null) {
+				continue;
+			}
+			if (source.shared || source.isFrozen()) {
+				target.valueHash = source.valueHash;
+				target.valueArray = source.valueArray;
+				target.hashCache = source.hashCache;
+				target.shared = true;
+			} else if (source.valueHash != null) {
+				target.valueHash = target.newMap();
+				Iterator<Map.Entry<String, ChainNode>> entries = source.readEntries();
+				while (entries.hasNext()) {
+					Map.Entry<String, ChainNode> entry = entries.next();
+					target.valueHash.put(entry.getKey(), copyChild(entry.getValue(), pending));
+				}
+			} else {
+				target.valueArray = target.newList(source.valueArray.size());
+				Iterator<ChainNode> elements = source.readElements();
+				while (elements.hasNext()) {
+					target.valueArray.add(copyChild(elements.next(), pending));
+				}
+			}
+		}
+	}
+
+	private static ChainNode copyChild(ChainNode child, ArrayDeque<ChainNode> pending) {
+		if (child == null) {
+			return null;
+		}
+		if (child instanceof ArenaChainNode) {
+			return new ChainNode(child);
+		}
+		ChainNode copy = new ChainNode();
+		pending.push(child);
+		pending.push(copy);
+		return copy;
+	}
+
+	/**
+	 * Copies borrowed containers before modification, children of
+	 * frozen node are turned into copy-on-write clones
+	 */
+	void own() {
+		if (shared) {
+			unshare();
+		}
+	}
+
+	private void unshare() {
+		shared = false;
+		if (valueHash != null) {
+			Map<String, ChainNode> copy = newMap();
+			for (Map.Entry<String, ChainNode> entry : valueHash.entrySet()) {
+				copy.put(entry.getKey(), cloneChild(entry.getValue()));
+			}
+			valueHash = copy;
+		} else if (valueArray != null) {
+			List<ChainNode> copy = newList(valueArray.size());
+			for (ChainNode item : valueArray) {
+				copy.add(cloneChild(item));
+			}
+			valueArray = copy;
+		}
+	}
+
+	private static ChainNode cloneChild(ChainNode child) {
+		return child == null ? null : new ChainNode(child);
+	}
+
 	/////////////////////////     Validators    /////////////////////////
 	/**
 	 * @return True if value of node is null (not just empty, but null exactly)
 	 */
 	public boolean isNull() {
-		return valueObject == null && valueArray == null && valueHash == null;
+		return valueObject == null && primitiveType == PRIMITIVE_NONE
+				&& valueArray == null && valueHash == null;
+	}
+
+	/**
+	 * @return True if node and its whole subtree are immutable
+	 */
+	public boolean isFrozen() {
+		return false;
+	}
+
+	/**
+	 * Returns deeply immutable copy of the node
+	 * Frozen tree uses read-optimized containers and cached hash codes,
+	 * and once safely published, can be read from any amount of threads
+	 * without locking. Frozen nodes return themselves.
+	 *
+	 * @return Immutable node
+	 */
+	public ChainNode freeze() {
+		return ImmutableChainNode.copyOf(this);
+	}
+
+	/**
+	 * @return True if node is MISSING sentinel, returned by read-only lookups
+	 */
+	public boolean isMissing() {
+		return this == MISSING;
 	}
 
 	/**
 	 * @return True if value of ChainNode is scalar
 	 */
 	protected boolean isNotNullScalar() {
-		return valueObject != null;
+		return valueObject != null || primitiveType != PRIMITIVE_NONE;
 	}
 
 	/**
 	 * @return True if value is boolean
 	 */
 	public boolean isBool() {
-		return isNotNullScalar() && valueObject instanceof Boolean;
+		return primitiveType == PRIMITIVE_BOOL;
 	}
 
 	/**
@@ -90,29 +329,28 @@ public class ChainNode implements Map<String, ChainNode>, Iterable<ChainNode> {
 	 * @return True if value is int
 	 */
 	public boolean isInt() {
-		return isNotNullScalar() && valueObject instanceof Integer;
+		return primitiveType == PRIMITIVE_INT;
 	}
 
 	/**
-s	 * @return True if value is long
+	 * @return True if value is long
 	 */
 	public boolean isLong() {
-		return isNotNullScalar() && (isInt() || valueObject instanceof Long);
+		return primitiveType == PRIMITIVE_INT || primitiveType == PRIMITIVE_LONG;
 	}
 
 	/**
 	 * @return True if value is float
 	 */
 	public boolean isFloat() {
-		return isNotNullScalar() && valueObject instanceof Float;
+		return primitiveType == PRIMITIVE_FLOAT;
 	}
 
 	/**
 	 * @return True if value is double
 	 */
 	public boolean isDouble() {
-		return isNotNullScalar()
-				&& (isFloat() || valueObject instanceof Double);
+		return primitiveType == PRIMITIVE_FLOAT || primitiveType == PRIMITIVE_DOUBLE;
 	}
 
 	/**
@@ -141,17 +379,35 @@ s	 * @return True if value is long
 
 	/////////////////////////    Getters    /////////////////////////
 	/**
+	 * Primitives are boxed on each call, prefer typed getters for them
+	 *
 	 * @return value, contained in ChainNode
 	 */
 	public Object get() {
-		return valueObject;
+		switch (primitiveType) {
+			case PRIMITIVE_BOOL:
+				return valuePrimitive != 0;
+			case PRIMITIVE_INT:
+				return (int) valuePrimitive;
+			case PRIMITIVE_LONG:
+				return valuePrimitive;
+			case PRIMITIVE_FLOAT:
+				return (float) Double.longBitsToDouble(valuePrimitive);
+			case PRIMITIVE_DOUBLE:
+				return Double.longBitsToDouble(valuePrimitive);
+			default:
+				return valueObject;
+		}
 	}
 
 	/**
 	 * @return boolean value, stored in ChainNode
 	 */
 	public boolean getBool() {
-		return (Boolean) valueObject;
+		if (primitiveType == PRIMITIVE_BOOL) {
+			return valuePrimitive != 0;
+		}
+		return (Boolean) get();
 	}
 
 	/**
@@ -161,45 +417,130 @@ s	 * @return True if value is long
 		if (isNull()) {
 			return "";
 		}
-		return valueObject.toString();
+		switch (primitiveType) {
+			case PRIMITIVE_BOOL:
+				return String.valueOf(valuePrimitive != 0);
+			case PRIMITIVE_INT:
+			case PRIMITIVE_LONG:
+				return String.valueOf(valuePrimitive);
+			case PRIMITIVE_FLOAT:
+				return String.valueOf((float) Double.longBitsToDouble(valuePrimitive));
+			case PRIMITIVE_DOUBLE:
+				return String.valueOf(Double.longBitsToDouble(valuePrimitive));
+			default:
+				return valueObject.toString();
+		}
 	}
 
 	/**
 	 * @return integer value, stored in ChainNode
 	 */
 	public int getInt() {
-		return (Integer) valueObject;
+		if (primitiveType == PRIMITIVE_INT) {
+			return (int) valuePrimitive;
+		}
+		return (Integer) get();
 	}
 
 	/**
 	 * @return long or integer value, stored in ChainNode
 	 */
 	public long getLong() {
-		if (isInt()) {
-			return getInt();
+		if (primitiveType == PRIMITIVE_INT || primitiveType == PRIMITIVE_LONG) {
+			return valuePrimitive;
 		}
-		return (Long) valueObject;
+		return (Long) get();
 	}
 
 	/**
 	 * @return float value, stored in ChainNode
 	 */
 	public float getFloat() {
-		return (Float) valueObject;
+		if (primitiveType == PRIMITIVE_FLOAT) {
+			return (float) Double.longBitsToDouble(valuePrimitive);
+		}
+		return (Float) get();
 	}
 
 	/**
 	 * @return float or double value, stored in ChainNode
 	 */
 	public double getDouble() {
-		if (isFloat()) {
-			return getFloat();
+		if (primitiveType == PRIMITIVE_FLOAT || primitiveType == PRIMITIVE_DOUBLE) {
+			return Double.longBitsToDouble(valuePrimitive);
+		}
+		return (Double) get();
+	}
+
+	/**
+	 * Returns list element by its index
+	 *
+	 * @param index Index
+	 * @return node
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public ChainNode get(int index) {
+		if (!isList()) {
+			throw new RuntimeException("ChainNode not a list");
 		}
-		return (Double) valueObject;
+		return valueArray.get(index);
+	}
+
+	/**
+	 * Read-only lookup by key
+	 * Unlike get(key), never creates missing nodes and never allocates
+	 *
+	 * @param key Key
+	 * @return node or MISSING if node is not a map or has no such key
+	 */
+	public ChainNode peek(Object key) {
+		if (key == null || !isMap()) {
+			return MISSING;
+		}
+		ChainNode value = valueHash.get(key);
+		return value == null ? MISSING : value;
+	}
+
+	/**
+	 * Read-only lookup by list index
+	 *
+	 * @param index Index
+	 * @return node or MISSING if node is not a list or index is out of range
+	 */
+	public ChainNode peek(int index) {
+		if (!isList() || index < 0 || index >= valueArray.size()) {
+			return MISSING;
+		}
+		ChainNode value = valueArray.get(index);
+		return value == null ? MISSING : value;
+	}
+
+	/**
+	 * Read-only lookup by dot-separated path
+	 * Unlike path(), never modifies the tree
+	 *
+	 * @param path Dot-separated path
+	 * @return node or MISSING if any segment is absent
+	 */
+	public ChainNode find(String path) {
+		return ChainPath.compile(path).find(this);
+	}
+
+	/**
+	 * Read-only lookup by precompiled path
+	 *
+	 * @param path Path
+	 * @return node or MISSING if any segment is absent
+	 */
+	public ChainNode find(ChainPath path) {
+		return path.find(this);
 	}
 
 	/**
 	 * Returns node by path, provided dot-separated string
+	 * Segments, addressing list nodes, are treated as indexes,
+	 * for example "items.3.name"
+	 * Compiled paths are cached, see ChainPath.compile()
 	 * 
 	 * @param path Dot-separated path
 	 * @return node
@@ -209,7 +550,21 @@ s	 * @return True if value is long
 			throw new NullPointerException();
 		}
 
-		return path(path.split("\\."));
+		return ChainPath.compile(path).resolve(this);
+	}
+
+	/**
+	 * Returns node by precompiled path
+	 *
+	 * @param path Path
+	 * @return node
+	 */
+	public ChainNode path(ChainPath path) {
+		if (path == null) {
+			throw new NullPointerException();
+		}
+
+		return path.resolve(this);
 	}
 
 	/**
@@ -234,11 +589,41 @@ s	 * @return True if value is long
 	 * @return node
 	 */
 	protected ChainNode path(String[] path, int offset) {
-		if (path.length - 1 == offset) {
-			return get(path[offset]);
+		ChainNode node = this;
+		for (int i = offset; i < path.length; i++) {
+			node = node.child(path[i]);
 		}
+		return node;
+	}
 
-		return get(path[offset]).path(path, offset + 1);
+	/**
+	 * Returns child for single path segment - list element when
+	 * node is a list, map value otherwise
+	 *
+	 * @param segment Path segment
+	 * @return node
+	 */
+	protected ChainNode child(String segment) {
+		if (isList()) {
+			int index = ChainPath.parseIndex(segment);
+			if (index < 0) {
+				throw new RuntimeException("Invalid list index " + segment);
+			}
+			return child(index);
+		}
+		return get(segment);
+	}
+
+	/**
+	 * Returns list element for path resolution, copying borrowed list
+	 * first, so that element can be modified
+	 *
+	 * @param index Index
+	 * @return node
+	 */
+	protected ChainNode child(int index) {
+		own();
+		return get(index);
 	}
 
 	/////////////////////////    Setter    /////////////////////////
@@ -251,17 +636,64 @@ s	 * @return True if value is long
      * @throws IllegalStateException if not a list
      */
     public ChainNode add(Object value) {
-        if (isEmpty()) {
+        beforeWrite();
+        own();
+        if (!isList()) {
+            if (!isEmpty()) {
+                throw new IllegalStateException("Not a list");
+            }
+            clear();
+            valueArray = newList(0);
+        }
+
+        valueArray.add(newChild(value));
+        return this;
+    }
+
+    /**
+     * Traits current node as list and appends provided node itself, not a copy
+     *
+     * @param node Node to append
+     * @return Current node
+     * @throws IllegalStateException if not a list
+     */
+    public ChainNode append(ChainNode node) {
+        beforeWrite();
+        own();
+        if (!isList()) {
+            if (!isEmpty()) {
+                throw new IllegalStateException("Not a list");
+            }
             clear();
-            valueArray = new LinkedList<ChainNode>();
-        } else if (!isList()) {
-            throw new IllegalStateException("Not a list");
+            valueArray = newList(0);
         }
 
-        valueArray.add(new ChainNode(value));
+        valueArray.add(node);
         return this;
     }
 
+    /**
+     * Traits current node as list and reserves room for provided amount
+     * of elements, so following bulk appends do not reallocate
+     *
+     * @param capacity Expected total amount of elements
+     * @return Current node
+     * @throws IllegalStateException if not a list
+     */
+    public ChainNode ensureCapacity(int capacity) {
+        beforeWrite();
+        own();
+        if (!isList()) {
+            if (!isEmpty()) {
+                throw new IllegalStateException("Not a list");
+            }
+            clear();
+            valueArray = newList(capacity);
+        } else if (valueArray instanceof ArrayList<?>) {
+            ((ArrayList<ChainNode>) valueArray).ensureCapacity(capacity);
+        }
+        return this;
+    }
 	/**
 	 * Replaces value of the node with provided one
 	 * 
@@ -269,30 +701,119 @@ s	 * @return True if value is long
 	 * @return Current node
 	 */
 	public ChainNode set(Object value) {
+		if (value instanceof ChainNode) {
+			// Copy-on-write clone, taken before erasing, as value may be own descendant
+			ChainNode source = new ChainNode(value);
+			clear();
+			this.valueObject = source.valueObject;
+			this.primitiveType = source.primitiveType;
+			this.valuePrimitive = source.valuePrimitive;
+			this.valueArray = source.valueArray;
+			this.valueHash = source.valueHash;
+			this.shared = source.shared;
+			return this;
+		}
+
 		// Erasing
 		clear();
 
-		// Setting new value
-		if (value == null) {
-			this.valueObject = null;
-		} else if (value instanceof Object[]) {
-			this.valueArray = new ArrayList<ChainNode>();
-			for (Object o : (Object[]) value) {
-				this.valueArray.add(new ChainNode(o));
-			}
-		} else if (value instanceof Collection<?>) {
-			this.valueArray = new ArrayList<ChainNode>();
-			for (Object o : (Collection<?>) value) {
-				this.valueArray.add(new ChainNode(o));
-			}
-		} else if (value instanceof HashMap<?, ?>) {
-			this.valueHash = new HashMap<String, ChainNode>();
-			HashMap<?, ?> hm = (HashMap<?, ?>) value;
-			for (Object key : hm.keySet()) {
-				this.valueHash.put(key.toString(), new ChainNode(value));
-			}
+		// Setting new value, converted by adapter, resolved for its class
+		if (value != null) {
+			ChainNodeAdapters.adapter(value.getClass()).write(this, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Replaces value of the node with provided boolean, without boxing
+	 *
+	 * @param value Value
+	 * @return Current node
+	 */
+	public ChainNode setBool(boolean value) {
+		clear();
+		setPrimitive(PRIMITIVE_BOOL, value ? 1 : 0);
+		return this;
+	}
+
+	/**
+	 * Replaces value of the node with provided integer, without boxing
+	 *
+	 * @param value Value
+	 * @return Current node
+	 */
+	public ChainNode setInt(int value) {
+		clear();
+		setPrimitive(PRIMITIVE_INT, value);
+		return this;
+	}
+
+	/**
+	 * Replaces value of the node with provided long, without boxing
+	 *
+	 * @param value Value
+	 * @return Current node
+	 */
+	public ChainNode setLong(long value) {
+		clear();
+		setPrimitive(PRIMITIVE_LONG, value);
+		return this;
+	}
+
+	/**
+	 * Replaces value of the node with provided float, without boxing
+	 *
+	 * @param value Value
+	 * @return Current node
+	 */
+	public ChainNode setFloat(float value) {
+		clear();
+		setPrimitive(PRIMITIVE_FLOAT, Double.doubleToRawLongBits(value));
+		return this;
+	}
+
+	/**
+	 * Replaces value of the node with provided double, without boxing
+	 *
+	 * @param value Value
+	 * @return Current node
+	 */
+	public ChainNode setDouble(double value) {
+		clear();
+		setPrimitive(PRIMITIVE_DOUBLE, Double.doubleToRawLongBits(value));
+		return this;
+	}
+
+	/**
+	 * Internal primitive setter, node must be cleared before
+	 *
+	 * @param type Primitive type tag
+	 * @param bits Value bits
+	 */
+	protected void setPrimitive(byte type, long bits) {
+		this.primitiveType = type;
+		this.valuePrimitive = bits;
+	}
+
+	/**
+	 * If ChainNode is a list, replaces element by its index
+	 *
+	 * @param index Index
+	 * @param value Value
+	 * @return Current node
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public ChainNode set(int index, Object value) {
+		beforeWrite();
+		own();
+		if (!isList()) {
+			throw new RuntimeException("ChainNode is not list");
+		}
+
+		if (value instanceof ChainNode) {
+			valueArray.set(index, (ChainNode) value);
 		} else {
-			this.valueObject = value;
+			valueArray.set(index, newChild(value));
 		}
 		return this;
 	}
@@ -305,9 +826,10 @@ s	 * @return True if value is long
 	 * @return Current node
 	 */
 	public ChainNode set(String key, Object value) {
+		beforeWrite();
 		if (isNull()) {
 			// Creating
-			this.valueHash = new HashMap<String, ChainNode>();
+			this.valueHash = newMap();
 		}
 
 		if (!isMap()) {
@@ -317,7 +839,7 @@ s	 * @return True if value is long
 		if (value instanceof ChainNode) {
 			put(key, (ChainNode) value);
 		} else {
-			put(key, new ChainNode(value));
+			put(key, newChild(value));
 		}
 		return this;
 	}
@@ -329,7 +851,11 @@ s	 * @return True if value is long
 	 */
 	@Override
 	public void clear() {
+		beforeWrite();
+		shared = false;
 		valueObject = null;
+		primitiveType = PRIMITIVE_NONE;
+		valuePrimitive = 0;
 		valueArray = null;
 		valueHash = null;
 	}
@@ -353,39 +879,47 @@ s	 * @return True if value is long
 			throw new NullPointerException();
 		}
 		if (isNull()) {
-			valueHash = new HashMap<String, ChainNode>();
+			beforeWrite();
+			valueHash = newMap();
 		}
 		if (!isMap()) {
 			throw new RuntimeException("ChainNode not a map");
 		}
-		if (!containsKey(key)) {
-			ChainNode emptyNode = new ChainNode();
-			put(key.toString(), emptyNode);
-			return emptyNode;
+		own();
+		// Single lookup for present children, containsKey() only for null values
+		ChainNode child = valueHash.get(key);
+		if (child != null || containsKey(key)) {
+			return child;
 		}
-		return valueHash.get(key);
+		ChainNode emptyNode = newChild(null);
+		put(key.toString(), emptyNode);
+		return emptyNode;
 	}
 
 	@Override
 	public ChainNode put(String key, ChainNode value) {
+		beforeWrite();
 		if (isNull()) {
-			valueHash = new HashMap<String, ChainNode>();
+			valueHash = newMap();
 		}
 		if (!isMap()) {
 			throw new RuntimeException("ChainNode not a map");
 		}
+		own();
 		return valueHash.put(key, value);
 	}
 
 	@SuppressWarnings("NullableProblems")
     @Override
 	public void putAll(Map<? extends String, ? extends ChainNode> m) {
+		beforeWrite();
 		if (isNull()) {
-			valueHash = new HashMap<String, ChainNode>();
+			valueHash = newMap();
 		}
 		if (!isMap()) {
 			throw new RuntimeException("ChainNode not a map");
 		}
+		own();
 		valueHash.putAll(m);
 	}
 
@@ -398,17 +932,14 @@ s	 * @return True if value is long
 		if (!isMap()) {
 			throw new RuntimeException("ChainNode not a map");
 		}
-		return valueHash.keySet();
+		return ChainNodeViews.keys(this);
 	}
 
 	@SuppressWarnings("NullableProblems")
     @Override
 	public Collection<ChainNode> values() {
-		if (isList()) {
-			return valueArray;
-		}
-		if (isMap()) {
-			return valueHash.values();
+		if (isIterable()) {
+			return ChainNodeViews.values(this);
 		}
 		return new HashSet<ChainNode>();
 	}
@@ -417,12 +948,13 @@ s	 * @return True if value is long
     @Override
 	public Set<java.util.Map.Entry<String, ChainNode>> entrySet() {
 		if (isNull()) {
-			this.valueHash = new HashMap<String, ChainNode>();
+			beforeWrite();
+			this.valueHash = newMap();
 		}
 		if (!isMap()) {
 			throw new RuntimeException("Chain node not a map");
 		}
-		return valueHash.entrySet();
+		return ChainNodeViews.entries(this);
 	}
 
 	@Override
@@ -447,17 +979,349 @@ s	 * @return True if value is long
 
 	@Override
 	public ChainNode remove(Object key) {
+		beforeWrite();
 		if (isMap()) {
+			own();
 			return valueHash.remove(key);
 		}
 		return null;
 	}
+
+	/////////////////////////    Key pooling    /////////////////////////
+
+	/**
+	 * Replaces map keys of the whole tree with instances from pool, so that
+	 * trees of same schema share key strings. Values are not changed, so
+	 * cached hashes and copy-on-write clones stay valid. Immutable and
+	 * concurrent nodes keep their keys.
+	 *
+	 * @param keys Pool of keys
+	 * @return Current node
+	 */
+	public ChainNode internKeys(final ChainNodeKeyPool keys) {
+		ChainNodeWalker.walk(this, new ChainNodeWalker.Visitor() {
+			@Override
+			public boolean enterMap(ChainNode node) {
+				node.internMapKeys(keys);
+				return true;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Replaces keys of this map with pooled ones, if any of them differs
+	 * Borrowed maps of frozen nodes keep their keys
+	 */
+	void internMapKeys(ChainNodeKeyPool keys) {
+		if (valueHash == null || shared) {
+			return;
+		}
+		boolean pooled = true;
+		for (String key : valueHash.keySet()) {
+			if (keys.intern(key) != key) {
+				pooled = false;
+				break;
+			}
+		}
+		if (pooled) {
+			return;
+		}
+		Map<String, ChainNode> map = newMap();
+		for (Map.Entry<String, ChainNode> entry : valueHash.entrySet()) {
+			map.put(keys.intern(entry.getKey()), entry.getValue());
+		}
+		valueHash = map;
+	}
+
+	/////////////////////////    Diff    /////////////////////////
+
+	/**
+	 * Builds patch, turning one tree into another
+	 * Patch is a list of JSON Patch style operations, like
+	 * {"op": "replace", "path": "/user/name", "value": "Joe"}
+	 * Identical subtrees (same or copy-on-write cloned and not modified
+	 * nodes, frozen nodes with equal hashes) are skipped without walking
+	 *
+	 * @param from Source tree
+	 * @param to   Target tree
+	 * @return Patch, empty list if trees are equal
+	 */
+	public static ChainNode diff(ChainNode from, ChainNode to) {
+		return ChainNodeDiff.diff(from, to);
+	}
+
+	/**
+	 * Applies patch, produced by diff, to this node in place
+	 *
+	 * @param patch Patch
+	 * @return Current node
+	 * @throws IllegalArgumentException on malformed patch or missing path
+	 */
+	public ChainNode apply(ChainNode patch) {
+		ChainNodeDiff.apply(this, patch);
+		return this;
+	}
+
+	/////////////////////////    Binding    /////////////////////////
+
+	/**
+	 * Converts node into object of provided type
+	 * Maps are bound to public fields and setters of POJOs, lists to arrays
+	 * and collections, generic element types are respected. Per-class
+	 * binding plans are cached. Reverse conversion is new ChainNode(object).
+	 *
+	 * @param type Type
+	 * @return Bound object, null for null node
+	 * @throws RuntimeException if node does not fit the type
+	 */
+	public <T> T bind(Class<T> type) {
+		return ChainNodeBinder.bind(this, type);
+	}
+
     /////////////////////////   Serialization helper   /////////////////////////
     public String toJSON()
     {
         return ChainNodeJsonSerializer.serialize(this);
     }
 
+    /**
+     * Same as toJSON(), but large maps and lists are encoded in parallel
+     * on shared fork/join pool
+     *
+     * @return JSON
+     */
+    public String toJSONParallel()
+    {
+        return ChainNodeJsonSerializer.serializeParallel(this);
+    }
+
+    /**
+     * Parses JSON string into new node
+     *
+     * @param json Source
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed JSON
+     */
+    public static ChainNode fromJSON(CharSequence json)
+    {
+        return ChainNodeJsonParser.parse(json);
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON into new node
+     *
+     * @param json Source
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed JSON
+     */
+    public static ChainNode fromJSON(byte[] json)
+    {
+        return ChainNodeJsonParser.parse(json);
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON into new node, map keys are taken from pool
+     *
+     * @param json Source
+     * @param keys Pool of map keys
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed JSON
+     */
+    public static ChainNode fromJSON(byte[] json, ChainNodeKeyPool keys)
+    {
+        return ChainNodeJsonParser.parse(json, keys);
+    }
+
+    /**
+     * Parses JSON string into new node, map keys are taken from pool
+     *
+     * @param json Source
+     * @param keys Pool of map keys
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed JSON
+     */
+    public static ChainNode fromJSON(CharSequence json, ChainNodeKeyPool keys)
+    {
+        return ChainNodeJsonParser.parse(json, keys);
+    }
+
+    /**
+     * Wraps UTF-8 encoded JSON into lazy node
+     * Maps and lists are indexed on first access, untouched subtrees
+     * are never parsed. Array must not be modified afterwards.
+     *
+     * @param json Source
+     * @return Lazy node
+     * @throws IllegalArgumentException on malformed JSON, possibly later, on access
+     */
+    public static ChainNode fromJSONLazy(byte[] json)
+    {
+        return LazyJson.parse(json, 0, json.length);
+    }
+
+    /**
+     * Wraps range of UTF-8 encoded JSON into lazy node
+     *
+     * @param json   Source
+     * @param offset Start of JSON
+     * @param length Length of JSON
+     * @return Lazy node
+     * @throws IllegalArgumentException on malformed JSON, possibly later, on access
+     */
+    public static ChainNode fromJSONLazy(byte[] json, int offset, int length)
+    {
+        return LazyJson.parse(json, offset, length);
+    }
+
+    /**
+     * Parses JSON, read from provided reader, into new node
+     * Reader is not closed
+     *
+     * @param json Source
+     * @return Parsed node
+     * @throws IOException on read failure
+     * @throws IllegalArgumentException on malformed JSON
+     */
+    public static ChainNode fromJSON(Reader json) throws IOException
+    {
+        return ChainNodeJsonParser.parse(json);
+    }
+
+    /**
+     * Writes JSON representation of node directly into provided sink
+     *
+     * @param out Target sink, for example Writer or StringBuilder
+     * @throws IOException on sink failure
+     */
+    public void writeJSON(Appendable out) throws IOException
+    {
+        ChainNodeJsonSerializer.serialize(this, out);
+    }
+
+    /**
+     * Writes UTF-8 JSON representation of node into provided stream
+     * Stream is flushed, but not closed
+     *
+     * @param out Target stream
+     * @throws IOException on stream failure
+     */
+    public void writeJSON(OutputStream out) throws IOException
+    {
+        ChainNodeJsonSerializer.serialize(this, out);
+    }
+
+    /**
+     * @return Compact binary representation of node
+     */
+    public byte[] toBinary()
+    {
+        return ChainNodeBinarySerializer.serialize(this);
+    }
+
+    /**
+     * Writes compact binary representation of node into provided stream
+     * Stream is flushed, but not closed
+     *
+     * @param out Target stream
+     * @throws IOException on stream failure
+     */
+    public void writeBinary(OutputStream out) throws IOException
+    {
+        ChainNodeBinarySerializer.serialize(this, out);
+    }
+
+    /**
+     * Writes compact binary representation of node into provided buffer,
+     * starting at its position
+     *
+     * @param out Target buffer
+     * @throws java.nio.BufferOverflowException if buffer has not enough room
+     */
+    public void writeBinary(ByteBuffer out)
+    {
+        ChainNodeBinarySerializer.serialize(this, out);
+    }
+
+    /**
+     * Parses node, encoded by toBinary()
+     *
+     * @param data Source
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static ChainNode fromBinary(byte[] data)
+    {
+        return ChainNodeBinaryParser.parse(data);
+    }
+
+    /**
+     * Parses binary encoded node, starting at buffer position,
+     * and advances position past it
+     *
+     * @param data Source
+     * @return Parsed node
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static ChainNode fromBinary(ByteBuffer data)
+    {
+        return ChainNodeBinaryParser.parse(data);
+    }
+
+    /**
+     * Parses binary encoded node, read from provided stream
+     * Stream is not closed
+     *
+     * @param in Source
+     * @return Parsed node
+     * @throws IOException on read failure
+     * @throws IllegalArgumentException on malformed input
+     */
+    public static ChainNode fromBinary(InputStream in) throws IOException
+    {
+        return ChainNodeBinaryParser.parse(in);
+    }
+
+    /**
+     * Writes node in indexed binary layout, which can be navigated in place
+     * by mapIndexed() without loading it
+     * Stream is flushed, but not closed
+     *
+     * @param out Target stream
+     * @throws IOException on stream failure
+     */
+    public void writeIndexed(OutputStream out) throws IOException
+    {
+        MappedChainNode.write(this, out);
+    }
+
+    /**
+     * Maps file, written by writeIndexed(), into memory and returns
+     * read-only root node, reading data directly from page cache
+     *
+     * @param file Source file
+     * @return Read-only root node
+     * @throws IOException on read failure
+     * @throws IllegalArgumentException on malformed file
+     */
+    public static ChainNode mapIndexed(File file) throws IOException
+    {
+        return MappedChainNode.map(file);
+    }
+
+    /**
+     * Returns read-only root node over indexed layout, stored
+     * from position to limit of provided buffer
+     *
+     * @param data Source, must not be modified afterwards
+     * @return Read-only root node
+     * @throws IllegalArgumentException on malformed layout
+     */
+    public static ChainNode fromIndexed(ByteBuffer data)
+    {
+        return MappedChainNode.wrap(data);
+    }
+
 
 	/////////////////////////    Iterator interface    /////////////////////////
 	@Override
@@ -465,14 +1329,54 @@ s	 * @return True if value is long
 		if (!isIterable()) {
 			throw new RuntimeException("Not iterable");
 		}
-		if (valueArray != null) {
-			return valueArray.iterator();
+		return ChainNodeViews.iterator(this);
+	}
+
+	/////////////////////////    Streams    /////////////////////////
+	/**
+	 * Spliterator over children, lists are split by index, maps - over
+	 * snapshot of values, taken on first split. Nodes without children
+	 * give empty spliterator
+	 */
+	@Override
+	public Spliterator<ChainNode> spliterator() {
+		if (!isIterable()) {
+			return Spliterators.emptySpliterator();
 		}
-		if (valueHash != null) {
-			return valueHash.values().iterator();
+		if (valueArray != null) {
+			if (valueArray instanceof RandomAccess) {
+				return ChainNodeSpliterators.list(valueArray);
+			}
+			return valueArray.spliterator();
 		}
+		return ChainNodeSpliterators.values(valueHash.values());
+	}
 
-		throw new RuntimeException();
+	/**
+	 * @return Sequential stream of children
+	 */
+	public Stream<ChainNode> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * @return Parallel stream of children
+	 */
+	public Stream<ChainNode> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Depth-first stream of all descendants with their paths, parents
+	 * before children. Children of a node are taken, when it is reached,
+	 * traversal does not use call stack, so depth is not limited
+	 *
+	 * @param parallel True for parallel stream, work is divided among siblings,
+	 *                 or among children of a single remaining node
+	 * @return Stream of paths and nodes
+	 */
+	public Stream<Map.Entry<ChainPath, ChainNode>> entries(boolean parallel) {
+		return StreamSupport.stream(ChainNodeSpliterators.tree(this), parallel);
 	}
 
 	/////////////////////////    Java core    /////////////////////////
@@ -481,39 +1385,254 @@ s	 * @return True if value is long
 		if (isNull()) {
 			return "";
 		}
+		if (primitiveType != PRIMITIVE_NONE) {
+			return getString();
+		}
 		return get().toString();
 	}
 
+	/**
+	 * Returns hash code of the node, same as of its plain Java value
+	 * Hashes of maps and lists are cached until next write to any node,
+	 * included into cached hash, including writes through collection views.
+	 * Nodes keep no links to parents, so cached hashes are checked against
+	 * one global stamp, and first write to any hashed node drops cached
+	 * hashes of all trees in the JVM - caching pays off for trees, hashed
+	 * repeatedly between writes. Hash and its stamp are published together,
+	 * so unmodified trees may be hashed by several threads concurrently.
+	 */
 	@Override
 	public int hashCode() {
+		return structuralHash();
+	}
+
+	/**
+	 * @return Hash code, computed over whole subtree without recursion,
+	 * using cached hashes of nested containers
+	 */
+	protected int structuralHash() {
+		if (primitiveType != PRIMITIVE_NONE) {
+			// Same as hash code of boxed value
+			switch (primitiveType) {
+				case PRIMITIVE_BOOL:
+					return valuePrimitive != 0 ? 1231 : 1237;
+				case PRIMITIVE_INT:
+					return (int) valuePrimitive;
+				case PRIMITIVE_LONG:
+					return (int) (valuePrimitive ^ (valuePrimitive >>> 32));
+				case PRIMITIVE_FLOAT:
+					return Float.floatToIntBits(getFloat());
+				default:
+					long bits = Double.doubleToLongBits(getDouble());
+					return (int) (bits ^ (bits >>> 32));
+			}
+		}
 		if (valueObject != null) {
 			return valueObject.hashCode();
 		}
-		if (valueArray != null) {
-			return valueArray.hashCode();
-		}
-		if (valueHash != null) {
-			return valueHash.hashCode();
+		if (valueArray != null || valueHash != null) {
+			return ChainNodeWalker.hash(this);
 		}
 
 		return 0;
 	}
 
+	/**
+	 * @return Current hash stamp
+	 */
+	static long hashStamp() {
+		return HASH_STAMP.get();
+	}
+
+	/**
+	 * @return True if container hash is cached for provided stamp, or
+	 * kept by borrowed immutable container
+	 */
+	boolean isHashKnown(long stamp) {
+		if (valueArray == null && valueHash == null) {
+			return false;
+		}
+		HashCache cache = hashCache;
+		return cache != null && cache.stamp == stamp || shared && ImmutableChainNode.keepsHash(valueHash, valueArray);
+	}
+
+	/**
+	 * @return Cached container hash, valid if isHashKnown()
+	 */
+	int knownHash() {
+		if (shared && ImmutableChainNode.keepsHash(valueHash, valueArray)) {
+			return valueHash != null ? valueHash.hashCode() : valueArray.hashCode();
+		}
+		HashCache cache = hashCache;
+		return cache != null ? cache.hash : 0;
+	}
+
+	/**
+	 * Caches hash, computed with stamp of provided holder, scalars keep
+	 * only stamp, so that writes to them drop hashes of containers
+	 */
+	void cacheHash(HashCache cache) {
+		hashCache = cache;
+	}
+
+	/**
+	 * Hash together with stamp, it was computed with. Both are read and
+	 * written with single reference, so stamp is never seen with stale hash
+	 */
+	static final class HashCache {
+		final int hash;
+		final long stamp;
+
+		HashCache(int hash, long stamp) {
+			this.hash = hash;
+			this.stamp = stamp;
+		}
+	}
+
+	/**
+	 * @return False if writes to node may bypass beforeWrite() of this
+	 * instance, hashes of containers, holding such nodes, are not cached
+	 */
+	boolean tracksWrites() {
+		return true;
+	}
+
+	/**
+	 * @return Map or list, holding children, or null for scalars
+	 */
+	Object container() {
+		return valueHash != null ? valueHash : valueArray;
+	}
+
+	/**
+	 * Iterates map entries for read-only traversal, without unsharing
+	 */
+	Iterator<Map.Entry<String, ChainNode>> readEntries() {
+		return valueHash != null ? valueHash.entrySet().iterator() : entrySet().iterator();
+	}
+
+	/**
+	 * Iterates list elements for read-only traversal, without unsharing
+	 */
+	Iterator<ChainNode> readElements() {
+		return valueArray != null ? valueArray.iterator() : values().iterator();
+	}
+
+	/**
+	 * Compares node with another node or plain Java value, like one
+	 * accepted by set(Object). Null nodes are equal to each other and to null.
+	 */
 	@Override
 	public boolean equals(Object o) {
-		if (isNull() && o == null) {
+		if (this == o) {
 			return true;
 		}
-		if (isNull() && o != null) {
-			return false;
+		if (o instanceof ArenaChainNode) {
+			return o.equals(this);
 		}
 		if (o instanceof ChainNode) {
 			ChainNode cn = (ChainNode) o;
+			if (isNull()) {
+				return cn.isNull();
+			}
+			if (valueHash != null || valueArray != null) {
+				return ChainNodeWalker.equal(this, cn);
+			}
 			return (valueObject != null && valueObject.equals(cn.valueObject))
-					|| (valueArray != null && valueArray.equals(cn.valueArray))
-					|| (valueHash != null && valueHash.equals(cn.valueHash));
+					|| (primitiveType != PRIMITIVE_NONE && primitiveEquals(cn));
 		}
 
-		return this.equals(new ChainNode(o));
+		return valueEquals(o);
+	}
+
+	/**
+	 * Compares node with plain Java value, without wrapping it into node
+	 *
+	 * @param o Value
+	 * @return True if node holds equal value
+	 */
+	private boolean valueEquals(Object o) {
+		if (o == null) {
+			return isNull();
+		}
+		if (o instanceof Integer) {
+			return primitiveType == PRIMITIVE_INT && valuePrimitive == (Integer) o;
+		}
+		if (o instanceof Long) {
+			return primitiveType == PRIMITIVE_LONG && valuePrimitive == (Long) o;
+		}
+		if (o instanceof Boolean) {
+			return primitiveType == PRIMITIVE_BOOL && valuePrimitive == ((Boolean) o ? 1 : 0);
+		}
+		if (o instanceof Float || o instanceof Double) {
+			return primitiveType == (o instanceof Float ? PRIMITIVE_FLOAT : PRIMITIVE_DOUBLE)
+					&& Double.doubleToLongBits(Double.longBitsToDouble(valuePrimitive))
+					== Double.doubleToLongBits(((Number) o).doubleValue());
+		}
+		if (o instanceof Object[]) {
+			Object[] array = (Object[]) o;
+			if (valueArray == null || valueArray.size() != array.length) {
+				return false;
+			}
+			int i = 0;
+			for (ChainNode item : valueArray) {
+				if (!itemEquals(item, array[i++])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (o instanceof Collection<?>) {
+			Collection<?> collection = (Collection<?>) o;
+			if (valueArray == null || valueArray.size() != collection.size()) {
+				return false;
+			}
+			Iterator<?> values = collection.iterator();
+			for (ChainNode item : valueArray) {
+				if (!itemEquals(item, values.next())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (o instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>) o;
+			if (valueHash == null || valueHash.size() != map.size()) {
+				return false;
+			}
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				ChainNode item = valueHash.get(String.valueOf(entry.getKey()));
+				if (item == null || !item.equals(entry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (valueObject != null || ChainNodeAdapters.isScalar(o.getClass())) {
+			return valueObject != null && valueObject.equals(o);
+		}
+		// Primitive arrays, registered beans and values of custom adapters
+		return equals(new ChainNode(o));
+	}
+
+	private static boolean itemEquals(ChainNode item, Object value) {
+		return item == null ? value == null : item.equals(value);
+	}
+
+	/**
+	 * Compares primitive values with semantics of boxed equals()
+	 *
+	 * @param cn Other node
+	 * @return True if both nodes hold same primitive
+	 */
+	protected boolean primitiveEquals(ChainNode cn) {
+		if (primitiveType != cn.primitiveType) {
+			return false;
+		}
+		if (primitiveType == PRIMITIVE_FLOAT || primitiveType == PRIMITIVE_DOUBLE) {
+			return Double.doubleToLongBits(Double.longBitsToDouble(valuePrimitive))
+					== Double.doubleToLongBits(Double.longBitsToDouble(cn.valuePrimitive));
+		}
+		return valuePrimitive == cn.valuePrimitive;
 	}
 }
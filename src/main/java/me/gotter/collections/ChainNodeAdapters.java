@@ -0,0 +1,507 @@
+package me.gotter.collections;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of converters from Java objects into ChainNode content, used by
+ * set(Object) and all constructors and setters, accepting plain values
+ * <p/>
+ * Converter is resolved once per class and cached. Built-in converters cover
+ * boxed primitives, all maps (keys are converted with String.valueOf), all
+ * collections, object and primitive arrays. Beans are converted into maps of
+ * their public fields and getters only once registered by registerBean().
+ * Other values, like strings, are stored in node as is. Object graphs must
+ * not contain cycles.
+ */
+public final class ChainNodeAdapters {
+
+	/**
+	 * Converter of values of some type
+	 */
+	public interface Adapter<T> {
+		/**
+		 * Writes value into node
+		 *
+		 * @param node  Empty node
+		 * @param value Value, never null
+		 */
+		void write(ChainNode node, T value);
+	}
+
+	private static final Map<Class<?>, Adapter<Object>> registered = new ConcurrentHashMap<Class<?>, Adapter<Object>>();
+	private static final Map<Class<?>, Adapter<Object>> resolved = new ConcurrentHashMap<Class<?>, Adapter<Object>>();
+
+	private ChainNodeAdapters() {
+	}
+
+	/**
+	 * Registers adapter for provided type and its subtypes, replacing built-in
+	 * conversion. Adapters, registered for more specific types, take precedence.
+	 *
+	 * @param type    Type
+	 * @param adapter Adapter
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void register(Class<T> type, Adapter<? super T> adapter) {
+		if (type == null || adapter == null) {
+			throw new NullPointerException();
+		}
+		registered.put(type, (Adapter<Object>) adapter);
+		resolved.clear();
+	}
+
+	/**
+	 * Registers provided type and its subtypes as beans - values are written
+	 * as maps of their public instance fields and getters, read through
+	 * reflection. Accessors are resolved once per class.
+	 *
+	 * @param type Type
+	 */
+	public static void registerBean(Class<?> type) {
+		if (type == null) {
+			throw new NullPointerException();
+		}
+		registered.put(type, BEAN);
+		resolved.clear();
+	}
+
+	/**
+	 * Removes adapter or bean registration for provided type
+	 *
+	 * @param type Type
+	 */
+	public static void unregister(Class<?> type) {
+		if (registered.remove(type) != null) {
+			resolved.clear();
+		}
+	}
+
+	/**
+	 * Writes provided value into empty node
+	 *
+	 * @param node  Empty node
+	 * @param value Value
+	 */
+	public static void write(ChainNode node, Object value) {
+		if (value instanceof ChainNode) {
+			node.set(value);
+		} else if (value != null) {
+			adapter(value.getClass()).write(node, value);
+		}
+	}
+
+	/**
+	 * @return True if values of provided type are stored in nodes as is
+	 */
+	static boolean isScalar(Class<?> type) {
+		return adapter(type) == SCALAR;
+	}
+
+	static Adapter<Object> adapter(Class<?> type) {
+		Adapter<Object> adapter = resolved.get(type);
+		if (adapter == null) {
+			adapter = resolve(type);
+			resolved.put(type, adapter);
+		}
+		return adapter;
+	}
+
+	private static Adapter<Object> resolve(Class<?> type) {
+		if (!registered.isEmpty()) {
+			Adapter<Object> adapter = findRegistered(type);
+			if (adapter == BEAN) {
+				return bean(type);
+			}
+			if (adapter != null) {
+				return adapter;
+			}
+		}
+		if (type == Integer.class) {
+			return INT;
+		}
+		if (type == Long.class) {
+			return LONG;
+		}
+		if (type == Boolean.class) {
+			return BOOL;
+		}
+		if (type == Double.class) {
+			return DOUBLE;
+		}
+		if (type == Float.class) {
+			return FLOAT;
+		}
+		if (type.isArray()) {
+			Class<?> component = type.getComponentType();
+			if (!component.isPrimitive()) {
+				return OBJECT_ARRAY;
+			}
+			if (component == int.class) {
+				return INT_ARRAY;
+			}
+			if (component == long.class) {
+				return LONG_ARRAY;
+			}
+			if (component == double.class) {
+				return DOUBLE_ARRAY;
+			}
+			if (component == float.class) {
+				return FLOAT_ARRAY;
+			}
+			if (component == boolean.class) {
+				return BOOL_ARRAY;
+			}
+			if (component == char.class) {
+				return CHAR_ARRAY;
+			}
+			return SMALL_INT_ARRAY;
+		}
+		if (Map.class.isAssignableFrom(type)) {
+			return MAP;
+		}
+		if (Collection.class.isAssignableFrom(type)) {
+			return COLLECTION;
+		}
+		return SCALAR;
+	}
+
+	private static Adapter<Object> findRegistered(Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Adapter<Object> adapter = registered.get(c);
+			if (adapter != null) {
+				return adapter;
+			}
+		}
+		Deque<Class<?>> queue = new ArrayDeque<Class<?>>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			queue.addAll(Arrays.asList(c.getInterfaces()));
+		}
+		while (!queue.isEmpty()) {
+			Class<?> c = queue.poll();
+			Adapter<Object> adapter = registered.get(c);
+			if (adapter != null) {
+				return adapter;
+			}
+			queue.addAll(Arrays.asList(c.getInterfaces()));
+		}
+		return null;
+	}
+
+	/////////////////////////    Children    /////////////////////////
+
+	/**
+	 * Creates child node for provided value
+	 * Children of plain nodes are converted in place, skipping set() dispatch
+	 */
+	private static ChainNode child(ChainNode parent, Object value) {
+		if (parent.getClass() != ChainNode.class || value instanceof ChainNode) {
+			return parent.newChild(value);
+		}
+		ChainNode child = new ChainNode();
+		if (value != null) {
+			adapter(value.getClass()).write(child, value);
+		}
+		return child;
+	}
+
+	private static ChainNode primitiveChild(ChainNode parent, byte type, long bits) {
+		ChainNode child = parent.getClass() == ChainNode.class ? new ChainNode() : parent.newChild(null);
+		child.setPrimitive(type, bits);
+		return child;
+	}
+
+	/////////////////////////    Built-in adapters    /////////////////////////
+
+	private static final Adapter<Object> SCALAR = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.valueObject = value;
+		}
+	};
+
+	private static final Adapter<Object> INT = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.setPrimitive(ChainNode.PRIMITIVE_INT, (Integer) value);
+		}
+	};
+
+	private static final Adapter<Object> LONG = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.setPrimitive(ChainNode.PRIMITIVE_LONG, (Long) value);
+		}
+	};
+
+	private static final Adapter<Object> BOOL = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.setPrimitive(ChainNode.PRIMITIVE_BOOL, (Boolean) value ? 1 : 0);
+		}
+	};
+
+	private static final Adapter<Object> DOUBLE = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.setPrimitive(ChainNode.PRIMITIVE_DOUBLE, Double.doubleToRawLongBits((Double) value));
+		}
+	};
+
+	private static final Adapter<Object> FLOAT = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.setPrimitive(ChainNode.PRIMITIVE_FLOAT, Double.doubleToRawLongBits((Float) value));
+		}
+	};
+
+	private static final Adapter<Object> MAP = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			Map<String, ChainNode> map = node.newMap();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				map.put(String.valueOf(entry.getKey()), child(node, entry.getValue()));
+			}
+			node.valueHash = map;
+		}
+	};
+
+	private static final Adapter<Object> COLLECTION = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			Collection<?> collection = (Collection<?>) value;
+			List<ChainNode> list = node.newList(collection.size());
+			for (Object o : collection) {
+				list.add(child(node, o));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> OBJECT_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			Object[] array = (Object[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (Object o : array) {
+				list.add(child(node, o));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> INT_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			int[] array = (int[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (int v : array) {
+				list.add(primitiveChild(node, ChainNode.PRIMITIVE_INT, v));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> LONG_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			long[] array = (long[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (long v : array) {
+				list.add(primitiveChild(node, ChainNode.PRIMITIVE_LONG, v));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> DOUBLE_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			double[] array = (double[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (double v : array) {
+				list.add(primitiveChild(node, ChainNode.PRIMITIVE_DOUBLE, Double.doubleToRawLongBits(v)));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> FLOAT_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			float[] array = (float[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (float v : array) {
+				list.add(primitiveChild(node, ChainNode.PRIMITIVE_FLOAT, Double.doubleToRawLongBits(v)));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	private static final Adapter<Object> BOOL_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			boolean[] array = (boolean[]) value;
+			List<ChainNode> list = node.newList(array.length);
+			for (boolean v : array) {
+				list.add(primitiveChild(node, ChainNode.PRIMITIVE_BOOL, v ? 1 : 0));
+			}
+			node.valueArray = list;
+		}
+	};
+
+	/**
+	 * Characters are joined into string
+	 */
+	private static final Adapter<Object> CHAR_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			node.valueObject = new String((char[]) value);
+		}
+	};
+
+	/**
+	 * Bytes and shorts are widened to ints
+	 */
+	private static final Adapter<Object> SMALL_INT_ARRAY = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			int length = Array.getLength(value);
+			List<ChainNode> list = node.newList(length);
+			if (value instanceof byte[]) {
+				for (byte v : (byte[]) value) {
+					list.add(primitiveChild(node, ChainNode.PRIMITIVE_INT, v));
+				}
+			} else {
+				for (short v : (short[]) value) {
+					list.add(primitiveChild(node, ChainNode.PRIMITIVE_INT, v));
+				}
+			}
+			node.valueArray = list;
+		}
+	};
+
+	/////////////////////////    Beans    /////////////////////////
+
+	/**
+	 * Marker of types, registered by registerBean(), never resolved itself
+	 */
+	private static final Adapter<Object> BEAN = new Adapter<Object>() {
+		@Override
+		public void write(ChainNode node, Object value) {
+			throw new IllegalStateException("Bean marker");
+		}
+	};
+
+	/**
+	 * @return Adapter, writing public fields and getters of actual type as map
+	 */
+	private static Adapter<Object> bean(Class<?> type) {
+		final List<Property> properties = Property.readable(type);
+		return new Adapter<Object>() {
+			@Override
+			public void write(ChainNode node, Object value) {
+				Map<String, ChainNode> map = node.newMap();
+				for (Property property : properties) {
+					map.put(property.name, child(node, property.get(value)));
+				}
+				node.valueHash = map;
+			}
+		};
+	}
+
+	/**
+	 * Readable property of bean - public field or getter
+	 */
+	static final class Property {
+		final String name;
+		final Field field;
+		final Method getter;
+
+		private Property(String name, Field field, Method getter) {
+			this.name = name;
+			this.field = field;
+			this.getter = getter;
+		}
+
+		Object get(Object target) {
+			try {
+				return field != null ? field.get(target) : getter.invoke(target);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException("Cannot read property " + name, e);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException("Cannot read property " + name, e.getCause());
+			}
+		}
+
+		/**
+		 * @return Public instance fields in declaration order, then getters, ordered by name
+		 */
+		static List<Property> readable(Class<?> type) {
+			List<Property> properties = new ArrayList<Property>();
+			Set<String> names = new HashSet<String>();
+			for (Field field : type.getFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && names.add(field.getName())) {
+					accessible(field);
+					properties.add(new Property(field.getName(), field, null));
+				}
+			}
+			Method[] methods = type.getMethods();
+			Arrays.sort(methods, new Comparator<Method>() {
+				@Override
+				public int compare(Method a, Method b) {
+					return a.getName().compareTo(b.getName());
+				}
+			});
+			for (Method method : methods) {
+				String name = getterProperty(method);
+				if (name != null && names.add(name)) {
+					accessible(method);
+					properties.add(new Property(name, null, method));
+				}
+			}
+			return properties;
+		}
+
+		private static String getterProperty(Method method) {
+			if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0
+					|| method.getDeclaringClass() == Object.class) {
+				return null;
+			}
+			String name = method.getName();
+			if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class) {
+				return decapitalize(name.substring(3));
+			}
+			if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+				return decapitalize(name.substring(2));
+			}
+			return null;
+		}
+
+		/**
+		 * Same as java.beans.Introspector.decapitalize - "URL" stays as is
+		 */
+		static String decapitalize(String name) {
+			if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+				return name;
+			}
+			return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+		}
+
+		/**
+		 * Public members of non-public classes need access check disabled
+		 */
+		static void accessible(AccessibleObject member) {
+			try {
+				member.setAccessible(true);
+			} catch (SecurityException ignored) {
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package me.gotter.collections;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Off-heap storage for large ChainNode trees
+ * <p/>
+ * Node records, map and list tables, keys and strings are allocated in
+ * direct ByteBuffer slabs and addressed by int handles, so tree of any size
+ * is a handful of heap objects for GC. Nodes, returned by root() and by
+ * lookups, are short-lived facades over handles, supporting ChainNode reads
+ * and writes. Values, stored into arena nodes, are copied into the arena,
+ * except nodes of the same arena, which are linked as is.
+ * <p/>
+ * Memory is bump-allocated and never reused, space of replaced values and
+ * outgrown tables is returned only by close(), which releases the whole
+ * arena at once. Arena is not thread safe.
+ */
+public final class ChainNodeArena implements Closeable {
+
+	/**
+	 * Slab size is 1 << SLAB_SHIFT bytes
+	 */
+	static final int SLAB_SHIFT = 20;
+
+	/**
+	 * Amount of distinct map keys, stored once and then shared
+	 */
+	private static final int KEY_POOL_SIZE = 4096;
+
+	/**
+	 * Records are aligned to 8 bytes, handle is address >> 3, so arena
+	 * addresses up to 16 GB and aligned ints and longs never cross slabs
+	 */
+	private static final int ALIGN_SHIFT = 3;
+
+	private final int slabShift;
+	private final int slabMask;
+
+	private ByteBuffer[] slabs = new ByteBuffer[16];
+	private int slabCount;
+
+	/**
+	 * Next free address, handle 0 is reserved for absent values
+	 */
+	private long top = 1 << ALIGN_SHIFT;
+
+	private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+	private final int root;
+
+	/**
+	 * Creates new arena with empty root node
+	 */
+	public ChainNodeArena() {
+		this(SLAB_SHIFT);
+	}
+
+	ChainNodeArena(int slabShift) {
+		this.slabShift = slabShift;
+		this.slabMask = (1 << slabShift) - 1;
+		this.root = ArenaChainNode.allocate(this);
+	}
+
+	/**
+	 * @return Root node of the arena
+	 */
+	public ChainNode root() {
+		return new ArenaChainNode(this, root);
+	}
+
+	/**
+	 * Creates new empty node in the arena, not attached to root
+	 *
+	 * @return New node
+	 */
+	public ChainNode create() {
+		return new ArenaChainNode(this, ArenaChainNode.allocate(this));
+	}
+
+	/**
+	 * @return Amount of allocated bytes
+	 */
+	public long allocated() {
+		return top;
+	}
+
+	/**
+	 * @return True if arena is closed
+	 */
+	public boolean isClosed() {
+		return slabs == null;
+	}
+
+	/**
+	 * Releases all slabs, any further access to arena nodes fails
+	 * with IllegalStateException
+	 */
+	@Override
+	public void close() {
+		slabs = null;
+		slabCount = 0;
+		keys.clear();
+	}
+
+	/////////////////////////    Allocation    /////////////////////////
+
+	/**
+	 * Allocates zero-filled record
+	 *
+	 * @param bytes Size of record
+	 * @return Handle of record
+	 */
+	int allocate(long bytes) {
+		ByteBuffer[] current = slabs();
+		long address = top;
+		long end = address + ((bytes + 7) & ~7L);
+		if (end > (long) Integer.MAX_VALUE << ALIGN_SHIFT) {
+			throw new IllegalStateException("Arena is full");
+		}
+		int needed = (int) ((end + slabMask) >>> slabShift);
+		if (needed > current.length) {
+			current = Arrays.copyOf(current, Math.max(needed, current.length * 2));
+			slabs = current;
+		}
+		while (slabCount < needed) {
+			// Fresh direct buffers are zero-filled
+			current[slabCount++] = ByteBuffer.allocateDirect(1 << slabShift);
+		}
+		top = end;
+		return (int) (address >>> ALIGN_SHIFT);
+	}
+
+	static long address(int handle) {
+		return (long) handle << ALIGN_SHIFT;
+	}
+
+	private ByteBuffer[] slabs() {
+		ByteBuffer[] current = slabs;
+		if (current == null) {
+			throw new IllegalStateException("Arena is closed");
+		}
+		return current;
+	}
+
+	private ByteBuffer slab(long address) {
+		return slabs()[(int) (address >>> slabShift)];
+	}
+
+	byte getByte(long address) {
+		return slab(address).get((int) (address & slabMask));
+	}
+
+	void putByte(long address, byte value) {
+		slab(address).put((int) (address & slabMask), value);
+	}
+
+	char getChar(long address) {
+		return slab(address).getChar((int) (address & slabMask));
+	}
+
+	void putChar(long address, char value) {
+		slab(address).putChar((int) (address & slabMask), value);
+	}
+
+	int getInt(long address) {
+		return slab(address).getInt((int) (address & slabMask));
+	}
+
+	void putInt(long address, int value) {
+		slab(address).putInt((int) (address & slabMask), value);
+	}
+
+	long getLong(long address) {
+		return slab(address).getLong((int) (address & slabMask));
+	}
+
+	void putLong(long address, long value) {
+		slab(address).putLong((int) (address & slabMask), value);
+	}
+
+	/////////////////////////    Strings    /////////////////////////
+
+	/**
+	 * Stores string as int length, int hash code and chars, one byte per char
+	 * for Latin-1 strings, marked by inverted length, two bytes otherwise
+	 *
+	 * @param s String
+	 * @return Handle of string record
+	 */
+	int string(String s) {
+		int length = s.length();
+		boolean latin1 = true;
+		for (int i = 0; i < length && latin1; i++) {
+			latin1 = s.charAt(i) < 256;
+		}
+		int handle = allocate(8 + (latin1 ? length : length * 2L));
+		long address = address(handle);
+		putInt(address, latin1 ? ~length : length);
+		putInt(address + 4, s.hashCode());
+		address += 8;
+		if (latin1) {
+			for (int i = 0; i < length; i++) {
+				putByte(address + i, (byte) s.charAt(i));
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				putChar(address + i * 2L, s.charAt(i));
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Stores map key, sharing records of frequent keys
+	 *
+	 * @param key Key
+	 * @return Handle of string record
+	 */
+	int key(String key) {
+		Integer known = keys.get(key);
+		if (known != null) {
+			return known;
+		}
+		int handle = string(key);
+		if (keys.size() < KEY_POOL_SIZE) {
+			keys.put(key, handle);
+		}
+		return handle;
+	}
+
+	String readString(int handle) {
+		long address = address(handle);
+		int length = getInt(address);
+		boolean latin1 = length < 0;
+		if (latin1) {
+			length = ~length;
+		}
+		char[] chars = new char[length];
+		address += 8;
+		for (int i = 0; i < length; i++) {
+			chars[i] = latin1 ? (char) (getByte(address + i) & 0xFF) : getChar(address + i * 2L);
+		}
+		return new String(chars);
+	}
+
+	int stringHash(int handle) {
+		return getInt(address(handle) + 4);
+	}
+
+	boolean stringEquals(int handle, String s) {
+		long address = address(handle);
+		if (getInt(address + 4) != s.hashCode()) {
+			return false;
+		}
+		int length = getInt(address);
+		boolean latin1 = length < 0;
+		if (latin1) {
+			length = ~length;
+		}
+		if (length != s.length()) {
+			return false;
+		}
+		address += 8;
+		for (int i = 0; i < length; i++) {
+			char c = latin1 ? (char) (getByte(address + i) & 0xFF) : getChar(address + i * 2L);
+			if (c != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
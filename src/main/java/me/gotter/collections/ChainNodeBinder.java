@@ -0,0 +1,518 @@
+package me.gotter.collections;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds ChainNode trees to typed Java objects
+ * <p/>
+ * Every class gets a plan - its no-arg constructor and writable properties
+ * (public fields and setters) with converters, resolved from declared,
+ * possibly generic, property types. Plan is built once and cached, so
+ * binding is a single pass over map entries of the node with one hash
+ * lookup per entry. Unknown keys are ignored, missing ones keep defaults.
+ * Reverse conversion is done by ChainNodeAdapters for types, registered by
+ * registerBean(), using the same kind of cached per-class plan of public
+ * fields and getters.
+ */
+final class ChainNodeBinder {
+
+	/**
+	 * Converts node into value of some type
+	 */
+	interface Converter {
+		Object convert(ChainNode node);
+	}
+
+	private static final Map<Type, Converter> converters = new ConcurrentHashMap<Type, Converter>();
+
+	private ChainNodeBinder() {
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T bind(ChainNode node, Class<T> type) {
+		Object value = converter(type).convert(node);
+		if (value == null && type.isPrimitive()) {
+			throw new RuntimeException("Cannot bind null to " + type.getName());
+		}
+		return (T) value;
+	}
+
+	static Converter converter(Type type) {
+		Converter converter = converters.get(type);
+		if (converter == null) {
+			converter = resolve(type);
+			converters.put(type, converter);
+		}
+		return converter;
+	}
+
+	private static Converter resolve(Type type) {
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterized = (ParameterizedType) type;
+			Class<?> raw = (Class<?>) parameterized.getRawType();
+			Type[] arguments = parameterized.getActualTypeArguments();
+			if (Map.class.isAssignableFrom(raw)) {
+				return map(raw, arguments[1]);
+			}
+			if (Collection.class.isAssignableFrom(raw)) {
+				return collection(raw, arguments[0]);
+			}
+			return resolve(raw);
+		}
+		if (type instanceof GenericArrayType) {
+			return array(((GenericArrayType) type).getGenericComponentType());
+		}
+		if (type instanceof WildcardType) {
+			return resolve(((WildcardType) type).getUpperBounds()[0]);
+		}
+		if (!(type instanceof Class<?>)) {
+			// Type variables
+			return OBJECT;
+		}
+
+		Class<?> c = (Class<?>) type;
+		if (c == Object.class) {
+			return OBJECT;
+		}
+		if (c == ChainNode.class) {
+			return NODE;
+		}
+		if (c == String.class) {
+			return STRING;
+		}
+		if (c == int.class || c == Integer.class) {
+			return INT;
+		}
+		if (c == long.class || c == Long.class) {
+			return LONG;
+		}
+		if (c == double.class || c == Double.class) {
+			return DOUBLE;
+		}
+		if (c == float.class || c == Float.class) {
+			return FLOAT;
+		}
+		if (c == boolean.class || c == Boolean.class) {
+			return BOOL;
+		}
+		if (c == short.class || c == Short.class) {
+			return SHORT;
+		}
+		if (c == byte.class || c == Byte.class) {
+			return BYTE;
+		}
+		if (c == char.class || c == Character.class) {
+			return CHAR;
+		}
+		if (c.isEnum()) {
+			return enumeration(c);
+		}
+		if (c.isArray()) {
+			return array(c.getComponentType());
+		}
+		if (Map.class.isAssignableFrom(c)) {
+			return map(c, Object.class);
+		}
+		if (Collection.class.isAssignableFrom(c)) {
+			return collection(c, Object.class);
+		}
+		if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+			throw new RuntimeException("Cannot bind to abstract type " + c.getName());
+		}
+		return new Plan(c);
+	}
+
+	/////////////////////////    Scalars    /////////////////////////
+
+	private static final Converter OBJECT = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			if (node.isMap()) {
+				return converter(LinkedHashMap.class).convert(node);
+			}
+			if (node.isList()) {
+				return converter(ArrayList.class).convert(node);
+			}
+			return node.get();
+		}
+	};
+
+	private static final Converter NODE = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			// Copy-on-write clone, so that bound object does not share writes with the tree
+			return node.isNull() ? null : new ChainNode(node);
+		}
+	};
+
+	private static final Converter STRING = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : node.getString();
+		}
+	};
+
+	private static final Converter INT = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : (int) toLong(node);
+		}
+	};
+
+	private static final Converter LONG = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : toLong(node);
+		}
+	};
+
+	private static final Converter SHORT = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : (short) toLong(node);
+		}
+	};
+
+	private static final Converter BYTE = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : (byte) toLong(node);
+		}
+	};
+
+	private static final Converter DOUBLE = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : toDouble(node);
+		}
+	};
+
+	private static final Converter FLOAT = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			return node.isNull() ? null : (float) toDouble(node);
+		}
+	};
+
+	private static final Converter BOOL = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			if (node.isNull()) {
+				return null;
+			}
+			if (node.isBool()) {
+				return node.getBool();
+			}
+			return Boolean.parseBoolean(node.getString());
+		}
+	};
+
+	private static final Converter CHAR = new Converter() {
+		@Override
+		public Object convert(ChainNode node) {
+			if (node.isNull()) {
+				return null;
+			}
+			String s = node.getString();
+			if (s.length() != 1) {
+				throw new RuntimeException("Cannot bind \"" + s + "\" to char");
+			}
+			return s.charAt(0);
+		}
+	};
+
+	static long toLong(ChainNode node) {
+		if (node.isInt() || node.isLong()) {
+			return node.getLong();
+		}
+		if (node.isFloat() || node.isDouble()) {
+			return (long) node.getDouble();
+		}
+		Object value = node.get();
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof CharSequence) {
+			return Long.parseLong(value.toString());
+		}
+		throw new RuntimeException("Cannot bind " + node + " to number");
+	}
+
+	static double toDouble(ChainNode node) {
+		if (node.isFloat() || node.isDouble()) {
+			return node.getDouble();
+		}
+		if (node.isInt() || node.isLong()) {
+			return node.getLong();
+		}
+		Object value = node.get();
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof CharSequence) {
+			return Double.parseDouble(value.toString());
+		}
+		throw new RuntimeException("Cannot bind " + node + " to number");
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Converter enumeration(final Class<?> type) {
+		return new Converter() {
+			@Override
+			public Object convert(ChainNode node) {
+				return node.isNull() ? null : Enum.valueOf((Class<Enum>) type, node.getString());
+			}
+		};
+	}
+
+	/////////////////////////    Containers    /////////////////////////
+
+	private static Converter array(Type component) {
+		final Class<?> componentClass = erasure(component);
+		final Converter element = converter(component);
+		return new Converter() {
+			@Override
+			public Object convert(ChainNode node) {
+				if (node.isNull()) {
+					return null;
+				}
+				Object array = Array.newInstance(componentClass, node.size());
+				int i = 0;
+				for (ChainNode item : items(node)) {
+					Object value = element.convert(item);
+					if (value != null || !componentClass.isPrimitive()) {
+						Array.set(array, i, value);
+					}
+					i++;
+				}
+				return array;
+			}
+		};
+	}
+
+	private static Converter collection(Class<?> type, Type elementType) {
+		final Constructor<?> constructor = constructor(type.isInterface() || Modifier.isAbstract(type.getModifiers())
+				? (Set.class.isAssignableFrom(type) ? LinkedHashSet.class : ArrayList.class)
+				: type);
+		final Converter element = converter(elementType);
+		return new Converter() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object convert(ChainNode node) {
+				if (node.isNull()) {
+					return null;
+				}
+				Collection<Object> collection = (Collection<Object>) instantiate(constructor);
+				for (ChainNode item : items(node)) {
+					collection.add(element.convert(item));
+				}
+				return collection;
+			}
+		};
+	}
+
+	private static Converter map(Class<?> type, Type valueType) {
+		final Constructor<?> constructor = constructor(type.isInterface() || Modifier.isAbstract(type.getModifiers())
+				? (SortedMap.class.isAssignableFrom(type) ? TreeMap.class : LinkedHashMap.class)
+				: type);
+		final Converter value = converter(valueType);
+		return new Converter() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object convert(ChainNode node) {
+				if (node.isNull()) {
+					return null;
+				}
+				Map<String, Object> map = (Map<String, Object>) instantiate(constructor);
+				for (Map.Entry<String, ChainNode> entry : entries(node)) {
+					map.put(entry.getKey(), value.convert(entry.getValue()));
+				}
+				return map;
+			}
+		};
+	}
+
+	/**
+	 * Children of lists, read directly from containers without view
+	 * wrappers, as binding never writes to the tree
+	 */
+	private static Iterable<ChainNode> items(ChainNode node) {
+		if (!node.isList()) {
+			throw new RuntimeException("ChainNode not a list");
+		}
+		return node.valueArray != null ? node.valueArray : node;
+	}
+
+	private static Set<Map.Entry<String, ChainNode>> entries(ChainNode node) {
+		if (!node.isMap()) {
+			throw new RuntimeException("ChainNode not a map");
+		}
+		return node.valueHash != null ? node.valueHash.entrySet() : node.entrySet();
+	}
+
+	private static Class<?> erasure(Type type) {
+		if (type instanceof Class<?>) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(erasure(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+		if (type instanceof WildcardType) {
+			return erasure(((WildcardType) type).getUpperBounds()[0]);
+		}
+		return Object.class;
+	}
+
+	private static Constructor<?> constructor(Class<?> type) {
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			ChainNodeAdapters.Property.accessible(constructor);
+			return constructor;
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException("No default constructor in " + type.getName(), e);
+		}
+	}
+
+	private static Object instantiate(Constructor<?> constructor) {
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException e) {
+			throw new RuntimeException("Cannot create " + constructor.getDeclaringClass().getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Cannot create " + constructor.getDeclaringClass().getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException("Cannot create " + constructor.getDeclaringClass().getName(), e.getCause());
+		}
+	}
+
+	/////////////////////////    POJO    /////////////////////////
+
+	/**
+	 * Binding plan of a class, its writable properties by key
+	 */
+	private static final class Plan implements Converter {
+		private final Constructor<?> constructor;
+		private final Map<String, Property> properties = new HashMap<String, Property>();
+		private final Class<?> type;
+
+		Plan(Class<?> type) {
+			this.type = type;
+			this.constructor = constructor(type);
+			for (Field field : type.getFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+					ChainNodeAdapters.Property.accessible(field);
+					properties.put(field.getName(), new Property(field, null, field.getGenericType()));
+				}
+			}
+			for (Method method : type.getMethods()) {
+				String name = method.getName();
+				if (!Modifier.isStatic(method.getModifiers()) && name.startsWith("set") && name.length() > 3
+						&& method.getParameterTypes().length == 1) {
+					String key = ChainNodeAdapters.Property.decapitalize(name.substring(3));
+					if (!properties.containsKey(key)) {
+						ChainNodeAdapters.Property.accessible(method);
+						properties.put(key, new Property(null, method, method.getGenericParameterTypes()[0]));
+					}
+				}
+			}
+		}
+
+		@Override
+		public Object convert(ChainNode node) {
+			if (node.isNull()) {
+				return null;
+			}
+			Object target = instantiate(constructor);
+			for (Map.Entry<String, ChainNode> entry : entries(node)) {
+				Property property = properties.get(entry.getKey());
+				if (property != null) {
+					property.write(target, entry.getValue());
+				}
+			}
+			return target;
+		}
+
+		@Override
+		public String toString() {
+			return "Plan " + type.getName() + " " + properties.keySet();
+		}
+	}
+
+	/**
+	 * Writable property - public field or setter
+	 * Primitive fields are written without boxing
+	 */
+	private static final class Property {
+		private final Field field;
+		private final Method setter;
+		private final Type type;
+		private final Class<?> primitive;
+		private volatile Converter converter;
+
+		Property(Field field, Method setter, Type type) {
+			this.field = field;
+			this.setter = setter;
+			this.type = type;
+			this.primitive = field != null && field.getType().isPrimitive() ? field.getType() : null;
+		}
+
+		void write(Object target, ChainNode node) {
+			if (primitive != null && node.isNull()) {
+				return;
+			}
+			try {
+				if (primitive == int.class) {
+					field.setInt(target, (int) toLong(node));
+				} else if (primitive == long.class) {
+					field.setLong(target, toLong(node));
+				} else if (primitive == double.class) {
+					field.setDouble(target, toDouble(node));
+				} else if (primitive == boolean.class) {
+					field.setBoolean(target, (Boolean) BOOL.convert(node));
+				} else {
+					Object value = converter().convert(node);
+					if (field != null) {
+						field.set(target, value);
+					} else if (value != null || !setter.getParameterTypes()[0].isPrimitive()) {
+						setter.invoke(target, value);
+					}
+				}
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException("Cannot write property " + name(), e);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException("Cannot write property " + name(), e.getCause());
+			}
+		}
+
+		/**
+		 * Converters are resolved on first use, so that classes may refer to themselves
+		 */
+		private Converter converter() {
+			Converter c = converter;
+			if (c == null) {
+				c = ChainNodeBinder.converter(type);
+				converter = c;
+			}
+			return c;
+		}
+
+		private String name() {
+			return field != null ? field.getName() : setter.getName();
+		}
+	}
+}
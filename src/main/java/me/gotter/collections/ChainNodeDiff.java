@@ -0,0 +1,329 @@
+package me.gotter.collections;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structural diff and patch of ChainNode trees
+ * <p/>
+ * Patch is a list of JSON Patch (RFC 6902) style operations - maps with
+ * "op" of "add", "remove" or "replace", "path" as JSON Pointer (RFC 6901)
+ * and "value" for additions and replacements. Diff never descends into
+ * identical subtrees - same nodes, nodes sharing containers after
+ * copy-on-write cloning, or nodes with equal cached hashes - so diff of
+ * slightly changed copy scales with size of the change. Trees are walked
+ * without recursion, so their depth is not limited by thread stack. Lists are
+ * compared by index: common prefix is diffed, tail is added or removed.
+ * Trees are read in place, without unsharing clones, and patch holds
+ * frozen copies of added values, so later writes to either side do not
+ * leak into it.
+ */
+final class ChainNodeDiff {
+
+	static final String OP = "op";
+	static final String PATH = "path";
+	static final String VALUE = "value";
+
+	static final String ADD = "add";
+	static final String REMOVE = "remove";
+	static final String REPLACE = "replace";
+
+	/**
+	 * Stands for null list elements and map values
+	 */
+	private static final ChainNode NULL = new ImmutableChainNode(new ChainNode());
+
+	private ChainNodeDiff() {
+	}
+
+	/**
+	 * @return Patch, turning from into to
+	 */
+	static ChainNode diff(ChainNode from, ChainNode to) {
+		ChainNode patch = new ChainNode().ensureCapacity(0);
+		// Containers being compared, walked without recursion, so depth of trees is not limited by stack
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		open(null, null, from, to, patch, stack);
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			if (frame.entries != null) {
+				if (!frame.entries.hasNext()) {
+					stack.pop();
+					continue;
+				}
+				Map.Entry<String, ChainNode> entry = frame.entries.next();
+				String segment = escape(entry.getKey());
+				ChainNode previous = frame.from.peek(entry.getKey());
+				if (previous.isMissing()) {
+					patch.append(operation(ADD, pointer(frame, segment), value(entry.getValue())));
+				} else {
+					open(frame, segment, previous, value(entry.getValue()), patch, stack);
+				}
+				continue;
+			}
+			if (frame.index < frame.common) {
+				String segment = String.valueOf(frame.index++);
+				open(frame, segment, value(frame.fromItems.next()), value(frame.toItems.next()), patch, stack);
+				continue;
+			}
+			stack.pop();
+			int fromSize = frame.from.size();
+			int toSize = frame.to.size();
+			for (int i = frame.common; i < toSize; i++) {
+				patch.append(operation(ADD, pointer(frame, String.valueOf(i)), value(frame.toItems.next())));
+			}
+			// Removing from the end, so indexes of following operations stay valid
+			for (int i = fromSize - 1; i >= frame.common; i--) {
+				patch.append(operation(REMOVE, pointer(frame, String.valueOf(i)), null));
+			}
+		}
+		return patch;
+	}
+
+	/**
+	 * Compares nodes at segment of parent, scalars are compared at once,
+	 * containers of same kind are pushed to stack to compare children
+	 */
+	private static void open(Frame parent, String segment, ChainNode from, ChainNode to, ChainNode patch, ArrayDeque<Frame> stack) {
+		if (same(from, to)) {
+			return;
+		}
+		if (from.isMap() && to.isMap()) {
+			Frame frame = new Frame(parent, segment, from, to);
+			Iterator<Map.Entry<String, ChainNode>> entries = from.readEntries();
+			while (entries.hasNext()) {
+				String key = entries.next().getKey();
+				if (!to.containsKey(key)) {
+					patch.append(operation(REMOVE, pointer(frame, escape(key)), null));
+				}
+			}
+			frame.entries = to.readEntries();
+			stack.push(frame);
+			return;
+		}
+		if (from.isList() && to.isList()) {
+			Frame frame = new Frame(parent, segment, from, to);
+			frame.fromItems = from.readElements();
+			frame.toItems = to.readElements();
+			frame.common = Math.min(from.size(), to.size());
+			stack.push(frame);
+			return;
+		}
+		if (!from.equals(to)) {
+			patch.append(operation(REPLACE, pointer(parent, segment), to));
+		}
+	}
+
+	/**
+	 * @return True if nodes are known to be equal without walking them
+	 */
+	private static boolean same(ChainNode a, ChainNode b) {
+		if (a == b || (a.isNull() && b.isNull())) {
+			return true;
+		}
+		if ((a.valueHash != null && a.valueHash == b.valueHash)
+				|| (a.valueArray != null && a.valueArray == b.valueArray)) {
+			// Copy-on-write clones, not modified yet
+			return true;
+		}
+		if (a.isFrozen() && b.isFrozen()) {
+			return a.hashCode() == b.hashCode() && a.equals(b);
+		}
+		long stamp = ChainNode.hashStamp();
+		if (a.isHashKnown(stamp) && b.isHashKnown(stamp)) {
+			// Mutable nodes, hashed since last write to any tree
+			return a.knownHash() == b.knownHash() && a.equals(b);
+		}
+		return false;
+	}
+
+	/**
+	 * @return JSON Pointer of segment in container of frame, or of frame itself if segment is null
+	 */
+	private static String pointer(Frame frame, String segment) {
+		List<String> segments = new ArrayList<String>();
+		if (segment != null) {
+			segments.add(segment);
+		}
+		for (Frame current = frame; current != null && current.segment != null; current = current.parent) {
+			segments.add(current.segment);
+		}
+		StringBuilder pointer = new StringBuilder();
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			pointer.append('/').append(segments.get(i));
+		}
+		return pointer.toString();
+	}
+
+	private static ChainNode value(ChainNode node) {
+		return node == null ? NULL : node;
+	}
+
+	/**
+	 * @param value Value, taken from target tree, or null for removals
+	 */
+	private static ChainNode operation(String op, String pointer, ChainNode value) {
+		ChainNode operation = new ChainNode();
+		operation.set(OP, op);
+		operation.set(PATH, pointer);
+		if (value != null) {
+			operation.put(VALUE, value.freeze());
+		}
+		return operation;
+	}
+
+	/**
+	 * Pair of containers being compared, pointers are built from parent
+	 * links only for emitted operations
+	 */
+	private static final class Frame {
+		final Frame parent;
+		final String segment;
+		final ChainNode from;
+		final ChainNode to;
+		Iterator<Map.Entry<String, ChainNode>> entries;
+		Iterator<ChainNode> fromItems;
+		Iterator<ChainNode> toItems;
+		int index;
+		int common;
+
+		Frame(Frame parent, String segment, ChainNode from, ChainNode to) {
+			this.parent = parent;
+			this.segment = segment;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/////////////////////////    Patch    /////////////////////////
+
+	/**
+	 * Applies patch to target in place
+	 *
+	 * @throws IllegalArgumentException on malformed patch or missing path
+	 */
+	static void apply(ChainNode target, ChainNode patch) {
+		if (!patch.isList()) {
+			throw new IllegalArgumentException("Patch must be a list of operations");
+		}
+		for (ChainNode operation : patch) {
+			if (!operation.peek(OP).isString() || !operation.peek(PATH).isString()) {
+				// Missing path would otherwise read as empty pointer, targeting whole document
+				throw new IllegalArgumentException("Patch operation requires string op and path " + operation.toJSON());
+			}
+			String op = operation.peek(OP).getString();
+			String pointer = operation.peek(PATH).getString();
+			ChainNode value = operation.peek(VALUE);
+			if (!ADD.equals(op) && !REMOVE.equals(op) && !REPLACE.equals(op)) {
+				throw new IllegalArgumentException("Unsupported patch operation " + op);
+			}
+			if (!REMOVE.equals(op) && value.isMissing()) {
+				throw new IllegalArgumentException("No value for " + op + " at " + pointer);
+			}
+
+			List<String> segments = parse(pointer);
+			if (segments.isEmpty()) {
+				if (REMOVE.equals(op)) {
+					target.clear();
+				} else {
+					target.set(value);
+				}
+				continue;
+			}
+
+			ChainNode parent = target;
+			for (int i = 0; i < segments.size() - 1; i++) {
+				parent = parent.isList() ? parent.peek(index(segments.get(i), pointer)) : parent.peek(segments.get(i));
+				if (parent.isMissing()) {
+					throw new IllegalArgumentException("Path not found " + pointer);
+				}
+			}
+
+			String last = segments.get(segments.size() - 1);
+			if (parent.isList()) {
+				int size = parent.size();
+				int index = ADD.equals(op) && "-".equals(last) ? size : index(last, pointer);
+				if (index > size || (index == size && !ADD.equals(op))) {
+					throw new IllegalArgumentException("Path not found " + pointer);
+				}
+				if (REPLACE.equals(op)) {
+					parent.set(index, new ChainNode(value));
+				} else if (index == size) {
+					parent.append(new ChainNode(value));
+				} else {
+					splice(parent, index, ADD.equals(op) ? new ChainNode(value) : null);
+				}
+			} else if (REMOVE.equals(op)) {
+				if (parent.remove(last) == null) {
+					throw new IllegalArgumentException("Path not found " + pointer);
+				}
+			} else if (REPLACE.equals(op) && !parent.containsKey(last)) {
+				// Unlike add, replace requires existing value
+				throw new IllegalArgumentException("Path not found " + pointer);
+			} else {
+				parent.put(last, new ChainNode(value));
+			}
+		}
+	}
+
+	/**
+	 * Inserts element before index, or removes element at index if insert is null
+	 * Lists are rebuilt, as ChainNode exposes no positional insert and remove
+	 */
+	private static void splice(ChainNode list, int index, ChainNode insert) {
+		List<ChainNode> items = new ArrayList<ChainNode>(list.size() + 1);
+		for (ChainNode item : list) {
+			items.add(item);
+		}
+		if (insert == null) {
+			items.remove(index);
+		} else {
+			items.add(index, insert);
+		}
+		list.clear();
+		list.ensureCapacity(items.size());
+		for (ChainNode item : items) {
+			list.append(item);
+		}
+	}
+
+	private static int index(String segment, String pointer) {
+		int index = ChainPath.parseIndex(segment);
+		if (index < 0) {
+			throw new IllegalArgumentException("Invalid list index " + segment + " in " + pointer);
+		}
+		return index;
+	}
+
+	/////////////////////////    JSON Pointer    /////////////////////////
+
+	static String escape(String segment) {
+		if (segment.indexOf('~') < 0 && segment.indexOf('/') < 0) {
+			return segment;
+		}
+		return segment.replace("~", "~0").replace("/", "~1");
+	}
+
+	static List<String> parse(String pointer) {
+		List<String> segments = new ArrayList<String>();
+		if (pointer.length() == 0) {
+			return segments;
+		}
+		if (pointer.charAt(0) != '/') {
+			throw new IllegalArgumentException("Invalid pointer " + pointer);
+		}
+		int from = 1;
+		while (true) {
+			int next = pointer.indexOf('/', from);
+			String segment = pointer.substring(from, next < 0 ? pointer.length() : next);
+			segments.add(segment.replace("~1", "/").replace("~0", "~"));
+			if (next < 0) {
+				return segments;
+			}
+			from = next + 1;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package me.gotter.collections;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of map keys, so that equal keys of many maps share one String
+ * <p/>
+ * Keys are pooled by JSON parser, when given a pool, and by
+ * ChainNode.internKeys() for existing trees. Map lookups compare keys by
+ * identity before equals(), so lookups by pooled keys skip comparison of
+ * characters. Pool instances hold keys until pool itself is dropped, shared
+ * pool is backed by JVM string table - its keys are same instances as
+ * string literals and are collected, once unused. Pools are thread-safe.
+ */
+public final class ChainNodeKeyPool {
+
+	private static final ChainNodeKeyPool SHARED = new ChainNodeKeyPool(null);
+
+	/**
+	 * Pooled keys, or null for shared pool
+	 */
+	private final ConcurrentHashMap<String, String> keys;
+
+	/**
+	 * Creates pool, holding its keys strongly, for example per tree or per job
+	 */
+	public ChainNodeKeyPool() {
+		this(new ConcurrentHashMap<String, String>());
+	}
+
+	private ChainNodeKeyPool(ConcurrentHashMap<String, String> keys) {
+		this.keys = keys;
+	}
+
+	/**
+	 * @return Global pool, keys of which are weakly held by JVM string table
+	 */
+	public static ChainNodeKeyPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param key Key
+	 * @return Pooled instance, equal to key
+	 */
+	public String intern(String key) {
+		if (keys == null) {
+			return key.intern();
+		}
+		String pooled = keys.get(key);
+		if (pooled != null) {
+			return pooled;
+		}
+		pooled = keys.putIfAbsent(key, key);
+		return pooled != null ? pooled : key;
+	}
+
+	/**
+	 * @return Amount of pooled keys, or -1 for shared pool
+	 */
+	public int size() {
+		return keys == null ? -1 : keys.size();
+	}
+}
@@ -0,0 +1,348 @@
+package me.gotter.collections;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterators over ChainNode children and subtrees
+ * <p/>
+ * Lists are split by index ranges in halves. Maps are traversed by their
+ * own iterator until split for the first time, which snapshots values
+ * into an array, so sequential streams never copy. Subtree traversal is
+ * depth-first with an explicit stack, and splits off half of remaining
+ * siblings at the outermost level that still has several of them. When no
+ * level has, children of a single remaining sibling are split instead, so
+ * documents like {"records": [...]} are divided too. Subtree size is not
+ * known, its estimate starts unknown and is halved on every split.
+ */
+final class ChainNodeSpliterators {
+
+	private ChainNodeSpliterators() {
+	}
+
+	/**
+	 * @return Spliterator over list elements, splitting by index
+	 */
+	static Spliterator<ChainNode> list(List<ChainNode> list) {
+		return new IndexSpliterator(list, 0, list.size());
+	}
+
+	/**
+	 * @return Spliterator over map values, snapshotted on first split
+	 */
+	static Spliterator<ChainNode> values(Collection<ChainNode> values) {
+		return new ValuesSpliterator(values);
+	}
+
+	/**
+	 * @return Spliterator over all descendants of node with their paths,
+	 * parents before children
+	 */
+	static Spliterator<Map.Entry<ChainPath, ChainNode>> tree(ChainNode root) {
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		Frame frame = Frame.of(null, root);
+		if (frame != null) {
+			stack.add(frame);
+		}
+		return new TreeSpliterator(stack);
+	}
+
+	/////////////////////////    Children    /////////////////////////
+
+	static final class IndexSpliterator implements Spliterator<ChainNode> {
+		private final List<ChainNode> list;
+		private int index;
+		private final int end;
+
+		IndexSpliterator(List<ChainNode> list, int index, int end) {
+			this.list = list;
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super ChainNode> action) {
+			if (index >= end) {
+				return false;
+			}
+			action.accept(list.get(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super ChainNode> action) {
+			for (int i = index; i < end; i++) {
+				action.accept(list.get(i));
+			}
+			index = end;
+		}
+
+		@Override
+		public Spliterator<ChainNode> trySplit() {
+			int mid = (index + end) >>> 1;
+			if (mid <= index) {
+				return null;
+			}
+			Spliterator<ChainNode> prefix = new IndexSpliterator(list, index, mid);
+			index = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	static final class ValuesSpliterator implements Spliterator<ChainNode> {
+		private final Collection<ChainNode> values;
+		private Iterator<ChainNode> iterator;
+		private Spliterator<ChainNode> snapshot;
+		private int consumed;
+
+		ValuesSpliterator(Collection<ChainNode> values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super ChainNode> action) {
+			if (snapshot != null) {
+				return snapshot.tryAdvance(action);
+			}
+			if (iterator == null) {
+				iterator = values.iterator();
+			}
+			if (!iterator.hasNext()) {
+				return false;
+			}
+			consumed++;
+			action.accept(iterator.next());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super ChainNode> action) {
+			if (snapshot != null) {
+				snapshot.forEachRemaining(action);
+				return;
+			}
+			if (iterator == null) {
+				iterator = values.iterator();
+			}
+			while (iterator.hasNext()) {
+				consumed++;
+				action.accept(iterator.next());
+			}
+		}
+
+		@Override
+		public Spliterator<ChainNode> trySplit() {
+			if (snapshot == null) {
+				if (iterator != null) {
+					// Traversal already started
+					return null;
+				}
+				ChainNode[] array = values.toArray(new ChainNode[values.size()]);
+				snapshot = new IndexSpliterator(Arrays.asList(array), 0, array.length);
+			}
+			return snapshot.trySplit();
+		}
+
+		@Override
+		public long estimateSize() {
+			if (snapshot != null) {
+				return snapshot.estimateSize();
+			}
+			return Math.max(0, values.size() - consumed);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
+
+	/////////////////////////    Subtree    /////////////////////////
+
+	/**
+	 * Children of a single container, remaining ones are in [index, end)
+	 */
+	static final class Frame {
+		final ChainPath path;
+		final String[] keys;
+		final ChainNode[] nodes;
+		int index;
+		int end;
+
+		/**
+		 * False if children of nodes are already taken by other frames
+		 */
+		boolean descend = true;
+
+		private Frame(ChainPath path, String[] keys, ChainNode[] nodes, int index, int end) {
+			this.path = path;
+			this.keys = keys;
+			this.nodes = nodes;
+			this.index = index;
+			this.end = end;
+		}
+
+		/**
+		 * @return Frame over snapshot of node children, or null if it has none
+		 */
+		static Frame of(ChainPath path, ChainNode node) {
+			if (node == null || !node.isIterable() || node.isEmpty()) {
+				return null;
+			}
+			int size = node.size();
+			ChainNode[] nodes = new ChainNode[size];
+			int n = 0;
+			if (node.isList()) {
+				Iterator<ChainNode> elements = node.readElements();
+				while (n < size && elements.hasNext()) {
+					nodes[n++] = elements.next();
+				}
+				return new Frame(path, null, nodes, 0, n);
+			}
+			String[] keys = new String[size];
+			Iterator<Map.Entry<String, ChainNode>> entries = node.readEntries();
+			while (n < size && entries.hasNext()) {
+				Map.Entry<String, ChainNode> entry = entries.next();
+				keys[n] = entry.getKey();
+				nodes[n++] = entry.getValue();
+			}
+			return new Frame(path, keys, nodes, 0, n);
+		}
+
+		ChainPath childPath(int i) {
+			String segment = keys == null ? Integer.toString(i) : keys[i];
+			return path == null ? new ChainPath(segment) : path.child(segment);
+		}
+	}
+
+	static final class TreeSpliterator implements Spliterator<Map.Entry<ChainPath, ChainNode>> {
+		/**
+		 * Outermost frame first
+		 */
+		private final ArrayList<Frame> stack;
+		private long estimate;
+
+		TreeSpliterator(ArrayList<Frame> stack) {
+			this(stack, Long.MAX_VALUE);
+		}
+
+		private TreeSpliterator(ArrayList<Frame> stack, long estimate) {
+			this.stack = stack;
+			this.estimate = estimate;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Map.Entry<ChainPath, ChainNode>> action) {
+			while (!stack.isEmpty()) {
+				Frame top = stack.get(stack.size() - 1);
+				if (top.index < top.end) {
+					int i = top.index++;
+					ChainPath path = top.childPath(i);
+					ChainNode node = top.nodes[i];
+					action.accept(new AbstractMap.SimpleImmutableEntry<ChainPath, ChainNode>(path, node));
+					// Children are taken after action, so that its changes are visible
+					Frame frame = top.descend ? Frame.of(path, node) : null;
+					if (frame != null) {
+						stack.add(frame);
+					}
+					return true;
+				}
+				stack.remove(stack.size() - 1);
+			}
+			return false;
+		}
+
+		@Override
+		public Spliterator<Map.Entry<ChainPath, ChainNode>> trySplit() {
+			for (int level = 0; level < stack.size(); level++) {
+				Frame frame = stack.get(level);
+				int remaining = frame.end - frame.index;
+				if (remaining < 2) {
+					// Single remaining sibling goes after everything deeper
+					continue;
+				}
+				int mid = frame.index + remaining / 2;
+				ArrayList<Frame> prefix = new ArrayList<Frame>();
+				prefix.add(new Frame(frame.path, frame.keys, frame.nodes, frame.index, mid));
+				while (stack.size() > level + 1) {
+					prefix.add(stack.remove(level + 1));
+				}
+				frame.index = mid;
+				return split(prefix);
+			}
+			return splitChildren();
+		}
+
+		/**
+		 * Splits children of the single remaining sibling at the outermost
+		 * level, that has at least two of them. Prefix takes deeper frames,
+		 * the sibling itself and first half of its children, this one keeps
+		 * the rest. Children are taken before the sibling reaches action then.
+		 */
+		private Spliterator<Map.Entry<ChainPath, ChainNode>> splitChildren() {
+			for (int level = 0; level < stack.size(); level++) {
+				Frame frame = stack.get(level);
+				if (frame.end - frame.index != 1 || !frame.descend) {
+					continue;
+				}
+				ChainNode node = frame.nodes[frame.index];
+				if (node == null || !node.isIterable() || node.size() < 2) {
+					continue;
+				}
+				Frame children = Frame.of(frame.childPath(frame.index), node);
+				if (children == null || children.end < 2) {
+					continue;
+				}
+				int mid = children.end / 2;
+				Frame sibling = new Frame(frame.path, frame.keys, frame.nodes, frame.index, frame.index + 1);
+				sibling.descend = false;
+				ArrayList<Frame> prefix = new ArrayList<Frame>();
+				prefix.add(new Frame(children.path, children.keys, children.nodes, 0, mid));
+				prefix.add(sibling);
+				while (stack.size() > level + 1) {
+					prefix.add(stack.remove(level + 1));
+				}
+				children.index = mid;
+				stack.set(level, children);
+				return split(prefix);
+			}
+			return null;
+		}
+
+		private TreeSpliterator split(ArrayList<Frame> prefix) {
+			estimate >>>= 1;
+			return new TreeSpliterator(prefix, estimate);
+		}
+
+		/**
+		 * @return Unknown size before the first split, halved on every split,
+		 * subtrees of remaining siblings can not be counted without walking them
+		 */
+		@Override
+		public long estimateSize() {
+			return stack.isEmpty() ? 0 : estimate;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package me.gotter.collections;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-through collection views of ChainNode containers
+ * <p/>
+ * Views call beforeWrite() of their node before every modification made
+ * through them, including removal by iterators and Entry.setValue() of
+ * entries, taken earlier, so cached hashes are dropped on write and not
+ * when view is handed out. Views read current container of their node on
+ * every call, and modifications first make copy-on-write clones own their
+ * containers, so views of clones of frozen nodes are writable. Views of
+ * frozen nodes are returned as is.
+ */
+final class ChainNodeViews {
+
+	private static final int KEYS = 0;
+	private static final int VALUES = 1;
+	private static final int ENTRIES = 2;
+
+	private ChainNodeViews() {
+	}
+
+	static Set<String> keys(ChainNode owner) {
+		return owner.isFrozen() ? owner.valueHash.keySet() : new ViewSet<String>(owner, KEYS);
+	}
+
+	static Collection<ChainNode> values(ChainNode owner) {
+		if (owner.isFrozen()) {
+			return owner.valueArray != null ? owner.valueArray : owner.valueHash.values();
+		}
+		return new ViewCollection<ChainNode>(owner, VALUES);
+	}
+
+	static Set<Map.Entry<String, ChainNode>> entries(ChainNode owner) {
+		return owner.isFrozen() ? owner.valueHash.entrySet() : new ViewSet<Map.Entry<String, ChainNode>>(owner, ENTRIES);
+	}
+
+	/**
+	 * @return Iterator over values of node
+	 */
+	static Iterator<ChainNode> iterator(ChainNode owner) {
+		if (owner.isFrozen()) {
+			return owner.valueArray != null ? owner.valueArray.iterator() : owner.valueHash.values().iterator();
+		}
+		return new ViewIterator<ChainNode>(owner, VALUES);
+	}
+
+	/**
+	 * @return Current container of node, seen as collection of provided kind
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Collection<T> current(ChainNode owner, int kind) {
+		Object container = owner.container();
+		if (!(container instanceof Map)) {
+			if (kind == VALUES && container != null) {
+				return (Collection<T>) container;
+			}
+			return Collections.emptySet();
+		}
+		Map<String, ChainNode> map = (Map<String, ChainNode>) container;
+		switch (kind) {
+			case KEYS:
+				return (Collection<T>) map.keySet();
+			case VALUES:
+				return (Collection<T>) map.values();
+			default:
+				return (Collection<T>) map.entrySet();
+		}
+	}
+
+	/**
+	 * Prepares node for modification
+	 * Borrowed containers are copied, so writes go to owned ones
+	 */
+	private static void write(ChainNode owner) {
+		owner.beforeWrite();
+		owner.own();
+	}
+
+	private static class ViewCollection<T> implements Collection<T> {
+		final ChainNode owner;
+		final int kind;
+
+		ViewCollection(ChainNode owner, int kind) {
+			this.owner = owner;
+			this.kind = kind;
+		}
+
+		Collection<T> view() {
+			return current(owner, kind);
+		}
+
+		Collection<T> writable() {
+			write(owner);
+			return current(owner, kind);
+		}
+
+		@Override
+		public int size() {
+			return view().size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return view().isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return view().contains(o);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new ViewIterator<T>(owner, kind);
+		}
+
+		@Override
+		public Object[] toArray() {
+			return view().toArray();
+		}
+
+		@Override
+		public <A> A[] toArray(A[] a) {
+			return view().toArray(a);
+		}
+
+		@Override
+		public boolean add(T t) {
+			return writable().add(t);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			return writable().remove(o);
+		}
+
+		@Override
+		public boolean containsAll(Collection<?> c) {
+			return view().containsAll(c);
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends T> c) {
+			return writable().addAll(c);
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			return writable().removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			return writable().retainAll(c);
+		}
+
+		@Override
+		public void clear() {
+			writable().clear();
+		}
+
+		@Override
+		public String toString() {
+			return view().toString();
+		}
+	}
+
+	private static final class ViewSet<T> extends ViewCollection<T> implements Set<T> {
+		ViewSet(ChainNode owner, int kind) {
+			super(owner, kind);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o == this || view().equals(o);
+		}
+
+		@Override
+		public int hashCode() {
+			return view().hashCode();
+		}
+	}
+
+	/**
+	 * Iterates container, current at creation. Once node copies borrowed
+	 * container, removals are made by key, or by position in the list.
+	 */
+	private static final class ViewIterator<T> implements Iterator<T> {
+		private final ChainNode owner;
+		private final int kind;
+		private final Object container;
+		private final Iterator<ChainNode> elements;
+		private final Iterator<Map.Entry<String, ChainNode>> entries;
+		private Map.Entry<String, ChainNode> last;
+		private boolean removable;
+		private int index = -1;
+		private int removed;
+
+		@SuppressWarnings("unchecked")
+		ViewIterator(ChainNode owner, int kind) {
+			this.owner = owner;
+			this.kind = kind;
+			Object container = owner.container();
+			if (container instanceof Map) {
+				this.container = container;
+				this.entries = ((Map<String, ChainNode>) container).entrySet().iterator();
+				this.elements = null;
+			} else if (container != null && kind == VALUES) {
+				this.container = container;
+				this.elements = ((List<ChainNode>) container).iterator();
+				this.entries = null;
+			} else {
+				this.container = null;
+				this.elements = Collections.<ChainNode>emptyList().iterator();
+				this.entries = null;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return entries != null ? entries.hasNext() : elements.hasNext();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (entries == null) {
+				ChainNode element = elements.next();
+				index++;
+				removable = true;
+				return (T) element;
+			}
+			last = entries.next();
+			removable = true;
+			switch (kind) {
+				case KEYS:
+					return (T) last.getKey();
+				case VALUES:
+					return (T) last.getValue();
+				default:
+					return (T) new Entry(owner, container, last);
+			}
+		}
+
+		@Override
+		public void remove() {
+			if (!removable) {
+				throw new IllegalStateException();
+			}
+			owner.beforeWrite();
+			if (!owner.shared && owner.container() == container) {
+				if (entries != null) {
+					entries.remove();
+				} else {
+					elements.remove();
+				}
+			} else {
+				owner.own();
+				if (entries != null) {
+					owner.valueHash.remove(last.getKey());
+				} else {
+					owner.valueArray.remove(index - removed);
+				}
+			}
+			removed++;
+			removable = false;
+		}
+	}
+
+	private static final class Entry implements Map.Entry<String, ChainNode> {
+		private final ChainNode owner;
+		private final Object container;
+		private final Map.Entry<String, ChainNode> entry;
+
+		/**
+		 * Value, set after container was copied
+		 */
+		private ChainNode value;
+		private boolean replaced;
+
+		Entry(ChainNode owner, Object container, Map.Entry<String, ChainNode> entry) {
+			this.owner = owner;
+			this.container = container;
+			this.entry = entry;
+		}
+
+		@Override
+		public String getKey() {
+			return entry.getKey();
+		}
+
+		@Override
+		public ChainNode getValue() {
+			return replaced ? value : entry.getValue();
+		}
+
+		@Override
+		public ChainNode setValue(ChainNode value) {
+			owner.beforeWrite();
+			if (!replaced && !owner.shared && owner.container() == container) {
+				return entry.setValue(value);
+			}
+			owner.own();
+			ChainNode previous = owner.valueHash.put(getKey(), value);
+			this.value = value;
+			this.replaced = true;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			ChainNode value = getValue();
+			return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			ChainNode value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package me.gotter.collections;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Depth-first traversal of ChainNode trees with an explicit stack
+ * <p/>
+ * Walker keeps its own stack of frames instead of recursing, so trees of
+ * any depth are walked at constant call stack use. Containers are read in
+ * place - copy-on-write clones are not unshared and cached hashes are not
+ * dropped - so visitors must not modify visited nodes. Hashing, equality
+ * and freezing of ChainNode, JSON and binary serialization, sequential and
+ * parallel, are built on it.
+ */
+public final class ChainNodeWalker {
+
+	/**
+	 * Receives traversal events, all methods do nothing by default
+	 * <p/>
+	 * For every child, child() is called first, then either scalar(), or
+	 * enter and, unless it returned false, all of its children and leave.
+	 */
+	public abstract static class Visitor {
+		private boolean stopped;
+
+		/**
+		 * Called before every child of a container
+		 *
+		 * @param key   Map key, or null for list elements
+		 * @param index Position of child in its container
+		 */
+		public void child(String key, int index) {
+		}
+
+		/**
+		 * @return False to skip entries of the map, leaveMap() is not called then
+		 */
+		public boolean enterMap(ChainNode node) {
+			return true;
+		}
+
+		public void leaveMap(ChainNode node) {
+		}
+
+		/**
+		 * @return False to skip elements of the list, leaveList() is not called then
+		 */
+		public boolean enterList(ChainNode node) {
+			return true;
+		}
+
+		public void leaveList(ChainNode node) {
+		}
+
+		/**
+		 * @param node Node, holding scalar or null, or null for null elements
+		 */
+		public void scalar(ChainNode node) {
+		}
+
+		/**
+		 * Stops traversal after current callback, no leave callbacks follow
+		 */
+		protected final void stop() {
+			stopped = true;
+		}
+	}
+
+	private ChainNodeWalker() {
+	}
+
+	/**
+	 * Walks tree, starting from provided node
+	 *
+	 * @param root    Root node
+	 * @param visitor Visitor
+	 */
+	public static void walk(ChainNode root, Visitor visitor) {
+		visitor.stopped = false;
+		Stack stack = new Stack();
+		enter(root, stack, visitor);
+		while (stack.depth > 0 && !visitor.stopped) {
+			Frame top = stack.frames[stack.depth - 1];
+			ChainNode child;
+			if (top.entries != null) {
+				if (!top.entries.hasNext()) {
+					stack.depth--;
+					top.entries = null;
+					visitor.leaveMap(top.node);
+					continue;
+				}
+				Map.Entry<String, ChainNode> entry = top.entries.next();
+				visitor.child(entry.getKey(), top.index++);
+				child = entry.getValue();
+			} else {
+				if (!top.elements.hasNext()) {
+					stack.depth--;
+					top.elements = null;
+					visitor.leaveList(top.node);
+					continue;
+				}
+				child = top.elements.next();
+				visitor.child(null, top.index++);
+			}
+			if (!visitor.stopped) {
+				enter(child, stack, visitor);
+			}
+		}
+	}
+
+	private static void enter(ChainNode node, Stack stack, Visitor visitor) {
+		if (node != null && node.isMap()) {
+			if (visitor.enterMap(node) && !visitor.stopped) {
+				stack.push(node).entries = node.readEntries();
+			}
+		} else if (node != null && node.isList()) {
+			if (visitor.enterList(node) && !visitor.stopped) {
+				stack.push(node).elements = node.readElements();
+			}
+		} else {
+			visitor.scalar(node);
+		}
+	}
+
+	/**
+	 * Container being walked, frames are reused between siblings
+	 */
+	private static final class Frame {
+		ChainNode node;
+		Iterator<Map.Entry<String, ChainNode>> entries;
+		Iterator<ChainNode> elements;
+		int index;
+	}
+
+	private static final class Stack {
+		Frame[] frames = new Frame[16];
+		int depth;
+
+		Frame push(ChainNode node) {
+			if (depth == frames.length) {
+				frames = Arrays.copyOf(frames, depth * 2);
+			}
+			Frame frame = frames[depth];
+			if (frame == null) {
+				frame = frames[depth] = new Frame();
+			}
+			depth++;
+			frame.node = node;
+			frame.index = 0;
+			return frame;
+		}
+	}
+
+	/////////////////////////    Hashing    /////////////////////////
+
+	/**
+	 * @return Hash code of node, same as of its plain Java value
+	 */
+	static int hash(ChainNode node) {
+		HashVisitor visitor = new HashVisitor(ChainNode.hashStamp());
+		walk(node, visitor);
+		return visitor.result;
+	}
+
+	/**
+	 * Computes List and Map hash codes bottom-up, using and filling
+	 * container hash caches. Every visited node is stamped, so that
+	 * writes to it drop cached hashes of its ancestors
+	 */
+	private static final class HashVisitor extends Visitor {
+		private final long stamp;
+
+		/**
+		 * Stamp without hash, shared by all scalars
+		 */
+		private final ChainNode.HashCache stamped;
+		private int[] hashes = new int[16];
+		private int[] keyHashes = new int[16];
+		private boolean[] maps = new boolean[16];
+
+		/**
+		 * True for containers, holding nodes with untracked writes
+		 */
+		private boolean[] untracked = new boolean[16];
+		private int depth;
+		int result;
+
+		HashVisitor(long stamp) {
+			this.stamp = stamp;
+			this.stamped = new ChainNode.HashCache(0, stamp);
+		}
+
+		@Override
+		public void child(String key, int index) {
+			if (key != null) {
+				keyHashes[depth - 1] = key.hashCode();
+			}
+		}
+
+		@Override
+		public boolean enterMap(ChainNode node) {
+			return enter(node, true);
+		}
+
+		@Override
+		public void leaveMap(ChainNode node) {
+			leave(node);
+		}
+
+		@Override
+		public boolean enterList(ChainNode node) {
+			return enter(node, false);
+		}
+
+		@Override
+		public void leaveList(ChainNode node) {
+			leave(node);
+		}
+
+		@Override
+		public void scalar(ChainNode node) {
+			if (node == null) {
+				add(0);
+				return;
+			}
+			int h = node.hashCode();
+			track(node);
+			node.cacheHash(stamped);
+			add(h);
+		}
+
+		private boolean enter(ChainNode node, boolean map) {
+			if (node.isHashKnown(stamp)) {
+				add(node.knownHash());
+				return false;
+			}
+			track(node);
+			if (depth == hashes.length) {
+				hashes = Arrays.copyOf(hashes, depth * 2);
+				keyHashes = Arrays.copyOf(keyHashes, depth * 2);
+				maps = Arrays.copyOf(maps, depth * 2);
+				untracked = Arrays.copyOf(untracked, depth * 2);
+			}
+			// Same initial values as of AbstractMap and AbstractList
+			hashes[depth] = map ? 0 : 1;
+			maps[depth] = map;
+			untracked[depth] = false;
+			depth++;
+			return true;
+		}
+
+		private void leave(ChainNode node) {
+			int h = hashes[--depth];
+			if (untracked[depth]) {
+				if (depth > 0) {
+					untracked[depth - 1] = true;
+				}
+			} else {
+				node.cacheHash(new ChainNode.HashCache(h, stamp));
+			}
+			add(h);
+		}
+
+		private void track(ChainNode node) {
+			if (depth > 0 && !node.tracksWrites()) {
+				untracked[depth - 1] = true;
+			}
+		}
+
+		private void add(int h) {
+			if (depth == 0) {
+				result = h;
+			} else if (maps[depth - 1]) {
+				hashes[depth - 1] += keyHashes[depth - 1] ^ h;
+			} else {
+				hashes[depth - 1] = 31 * hashes[depth - 1] + h;
+			}
+		}
+	}
+
+	/////////////////////////    Equality    /////////////////////////
+
+	/**
+	 * @return True if both trees hold equal values
+	 */
+	static boolean equal(ChainNode node, ChainNode other) {
+		EqualsVisitor visitor = new EqualsVisitor(ChainNode.hashStamp(), other);
+		walk(node, visitor);
+		return visitor.equal;
+	}
+
+	/**
+	 * Walks one tree, following same path in the other one
+	 */
+	private static final class EqualsVisitor extends Visitor {
+		private final long stamp;
+
+		/**
+		 * Counterparts of entered containers - maps, or iterators over lists
+		 */
+		private Object[] others = new Object[16];
+		private int depth;
+
+		/**
+		 * Counterpart of the next visited node
+		 */
+		private ChainNode pending;
+		boolean equal = true;
+
+		EqualsVisitor(long stamp, ChainNode other) {
+			this.stamp = stamp;
+			this.pending = other;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void child(String key, int index) {
+			Object parent = others[depth - 1];
+			if (key == null) {
+				// Sizes are equal, so there is always next element
+				pending = ((Iterator<ChainNode>) parent).next();
+				return;
+			}
+			ChainNode map = (ChainNode) parent;
+			if (map.valueHash != null) {
+				pending = map.valueHash.get(key);
+			} else {
+				pending = map.peek(key);
+				if (pending == ChainNode.MISSING) {
+					pending = null;
+				}
+			}
+			if (pending == null && !map.containsKey(key)) {
+				mismatch();
+			}
+		}
+
+		@Override
+		public boolean enterMap(ChainNode node) {
+			ChainNode other = pending;
+			if (other == node) {
+				return false;
+			}
+			if (other == null || !other.isMap() || other.size() != node.size()) {
+				return mismatch();
+			}
+			if (node.valueHash != null && node.valueHash == other.valueHash) {
+				// Copy-on-write clones, sharing the map
+				return false;
+			}
+			if (hashesDiffer(node, other)) {
+				return mismatch();
+			}
+			push(other);
+			return true;
+		}
+
+		@Override
+		public void leaveMap(ChainNode node) {
+			others[--depth] = null;
+		}
+
+		@Override
+		public boolean enterList(ChainNode node) {
+			ChainNode other = pending;
+			if (other == node) {
+				return false;
+			}
+			if (other == null || !other.isList() || other.size() != node.size()) {
+				return mismatch();
+			}
+			if (node.valueArray != null && node.valueArray == other.valueArray) {
+				return false;
+			}
+			if (hashesDiffer(node, other)) {
+				return mismatch();
+			}
+			push(other.readElements());
+			return true;
+		}
+
+		@Override
+		public void leaveList(ChainNode node) {
+			others[--depth] = null;
+		}
+
+		@Override
+		public void scalar(ChainNode node) {
+			ChainNode other = pending;
+			boolean same = node == null ? other == null || other.isNull() : node.equals(other);
+			if (!same) {
+				mismatch();
+			}
+		}
+
+		private boolean hashesDiffer(ChainNode node, ChainNode other) {
+			return node.isHashKnown(stamp) && other.isHashKnown(stamp) && node.knownHash() != other.knownHash();
+		}
+
+		private void push(Object other) {
+			if (depth == others.length) {
+				others = Arrays.copyOf(others, depth * 2);
+			}
+			others[depth++] = other;
+		}
+
+		private boolean mismatch() {
+			equal = false;
+			stop();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package me.gotter.collections;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precompiled path to ChainNode descendant
+ * <p/>
+ * Path is split into segments once, numeric segments are parsed into list
+ * indexes once, so resolving it only walks the tree. Paths are immutable
+ * and can be shared between threads. Child paths link to their parent and
+ * build segment arrays on first use, so child() takes constant time.
+ */
+public final class ChainPath {
+
+	/**
+	 * Maximum amount of paths, cached by compile()
+	 */
+	static final int CACHE_SIZE = 1024;
+
+	private static final ConcurrentHashMap<String, ChainPath> cache = new ConcurrentHashMap<String, ChainPath>();
+
+	/**
+	 * Parent path, or null for paths, created from segments
+	 */
+	private final ChainPath parent;
+
+	/**
+	 * Last segment
+	 */
+	private final String last;
+
+	/**
+	 * Amount of segments
+	 */
+	private final int size;
+
+	/**
+	 * Segment arrays, null until built for child paths
+	 * Racy writes are harmless, as every thread builds equal arrays
+	 */
+	private Flat flat;
+
+	/**
+	 * Path segments with segments, parsed as list indexes, or -1 for
+	 * non-numeric ones. Fields are final, so racy publication is safe
+	 */
+	private static final class Flat {
+		final String[] segments;
+		final int[] indexes;
+
+		Flat(String[] segments, int[] indexes) {
+			this.segments = segments;
+			this.indexes = indexes;
+		}
+	}
+
+	/**
+	 * Creates path from segments
+	 *
+	 * @param segments Path segments
+	 */
+	public ChainPath(String... segments) {
+		if (segments == null || segments.length == 0) {
+			throw new NullPointerException();
+		}
+		int[] indexes = new int[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i] == null) {
+				throw new NullPointerException();
+			}
+			indexes[i] = parseIndex(segments[i]);
+		}
+		this.parent = null;
+		this.last = segments[segments.length - 1];
+		this.size = segments.length;
+		this.flat = new Flat(segments.clone(), indexes);
+	}
+
+	private ChainPath(ChainPath parent, String last) {
+		this.parent = parent;
+		this.last = last;
+		this.size = parent.size + 1;
+	}
+
+	/**
+	 * @return Segment arrays, built from parent chain on first call
+	 */
+	private Flat flat() {
+		Flat result = flat;
+		if (result != null) {
+			return result;
+		}
+		String[] segments = new String[size];
+		int[] indexes = new int[size];
+		ChainPath path = this;
+		while (path.flat == null) {
+			segments[path.size - 1] = path.last;
+			indexes[path.size - 1] = parseIndex(path.last);
+			path = path.parent;
+		}
+		System.arraycopy(path.flat.segments, 0, segments, 0, path.size);
+		System.arraycopy(path.flat.indexes, 0, indexes, 0, path.size);
+		result = new Flat(segments, indexes);
+		flat = result;
+		return result;
+	}
+
+	/**
+	 * Returns compiled dot-separated path, using shared cache
+	 *
+	 * @param path Dot-separated path
+	 * @return Compiled path
+	 */
+	public static ChainPath compile(String path) {
+		if (path == null || path.length() == 0) {
+			throw new NullPointerException();
+		}
+		ChainPath compiled = cache.get(path);
+		if (compiled == null) {
+			compiled = new ChainPath(split(path));
+			if (cache.size() >= CACHE_SIZE) {
+				// Hot paths get cached again on next call
+				cache.clear();
+			}
+			cache.put(path, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Splits path by dots, trailing empty segments are dropped,
+	 * same as String.split()
+	 */
+	private static String[] split(String path) {
+		int end = path.length();
+		while (end > 0 && path.charAt(end - 1) == '.') {
+			end--;
+		}
+		if (end == 0) {
+			throw new NullPointerException();
+		}
+		int count = 1;
+		for (int i = 0; i < end; i++) {
+			if (path.charAt(i) == '.') {
+				count++;
+			}
+		}
+		String[] segments = new String[count];
+		int from = 0;
+		int n = 0;
+		for (int i = 0; i < end; i++) {
+			if (path.charAt(i) == '.') {
+				segments[n++] = path.substring(from, i);
+				from = i + 1;
+			}
+		}
+		segments[n] = path.substring(from, end);
+		return segments;
+	}
+
+	/**
+	 * @return Segment as list index, or -1
+	 */
+	static int parseIndex(String segment) {
+		int length = segment.length();
+		if (length == 0 || length > 9) {
+			return -1;
+		}
+		int index = 0;
+		for (int i = 0; i < length; i++) {
+			char c = segment.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			index = index * 10 + (c - '0');
+		}
+		return index;
+	}
+
+	/**
+	 * @return Amount of segments
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i Segment number
+	 * @return Segment
+	 */
+	public String segment(int i) {
+		return i == size - 1 ? last : flat().segments[i];
+	}
+
+	/**
+	 * @param segment Segment to append
+	 * @return Path to child of node at this path
+	 */
+	public ChainPath child(String segment) {
+		if (segment == null) {
+			throw new NullPointerException();
+		}
+		return new ChainPath(this, segment);
+	}
+
+	/**
+	 * Resolves path against provided node, with same semantics as
+	 * ChainNode.path(String) - missing map keys are created
+	 *
+	 * @param root Node to start from
+	 * @return Found node
+	 */
+	public ChainNode resolve(ChainNode root) {
+		Flat flat = flat();
+		ChainNode node = root;
+		for (int i = 0; i < size; i++) {
+			node = step(node, flat.segments[i], flat.indexes[i]);
+		}
+		return node;
+	}
+
+	/**
+	 * Resolves path against provided node without modifying it
+	 *
+	 * @param root Node to start from
+	 * @return Found node or ChainNode.MISSING
+	 */
+	public ChainNode find(ChainNode root) {
+		Flat flat = flat();
+		ChainNode node = root;
+		for (int i = 0; i < size && node != ChainNode.MISSING; i++) {
+			if (node.isList()) {
+				node = node.peek(flat.indexes[i]);
+			} else {
+				node = node.peek(flat.segments[i]);
+			}
+		}
+		return node;
+	}
+
+	private static ChainNode step(ChainNode node, String segment, int index) {
+		if (node.isList()) {
+			if (index < 0) {
+				throw new RuntimeException("Invalid list index " + segment);
+			}
+			return node.child(index);
+		}
+		return node.get(segment);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ChainPath)) {
+			return false;
+		}
+		ChainPath other = (ChainPath) o;
+		return size == other.size && last.equals(other.last) && Arrays.equals(flat().segments, other.flat().segments);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(flat().segments);
+	}
+
+	@Override
+	public String toString() {
+		String[] segments = flat().segments;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < segments.length; i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			sb.append(segments[i]);
+		}
+		return sb.toString();
+	}
+}
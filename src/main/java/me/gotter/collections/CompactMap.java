@@ -0,0 +1,387 @@
+package me.gotter.collections;
+
+import java.util.*;
+
+/**
+ * Map, used by ChainNode for its children
+ * <p/>
+ * Small maps keep keys and values interleaved in single array, in insertion
+ * order, and are searched linearly. Past THRESHOLD keys contents are moved
+ * into LinkedHashMap, so iteration order stays the insertion one, and map
+ * stays hash based from then on.
+ * <p/>
+ * Not thread safe, as HashMap. Iterators are fail-fast, as of HashMap -
+ * adding or removing keys other than through iterator itself makes them
+ * throw ConcurrentModificationException on best-effort basis.
+ */
+final class CompactMap extends AbstractMap<String, ChainNode> {
+
+	/**
+	 * Maximum amount of keys, stored in array
+	 */
+	static final int THRESHOLD = 8;
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private static final Object[] EMPTY = new Object[0];
+
+	/**
+	 * Interleaved keys and values - key at 2 * i, value at 2 * i + 1
+	 */
+	private Object[] table = EMPTY;
+
+	private int size = 0;
+
+	/**
+	 * Amount of structural modifications of table, checked by its iterators
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Hash map, replacing table after promotion
+	 */
+	private LinkedHashMap<String, ChainNode> promoted = null;
+
+	private transient Set<Entry<String, ChainNode>> entrySet;
+	private transient Set<String> keySet;
+	private transient Collection<ChainNode> values;
+
+	CompactMap() {
+	}
+
+	/**
+	 * @return True if map was promoted to hash table
+	 */
+	boolean isPromoted() {
+		return promoted != null;
+	}
+
+	/**
+	 * @return Index of key in table or -1
+	 */
+	private int indexOf(Object key) {
+		if (key == null) {
+			return -1;
+		}
+		Object[] t = table;
+		for (int i = 0; i < size; i++) {
+			Object k = t[i << 1];
+			if (k == key) {
+				return i;
+			}
+		}
+		int hash = key.hashCode();
+		for (int i = 0; i < size; i++) {
+			Object k = t[i << 1];
+			if (k.hashCode() == hash && k.equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return promoted != null ? promoted.size() : size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (promoted != null) {
+			return promoted.containsKey(key);
+		}
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public ChainNode get(Object key) {
+		if (promoted != null) {
+			return promoted.get(key);
+		}
+		int i = indexOf(key);
+		return i < 0 ? null : (ChainNode) table[(i << 1) + 1];
+	}
+
+	@Override
+	public ChainNode put(String key, ChainNode value) {
+		if (promoted != null) {
+			return promoted.put(key, value);
+		}
+		if (key == null) {
+			throw new NullPointerException("ChainNode keys cannot be null");
+		}
+		int i = indexOf(key);
+		if (i >= 0) {
+			ChainNode previous = (ChainNode) table[(i << 1) + 1];
+			table[(i << 1) + 1] = value;
+			return previous;
+		}
+		if (size == THRESHOLD) {
+			promote();
+			return promoted.put(key, value);
+		}
+		if ((size << 1) == table.length) {
+			table = Arrays.copyOf(table, table.length == 0 ? INITIAL_CAPACITY << 1 : table.length << 1);
+		}
+		table[size << 1] = key;
+		table[(size << 1) + 1] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	@Override
+	public ChainNode remove(Object key) {
+		if (promoted != null) {
+			return promoted.remove(key);
+		}
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		ChainNode previous = (ChainNode) table[(i << 1) + 1];
+		removeAt(i);
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		if (promoted != null) {
+			promoted.clear();
+			return;
+		}
+		Arrays.fill(table, 0, size << 1, null);
+		size = 0;
+		modCount++;
+	}
+
+	private void removeAt(int i) {
+		int tail = (size - i - 1) << 1;
+		if (tail > 0) {
+			System.arraycopy(table, (i + 1) << 1, table, i << 1, tail);
+		}
+		size--;
+		table[size << 1] = null;
+		table[(size << 1) + 1] = null;
+		modCount++;
+	}
+
+	private void promote() {
+		LinkedHashMap<String, ChainNode> map = new LinkedHashMap<String, ChainNode>(THRESHOLD * 4);
+		for (int i = 0; i < size; i++) {
+			map.put((String) table[i << 1], (ChainNode) table[(i << 1) + 1]);
+		}
+		promoted = map;
+		table = EMPTY;
+		size = 0;
+		modCount++;
+	}
+
+	/////////////////////////    Views    /////////////////////////
+
+	@Override
+	public Set<Entry<String, ChainNode>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<String, ChainNode>>() {
+				@Override
+				public Iterator<Entry<String, ChainNode>> iterator() {
+					if (promoted != null) {
+						return promoted.entrySet().iterator();
+					}
+					return new TableIterator<Entry<String, ChainNode>>() {
+						@Override
+						Entry<String, ChainNode> element(int i) {
+							return new TableEntry(i);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return CompactMap.this.size();
+				}
+
+				@Override
+				public void clear() {
+					CompactMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	@Override
+	public Set<String> keySet() {
+		if (keySet == null) {
+			keySet = new AbstractSet<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					if (promoted != null) {
+						return promoted.keySet().iterator();
+					}
+					return new TableIterator<String>() {
+						@Override
+						String element(int i) {
+							return (String) table[i << 1];
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return CompactMap.this.size();
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return containsKey(o);
+				}
+
+				@Override
+				public boolean remove(Object o) {
+					if (!containsKey(o)) {
+						return false;
+					}
+					CompactMap.this.remove(o);
+					return true;
+				}
+
+				@Override
+				public void clear() {
+					CompactMap.this.clear();
+				}
+			};
+		}
+		return keySet;
+	}
+
+	@Override
+	public Collection<ChainNode> values() {
+		if (values == null) {
+			values = new AbstractCollection<ChainNode>() {
+				@Override
+				public Iterator<ChainNode> iterator() {
+					if (promoted != null) {
+						return promoted.values().iterator();
+					}
+					return new TableIterator<ChainNode>() {
+						@Override
+						ChainNode element(int i) {
+							return (ChainNode) table[(i << 1) + 1];
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return CompactMap.this.size();
+				}
+
+				@Override
+				public void clear() {
+					CompactMap.this.clear();
+				}
+			};
+		}
+		return values;
+	}
+
+	/**
+	 * Fail-fast iterator over array table, supporting removal
+	 */
+	private abstract class TableIterator<T> implements Iterator<T> {
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		abstract T element(int i);
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public T next() {
+			checkModCount();
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return element(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			checkModCount();
+			removeAt(last);
+			expectedModCount = modCount;
+			next = last;
+			last = -1;
+		}
+
+		private void checkModCount() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * Entry, writing through into table
+	 */
+	private final class TableEntry implements Entry<String, ChainNode> {
+		private final int index;
+
+		TableEntry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return (String) table[index << 1];
+		}
+
+		@Override
+		public ChainNode getValue() {
+			return (ChainNode) table[(index << 1) + 1];
+		}
+
+		@Override
+		public ChainNode setValue(ChainNode value) {
+			ChainNode previous = getValue();
+			table[(index << 1) + 1] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> e = (Entry<?, ?>) o;
+			Object value = getValue();
+			return getKey().equals(e.getKey())
+					&& (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
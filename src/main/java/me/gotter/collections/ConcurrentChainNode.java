@@ -0,0 +1,514 @@
+package me.gotter.collections;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * ChainNode, safe for concurrent modification of its maps and lists
+ * <p/>
+ * Map nodes are backed by ConcurrentHashMap, list nodes by lists, locked
+ * per node, so writers of different nodes never contend. Missing children
+ * are created with putIfAbsent, and all children are ConcurrentChainNode -
+ * plain nodes and values are deep copied on insertion. Iteration over list
+ * nodes works on a snapshot, over map nodes it is weakly consistent.
+ * <p/>
+ * Scalar value of a single node is not updated atomically by set() and
+ * typed setters, use compute(), mergeAt() or increment() on the path instead,
+ * they atomically replace the whole node in its parent map. Map nodes
+ * cannot hold null values. Root node must be published safely.
+ */
+public class ConcurrentChainNode extends ChainNode {
+
+	/**
+	 * Merge function, adding numbers - as longs, or as doubles if any is fractional
+	 */
+	public static final BiFunction<ChainNode, Object, Object> SUM = new BiFunction<ChainNode, Object, Object>() {
+		@Override
+		public Object apply(ChainNode current, Object value) {
+			Number number = (Number) value;
+			boolean fractional = current.isDouble() || current.isFloat();
+			if (fractional || value instanceof Double || value instanceof Float) {
+				return (fractional ? current.getDouble() : current.getLong()) + number.doubleValue();
+			}
+			return current.getLong() + number.longValue();
+		}
+	};
+
+	/**
+	 * Current container, valueHash or valueArray, published for lock-free readers
+	 * Containers are only replaced under node lock
+	 */
+	private volatile Object container;
+
+	/**
+	 * Creates new empty node
+	 */
+	public ConcurrentChainNode() {
+	}
+
+	/**
+	 * Creates new node with provided value, ChainNode values are deep copied
+	 *
+	 * @param value data
+	 */
+	public ConcurrentChainNode(Object value) {
+		set(value);
+	}
+
+	/////////////////////////    Containers    /////////////////////////
+
+	@Override
+	protected Map<String, ChainNode> newMap() {
+		return new ConcurrentHashMap<String, ChainNode>();
+	}
+
+	@Override
+	protected List<ChainNode> newList(int capacity) {
+		return Collections.synchronizedList(super.newList(capacity));
+	}
+
+	@Override
+	protected ChainNode newChild(Object value) {
+		if (value instanceof ConcurrentChainNode) {
+			return (ChainNode) value;
+		}
+		return new ConcurrentChainNode(value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private ConcurrentMap<String, ChainNode> map() {
+		Object c = container;
+		if (c instanceof ConcurrentMap) {
+			return (ConcurrentMap<String, ChainNode>) c;
+		}
+		synchronized (this) {
+			if (isNull()) {
+				valueHash = newMap();
+				container = valueHash;
+			} else if (!super.isMap()) {
+				throw new RuntimeException("ChainNode not a map");
+			}
+			return (ConcurrentMap<String, ChainNode>) valueHash;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<ChainNode> list() {
+		Object c = container;
+		if (c instanceof List) {
+			return (List<ChainNode>) c;
+		}
+		synchronized (this) {
+			if (!super.isList()) {
+				if (!super.isEmpty()) {
+					throw new IllegalStateException("Not a list");
+				}
+				clear();
+				valueArray = newList(0);
+				container = valueArray;
+			}
+			return valueArray;
+		}
+	}
+
+	@Override
+	Object container() {
+		return container;
+	}
+
+	private void publish() {
+		container = valueHash != null ? valueHash : valueArray;
+	}
+
+	/////////////////////////    Atomic updates    /////////////////////////
+
+	/**
+	 * Atomically replaces node at provided path with computed value
+	 * Intermediate nodes are created as maps when missing. Function gets
+	 * current node, or MISSING, and returns new value, or null to remove
+	 * the node. It must not modify current node and may be invoked several
+	 * times.
+	 *
+	 * @param path     Dot-separated path of map keys
+	 * @param function Function, computing new value
+	 * @return New node, or MISSING if it was removed
+	 */
+	public ChainNode compute(String path, Function<ChainNode, Object> function) {
+		ChainPath compiled = ChainPath.compile(path);
+		ConcurrentChainNode parent = this;
+		int last = compiled.size() - 1;
+		for (int i = 0; i < last; i++) {
+			parent = (ConcurrentChainNode) parent.get(compiled.segment(i));
+		}
+		return parent.computeChild(compiled.segment(last), function);
+	}
+
+	/**
+	 * Atomically merges value into node at provided path
+	 * When node is missing, value is stored as is, otherwise merge function
+	 * gets current node and provided value, with same contract as of
+	 * compute() function.
+	 *
+	 * @param path   Dot-separated path of map keys
+	 * @param value  Value
+	 * @param merger Merge function
+	 * @return New node, or MISSING if it was removed
+	 */
+	public ChainNode mergeAt(String path, final Object value, final BiFunction<ChainNode, Object, Object> merger) {
+		return compute(path, new Function<ChainNode, Object>() {
+			@Override
+			public Object apply(ChainNode current) {
+				return current.isMissing() ? value : merger.apply(current, value);
+			}
+		});
+	}
+
+	/**
+	 * Atomically adds delta to integer node at provided path
+	 * Missing node is treated as 0. Fractional nodes are not incremented,
+	 * use mergeAt() with SUM function for them.
+	 *
+	 * @param path  Dot-separated path of map keys
+	 * @param delta Delta
+	 * @return New value
+	 * @throws IllegalStateException if node holds fractional value
+	 */
+	public long increment(final String path, final long delta) {
+		return compute(path, new Function<ChainNode, Object>() {
+			@Override
+			public Object apply(ChainNode current) {
+				if (current.isMissing()) {
+					return delta;
+				}
+				if (current.isDouble() || current.isFloat()) {
+					throw new IllegalStateException("Fractional value at " + path + " can not be incremented");
+				}
+				return current.getLong() + delta;
+			}
+		}).getLong();
+	}
+
+	private ChainNode computeChild(String key, Function<ChainNode, Object> function) {
+		beforeWrite();
+		ConcurrentMap<String, ChainNode> map = map();
+		while (true) {
+			ChainNode current = map.get(key);
+			Object value = function.apply(current == null ? MISSING : current);
+			if (value == null) {
+				if (current == null || map.remove(key, current)) {
+					return MISSING;
+				}
+				continue;
+			}
+			ChainNode replacement = newChild(value);
+			if (current == null) {
+				if (map.putIfAbsent(key, replacement) == null) {
+					return replacement;
+				}
+			} else if (map.replace(key, current, replacement)) {
+				return replacement;
+			}
+		}
+	}
+
+	/////////////////////////    Overrides    /////////////////////////
+
+	@Override
+	public boolean isNull() {
+		return container == null && super.isNull();
+	}
+
+	@Override
+	public boolean isIterable() {
+		return container != null;
+	}
+
+	@Override
+	public boolean isList() {
+		return container instanceof List;
+	}
+
+	@Override
+	public boolean isMap() {
+		return container instanceof Map;
+	}
+
+	@Override
+	public synchronized ChainNode set(Object value) {
+		if (value instanceof ChainNode) {
+			copy((ChainNode) value);
+		} else {
+			super.set(value);
+		}
+		publish();
+		return this;
+	}
+
+	private void copy(ChainNode source) {
+		if (source instanceof ArenaChainNode) {
+			// Arena nodes keep no state on heap, their heap copy is taken as is
+			source = ((ArenaChainNode) source).toHeap();
+		}
+		clear();
+		if (source.isMap()) {
+			valueHash = newMap();
+			for (Map.Entry<String, ChainNode> entry : source.entrySet()) {
+				valueHash.put(entry.getKey(), newChild(entry.getValue()));
+			}
+		} else if (source.isList()) {
+			valueArray = newList(source.size());
+			for (ChainNode item : source) {
+				valueArray.add(newChild(item));
+			}
+		} else {
+			valueObject = source.valueObject;
+			primitiveType = source.primitiveType;
+			valuePrimitive = source.valuePrimitive;
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		container = null;
+	}
+
+	@Override
+	protected synchronized void setPrimitive(byte type, long bits) {
+		super.setPrimitive(type, bits);
+	}
+
+	@Override
+	public ChainNode add(Object value) {
+		beforeWrite();
+		list().add(newChild(value));
+		return this;
+	}
+
+	@Override
+	public ChainNode append(ChainNode node) {
+		beforeWrite();
+		list().add(newChild(node));
+		return this;
+	}
+
+	@Override
+	public ChainNode ensureCapacity(int capacity) {
+		list();
+		return this;
+	}
+
+	@Override
+	public ChainNode get(int index) {
+		if (!isList()) {
+			throw new RuntimeException("ChainNode not a list");
+		}
+		return list().get(index);
+	}
+
+	@Override
+	public ChainNode set(int index, Object value) {
+		if (!isList()) {
+			throw new RuntimeException("ChainNode is not list");
+		}
+		beforeWrite();
+		list().set(index, newChild(value));
+		return this;
+	}
+
+	@Override
+	public ChainNode set(String key, Object value) {
+		beforeWrite();
+		map().put(key, newChild(value));
+		return this;
+	}
+
+	@Override
+	public ChainNode get(Object key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		ConcurrentMap<String, ChainNode> map = map();
+		ChainNode child = map.get(key);
+		if (child == null) {
+			beforeWrite();
+			ChainNode created = new ConcurrentChainNode();
+			child = map.putIfAbsent(key.toString(), created);
+			if (child == null) {
+				child = created;
+			}
+		}
+		return child;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public ChainNode peek(Object key) {
+		Object c = container;
+		if (key == null || !(c instanceof Map)) {
+			return MISSING;
+		}
+		ChainNode value = ((Map<?, ChainNode>) c).get(key);
+		return value == null ? MISSING : value;
+	}
+
+	@Override
+	public ChainNode peek(int index) {
+		Object c = container;
+		if (!(c instanceof List)) {
+			return MISSING;
+		}
+		List<?> list = (List<?>) c;
+		synchronized (list) {
+			if (index < 0 || index >= list.size()) {
+				return MISSING;
+			}
+			ChainNode value = (ChainNode) list.get(index);
+			return value == null ? MISSING : value;
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Object c = container;
+		return key != null && c instanceof Map && ((Map<?, ?>) c).containsKey(key);
+	}
+
+	@Override
+	public ChainNode put(String key, ChainNode value) {
+		beforeWrite();
+		return map().put(key, newChild(value));
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends ChainNode> m) {
+		beforeWrite();
+		ConcurrentMap<String, ChainNode> map = map();
+		for (Map.Entry<? extends String, ? extends ChainNode> entry : m.entrySet()) {
+			map.put(entry.getKey(), newChild(entry.getValue()));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public ChainNode remove(Object key) {
+		beforeWrite();
+		Object c = container;
+		if (c instanceof Map) {
+			return ((Map<?, ChainNode>) c).remove(key);
+		}
+		return null;
+	}
+
+	/**
+	 * Lock-free writers may race with hashing, so hash is never cached
+	 */
+	@Override
+	public int hashCode() {
+		return structuralHash();
+	}
+
+	/**
+	 * Hash is never known, stamp is still kept, so that writes drop
+	 * cached hashes of plain ancestors
+	 */
+	@Override
+	boolean isHashKnown(long stamp) {
+		return false;
+	}
+
+	/**
+	 * Map may be modified concurrently, so it is never replaced
+	 */
+	@Override
+	void internMapKeys(ChainNodeKeyPool keys) {
+	}
+
+	/**
+	 * Lists are read over snapshot, taken under their lock
+	 */
+	@Override
+	Iterator<ChainNode> readElements() {
+		return iterator();
+	}
+
+	@Override
+	public int size() {
+		Object c = container;
+		if (c instanceof Map) {
+			return ((Map<?, ?>) c).size();
+		}
+		if (c instanceof List) {
+			return ((List<?>) c).size();
+		}
+		return super.size();
+	}
+
+	@Override
+	public Set<String> keySet() {
+		Object c = container;
+		if (c == null && isNull()) {
+			return new HashSet<String>();
+		}
+		map();
+		return ChainNodeViews.keys(this);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Collection<ChainNode> values() {
+		Object c = container;
+		if (c instanceof List) {
+			return snapshot((List<ChainNode>) c);
+		}
+		if (c instanceof Map) {
+			return ChainNodeViews.values(this);
+		}
+		return new HashSet<ChainNode>();
+	}
+
+	@Override
+	public Set<Entry<String, ChainNode>> entrySet() {
+		map();
+		return ChainNodeViews.entries(this);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<ChainNode> iterator() {
+		Object c = container;
+		if (c instanceof List) {
+			return snapshot((List<ChainNode>) c).iterator();
+		}
+		if (c instanceof Map) {
+			return ChainNodeViews.iterator(this);
+		}
+		throw new RuntimeException("Not iterable");
+	}
+
+	/**
+	 * Lists are split over snapshot, maps use weakly consistent
+	 * spliterator of ConcurrentHashMap
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Spliterator<ChainNode> spliterator() {
+		Object c = container;
+		if (c instanceof List) {
+			return ChainNodeSpliterators.list(snapshot((List<ChainNode>) c));
+		}
+		if (c instanceof Map) {
+			return ((Map<String, ChainNode>) c).values().spliterator();
+		}
+		return Spliterators.emptySpliterator();
+	}
+
+	private static List<ChainNode> snapshot(List<ChainNode> list) {
+		synchronized (list) {
+			return new ArrayList<ChainNode>(list);
+		}
+	}
+}
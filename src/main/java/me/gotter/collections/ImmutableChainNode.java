@@ -0,0 +1,481 @@
+package me.gotter.collections;
+
+import java.util.*;
+
+/**
+ * ChainNode, rejecting any modification
+ * <p/>
+ * Lookups by missing keys return ChainNode.MISSING instead of creating
+ * new nodes. Frozen trees keep children in read-optimized arrays and cache
+ * hash codes, so once safely published (final or volatile field, concurrent
+ * collection, thread start) they can be read by any amount of threads
+ * without locking. Non-primitive scalars are shared with source as is.
+ */
+class ImmutableChainNode extends ChainNode {
+
+	/**
+	 * Structural hash code, computed once, 0 until computed
+	 * Racy writes are harmless, as every thread computes same value
+	 */
+	private int hash;
+
+	ImmutableChainNode() {
+	}
+
+	/**
+	 * Creates immutable copy of provided scalar node
+	 *
+	 * @param source Scalar node to copy
+	 */
+	ImmutableChainNode(ChainNode source) {
+		this.valueObject = source.valueObject;
+		this.primitiveType = source.primitiveType;
+		this.valuePrimitive = source.valuePrimitive;
+		this.hash = structuralHash();
+	}
+
+	/**
+	 * Creates node around already immutable container
+	 *
+	 * @param map  Immutable map or null
+	 * @param list Immutable list or null
+	 */
+	ImmutableChainNode(Map<String, ChainNode> map, List<ChainNode> list) {
+		this.valueHash = map;
+		this.valueArray = list;
+		this.hash = ownHash();
+	}
+
+	/**
+	 * Returns deeply immutable copy of provided node
+	 * Tree is copied bottom-up by walker, without recursion, frozen
+	 * subtrees are taken as is
+	 *
+	 * @param root Node to copy
+	 * @return Frozen node
+	 */
+	static ChainNode copyOf(ChainNode root) {
+		FreezeVisitor visitor = new FreezeVisitor();
+		ChainNodeWalker.walk(root, visitor);
+		return visitor.result;
+	}
+
+	/**
+	 * Collects frozen children of open containers, container is built,
+	 * when it is left
+	 */
+	private static final class FreezeVisitor extends ChainNodeWalker.Visitor {
+		private String[][] keys = new String[16][];
+		private ChainNode[][] values = new ChainNode[16][];
+		private int[] sizes = new int[16];
+		private int depth;
+		ChainNode result;
+
+		@Override
+		public void child(String key, int index) {
+			int level = depth - 1;
+			int size = sizes[level];
+			if (size == values[level].length) {
+				// Containers, modified meanwhile, may grow
+				values[level] = Arrays.copyOf(values[level], size * 2);
+				if (keys[level] != null) {
+					keys[level] = Arrays.copyOf(keys[level], size * 2);
+				}
+			}
+			if (key != null) {
+				keys[level][size] = key;
+			}
+		}
+
+		@Override
+		public boolean enterMap(ChainNode node) {
+			return enter(node, true);
+		}
+
+		@Override
+		public void leaveMap(ChainNode node) {
+			depth--;
+			add(new ImmutableChainNode(new FrozenMap(keys[depth], values[depth], sizes[depth]), null));
+			keys[depth] = null;
+			values[depth] = null;
+		}
+
+		@Override
+		public boolean enterList(ChainNode node) {
+			return enter(node, false);
+		}
+
+		@Override
+		public void leaveList(ChainNode node) {
+			depth--;
+			ChainNode[] items = values[depth];
+			int size = sizes[depth];
+			add(new ImmutableChainNode(null, new FrozenList(size == items.length ? items : Arrays.copyOf(items, size))));
+			values[depth] = null;
+		}
+
+		@Override
+		public void scalar(ChainNode node) {
+			if (node == null || node.isFrozen()) {
+				add(node);
+			} else if (node instanceof ArenaChainNode) {
+				add(new ImmutableChainNode(((ArenaChainNode) node).toHeap()));
+			} else {
+				add(new ImmutableChainNode(node));
+			}
+		}
+
+		private boolean enter(ChainNode node, boolean map) {
+			if (node.isFrozen()) {
+				add(node);
+				return false;
+			}
+			if (depth == sizes.length) {
+				keys = Arrays.copyOf(keys, depth * 2);
+				values = Arrays.copyOf(values, depth * 2);
+				sizes = Arrays.copyOf(sizes, depth * 2);
+			}
+			int capacity = Math.max(node.size(), 1);
+			keys[depth] = map ? new String[capacity] : null;
+			values[depth] = new ChainNode[capacity];
+			sizes[depth] = 0;
+			depth++;
+			return true;
+		}
+
+		private void add(ChainNode value) {
+			if (depth == 0) {
+				result = value;
+				return;
+			}
+			values[depth - 1][sizes[depth - 1]++] = value;
+		}
+	}
+
+	/**
+	 * @return True if container is immutable and keeps its own hash code
+	 */
+	static boolean keepsHash(Map<String, ChainNode> map, List<ChainNode> list) {
+		return map instanceof FrozenMap || map instanceof PersistentMap || list instanceof FrozenList;
+	}
+
+	/**
+	 * @return Hash code, kept by container, or computed over the subtree
+	 */
+	private int ownHash() {
+		if (keepsHash(valueHash, valueArray)) {
+			return valueHash != null ? valueHash.hashCode() : valueArray.hashCode();
+		}
+		return structuralHash();
+	}
+
+	@Override
+	protected void beforeWrite() {
+		throw new UnsupportedOperationException("ChainNode is immutable");
+	}
+
+	@Override
+	public boolean isFrozen() {
+		return true;
+	}
+
+	@Override
+	public ChainNode freeze() {
+		return this;
+	}
+
+	@Override
+	public ChainNode get(Object key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		return peek(key);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		if (isNull()) {
+			return Collections.emptySet();
+		}
+		return super.keySet();
+	}
+
+	@Override
+	public Collection<ChainNode> values() {
+		if (isNull()) {
+			return Collections.emptySet();
+		}
+		return super.values();
+	}
+
+	@Override
+	public Set<Entry<String, ChainNode>> entrySet() {
+		if (isNull()) {
+			return Collections.emptySet();
+		}
+		return super.entrySet();
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = ownHash();
+			hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	boolean isHashKnown(long stamp) {
+		return hash != 0;
+	}
+
+	@Override
+	int knownHash() {
+		return hash;
+	}
+
+	@Override
+	void cacheHash(HashCache cache) {
+		if (isIterable()) {
+			this.hash = cache.hash;
+		}
+	}
+
+	/**
+	 * Frozen maps are never replaced
+	 */
+	@Override
+	void internMapKeys(ChainNodeKeyPool keys) {
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof ImmutableChainNode) {
+			int other = ((ImmutableChainNode) o).hash;
+			if (hash != 0 && other != 0 && hash != other) {
+				return false;
+			}
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * Immutable map, keeping entries in insertion order in arrays
+	 * Maps above CompactMap.THRESHOLD keys get open addressing index
+	 */
+	static final class FrozenMap extends AbstractMap<String, ChainNode> {
+		private final String[] keys;
+		private final ChainNode[] values;
+
+		/**
+		 * Open addressing table, holding entry position + 1, or null for small maps
+		 */
+		private final int[] index;
+
+		private final int hash;
+
+		/**
+		 * @param keys   Keys, array is taken as is if holds exactly size keys
+		 * @param values Frozen values
+		 * @param size   Amount of entries
+		 */
+		FrozenMap(String[] keys, ChainNode[] values, int size) {
+			this.keys = keys.length == size ? keys : Arrays.copyOf(keys, size);
+			this.values = values.length == size ? values : Arrays.copyOf(values, size);
+			int i;
+			int h = 0;
+			for (i = 0; i < size; i++) {
+				h += keys[i].hashCode() ^ (values[i] == null ? 0 : values[i].hashCode());
+			}
+			hash = h;
+
+			if (size <= CompactMap.THRESHOLD) {
+				index = null;
+			} else {
+				int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+				index = new int[capacity];
+				for (i = 0; i < size; i++) {
+					int slot = spread(keys[i].hashCode()) & (capacity - 1);
+					while (index[slot] != 0) {
+						slot = (slot + 1) & (capacity - 1);
+					}
+					index[slot] = i + 1;
+				}
+			}
+		}
+
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+
+		private int indexOf(Object key) {
+			if (key == null) {
+				return -1;
+			}
+			if (index == null) {
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == key || keys[i].equals(key)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			int mask = index.length - 1;
+			int slot = spread(key.hashCode()) & mask;
+			while (index[slot] != 0) {
+				int i = index[slot] - 1;
+				if (keys[i] == key || keys[i].equals(key)) {
+					return i;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
+
+		@Override
+		public ChainNode get(Object key) {
+			int i = indexOf(key);
+			return i < 0 ? null : values[i];
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public Set<Entry<String, ChainNode>> entrySet() {
+			return new AbstractSet<Entry<String, ChainNode>>() {
+				@Override
+				public Iterator<Entry<String, ChainNode>> iterator() {
+					return new ArrayIterator<Entry<String, ChainNode>>(keys.length) {
+						@Override
+						Entry<String, ChainNode> element(int i) {
+							return new SimpleImmutableEntry<String, ChainNode>(keys[i], values[i]);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return new AbstractSet<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					return new ArrayIterator<String>(keys.length) {
+						@Override
+						String element(int i) {
+							return keys[i];
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return containsKey(o);
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+
+		@Override
+		public Collection<ChainNode> values() {
+			return Collections.unmodifiableList(Arrays.asList(values));
+		}
+	}
+
+	/**
+	 * Immutable list over array
+	 */
+	static final class FrozenList extends AbstractList<ChainNode> implements RandomAccess {
+		private final ChainNode[] items;
+		private final int hash;
+
+		FrozenList(ChainNode[] items) {
+			this.items = items;
+			this.hash = Arrays.hashCode(items);
+		}
+
+		@Override
+		public ChainNode get(int index) {
+			return items[index];
+		}
+
+		@Override
+		public int size() {
+			return items.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public Iterator<ChainNode> iterator() {
+			return new ArrayIterator<ChainNode>(items.length) {
+				@Override
+				ChainNode element(int i) {
+					return items[i];
+				}
+			};
+		}
+	}
+
+	/**
+	 * Read-only iterator over array positions
+	 */
+	abstract static class ArrayIterator<T> implements Iterator<T> {
+		private final int size;
+		private int next = 0;
+
+		ArrayIterator(int size) {
+			this.size = size;
+		}
+
+		abstract T element(int i);
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public T next() {
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			return element(next++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("ChainNode is immutable");
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package me.gotter.collections;
+
+import me.gotter.collections.util.ChainNodeJsonParser;
+
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Lazy ChainNode materialization over raw UTF-8 JSON bytes
+ * <p/>
+ * Map and list nodes get containers, that remember only byte range of their
+ * JSON. Container is indexed on first access - keys and scalar children are
+ * decoded, nested maps and lists become lazy nodes themselves, so untouched
+ * subtrees cost only their byte span.
+ * <p/>
+ * Nothing is validated until touched, so malformed input surfaces as
+ * IllegalArgumentException from the first accessor reaching it.
+ * Materialization happens on read, so lazy trees must not be shared
+ * between threads without external locking.
+ */
+final class LazyJson {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private LazyJson() {
+	}
+
+	/**
+	 * Creates lazy node over provided JSON range
+	 *
+	 * @param json   Source bytes, must not be modified afterwards
+	 * @param offset Start of JSON
+	 * @param length Length of JSON
+	 * @return Node
+	 */
+	static ChainNode parse(byte[] json, int offset, int length) {
+		int end = offset + length;
+		int start = skipWhitespace(json, offset, end);
+		int valueEnd = skipValue(json, start, end);
+		if (skipWhitespace(json, valueEnd, end) != end) {
+			throw error("Unexpected trailing character", valueEnd);
+		}
+		return node(json, start, valueEnd);
+	}
+
+	/**
+	 * Builds node for single value, containers stay unindexed
+	 */
+	static ChainNode node(byte[] json, int start, int end) {
+		ChainNode node = new ChainNode();
+		switch (json[start]) {
+			case '{':
+				node.valueHash = new LazyMap(json, start, end);
+				return node;
+			case '[':
+				node.valueArray = new LazyList(json, start, end);
+				return node;
+			case '"':
+				node.valueObject = string(json, start, end);
+				return node;
+			default:
+				return scalar(json, start, end);
+		}
+	}
+
+	/////////////////////////    Scanner    /////////////////////////
+
+	/**
+	 * Decodes string token, provided with its quotes
+	 */
+	static String string(byte[] json, int start, int end) {
+		for (int i = start + 1; i < end - 1; i++) {
+			byte c = json[i];
+			if (c == '\\') {
+				return unescape(json, start + 1, end - 1);
+			}
+			if (c >= 0 && c < 0x20) {
+				throw error("Unescaped control character in string", i);
+			}
+		}
+		return new String(json, start + 1, end - start - 2, UTF8);
+	}
+
+	/**
+	 * Decodes string contents with escapes, runs between escapes are
+	 * decoded as UTF-8 at once
+	 */
+	private static String unescape(byte[] json, int from, int to) {
+		StringBuilder sb = new StringBuilder(to - from);
+		int run = from;
+		int pos = from;
+		while (pos < to) {
+			if (json[pos] != '\\') {
+				if (json[pos] >= 0 && json[pos] < 0x20) {
+					throw error("Unescaped control character in string", pos);
+				}
+				pos++;
+				continue;
+			}
+			if (pos > run) {
+				sb.append(new String(json, run, pos - run, UTF8));
+			}
+			if (pos + 1 >= to) {
+				throw error("Invalid escape sequence", pos);
+			}
+			byte c = json[pos + 1];
+			pos += 2;
+			switch (c) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append((char) c);
+					break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (pos + 4 > to) {
+						throw error("Invalid unicode escape", pos);
+					}
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(json[pos++], 16);
+						if (digit < 0) {
+							throw error("Invalid unicode escape", pos - 1);
+						}
+						code = (code << 4) | digit;
+					}
+					sb.append((char) code);
+					break;
+				default:
+					throw error("Invalid escape sequence", pos - 2);
+			}
+			run = pos;
+		}
+		if (run < to) {
+			sb.append(new String(json, run, to - run, UTF8));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes literal or number token directly from bytes
+	 */
+	static ChainNode scalar(byte[] json, int start, int end) {
+		switch (json[start]) {
+			case 't':
+				if (literal(json, start, end, "true")) {
+					return new ChainNode().setBool(true);
+				}
+				break;
+			case 'f':
+				if (literal(json, start, end, "false")) {
+					return new ChainNode().setBool(false);
+				}
+				break;
+			case 'n':
+				if (literal(json, start, end, "null")) {
+					return new ChainNode();
+				}
+				break;
+			default:
+				return ChainNodeJsonParser.parseNumber(json, start, end);
+		}
+		throw error("Unexpected literal", start);
+	}
+
+	private static boolean literal(byte[] json, int start, int end, String literal) {
+		if (end - start != literal.length()) {
+			return false;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (json[start + i] != literal.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int skipWhitespace(byte[] json, int pos, int end) {
+		while (pos < end) {
+			byte c = json[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Finds end of value, starting at provided position
+	 * Only token boundaries are checked, contents are not validated
+	 *
+	 * @return Position right after value
+	 */
+	static int skipValue(byte[] json, int pos, int end) {
+		if (pos >= end) {
+			throw error("Unexpected end of input", pos);
+		}
+		byte c = json[pos];
+		if (c == '"') {
+			return skipString(json, pos, end);
+		}
+		if (c == '{' || c == '[') {
+			int depth = 0;
+			while (pos < end) {
+				c = json[pos];
+				if (c == '"') {
+					pos = skipString(json, pos, end);
+					continue;
+				}
+				if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					if (--depth == 0) {
+						return pos + 1;
+					}
+				}
+				pos++;
+			}
+			throw error("Unterminated container", pos);
+		}
+
+		// Literal or number
+		int start = pos;
+		while (pos < end) {
+			c = json[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				break;
+			}
+			pos++;
+		}
+		if (pos == start) {
+			throw error("Unexpected character '" + (char) c + "'", pos);
+		}
+		return pos;
+	}
+
+	private static int skipString(byte[] json, int pos, int end) {
+		pos++;
+		while (pos < end) {
+			byte c = json[pos];
+			if (c == '\\') {
+				pos += 2;
+			} else if (c == '"') {
+				return pos + 1;
+			} else {
+				pos++;
+			}
+		}
+		throw error("Unterminated string", pos);
+	}
+
+	private static int expect(byte[] json, int pos, int end, char expected) {
+		pos = skipWhitespace(json, pos, end);
+		if (pos >= end || json[pos] != expected) {
+			throw error("Expected '" + expected + "'", pos);
+		}
+		return pos + 1;
+	}
+
+	static IllegalArgumentException error(String message, int position) {
+		return new IllegalArgumentException(message + " at position " + position);
+	}
+
+	/////////////////////////    Containers    /////////////////////////
+
+	/**
+	 * Map, indexed on first access
+	 */
+	static final class LazyMap extends AbstractMap<String, ChainNode> {
+
+		private byte[] json;
+		private final int start;
+		private final int end;
+
+		private Map<String, ChainNode> delegate;
+
+		LazyMap(byte[] json, int start, int end) {
+			this.json = json;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return True if members were not indexed yet
+		 */
+		boolean isPending() {
+			return delegate == null;
+		}
+
+		Map<String, ChainNode> map() {
+			if (delegate == null) {
+				delegate = index();
+				// Releasing source, all children hold own reference
+				json = null;
+			}
+			return delegate;
+		}
+
+		private Map<String, ChainNode> index() {
+			Map<String, ChainNode> map = new CompactMap();
+			int pos = skipWhitespace(json, start + 1, end);
+			if (json[pos] == '}') {
+				return map;
+			}
+			while (true) {
+				pos = skipWhitespace(json, pos, end);
+				if (pos >= end || json[pos] != '"') {
+					throw error("Expected object key", pos);
+				}
+				int keyEnd = skipString(json, pos, end);
+				String key = string(json, pos, keyEnd);
+
+				int valueStart = skipWhitespace(json, expect(json, keyEnd, end, ':'), end);
+				int valueEnd = skipValue(json, valueStart, end);
+				map.put(key, node(json, valueStart, valueEnd));
+
+				pos = skipWhitespace(json, valueEnd, end);
+				if (pos < end && json[pos] == '}') {
+					return map;
+				}
+				pos = expect(json, pos, end, ',');
+			}
+		}
+
+		@Override
+		public int size() {
+			return map().size();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return map().containsKey(key);
+		}
+
+		@Override
+		public ChainNode get(Object key) {
+			return map().get(key);
+		}
+
+		@Override
+		public ChainNode put(String key, ChainNode value) {
+			return map().put(key, value);
+		}
+
+		@Override
+		public ChainNode remove(Object key) {
+			return map().remove(key);
+		}
+
+		@Override
+		public void clear() {
+			map().clear();
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return map().keySet();
+		}
+
+		@Override
+		public Collection<ChainNode> values() {
+			return map().values();
+		}
+
+		@Override
+		public Set<Entry<String, ChainNode>> entrySet() {
+			return map().entrySet();
+		}
+	}
+
+	/**
+	 * List, indexed on first access
+	 */
+	static final class LazyList extends AbstractList<ChainNode> {
+
+		private byte[] json;
+		private final int start;
+		private final int end;
+
+		private List<ChainNode> delegate;
+
+		LazyList(byte[] json, int start, int end) {
+			this.json = json;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return True if elements were not indexed yet
+		 */
+		boolean isPending() {
+			return delegate == null;
+		}
+
+		List<ChainNode> list() {
+			if (delegate == null) {
+				delegate = index();
+				json = null;
+			}
+			return delegate;
+		}
+
+		private List<ChainNode> index() {
+			List<ChainNode> list = new ArrayList<ChainNode>();
+			int pos = skipWhitespace(json, start + 1, end);
+			if (json[pos] == ']') {
+				return list;
+			}
+			while (true) {
+				int valueStart = skipWhitespace(json, pos, end);
+				int valueEnd = skipValue(json, valueStart, end);
+				list.add(node(json, valueStart, valueEnd));
+
+				pos = skipWhitespace(json, valueEnd, end);
+				if (pos < end && json[pos] == ']') {
+					return list;
+				}
+				pos = expect(json, pos, end, ',');
+			}
+		}
+
+		@Override
+		public int size() {
+			return list().size();
+		}
+
+		@Override
+		public ChainNode get(int index) {
+			return list().get(index);
+		}
+
+		@Override
+		public ChainNode set(int index, ChainNode element) {
+			return list().set(index, element);
+		}
+
+		@Override
+		public void add(int index, ChainNode element) {
+			list().add(index, element);
+		}
+
+		@Override
+		public ChainNode remove(int index) {
+			return list().remove(index);
+		}
+
+		@Override
+		public void clear() {
+			list().clear();
+		}
+
+		@Override
+		public Iterator<ChainNode> iterator() {
+			return list().iterator();
+		}
+	}
+}
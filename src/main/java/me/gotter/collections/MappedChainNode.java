@@ -0,0 +1,521 @@
+package me.gotter.collections;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Read-only ChainNode, navigating indexed binary layout in place
+ * <p/>
+ * Layout is written by write() and opened by map() through FileChannel.map,
+ * so data stays in page cache instead of heap and opening file costs
+ * nothing but reading its header. Values are addressed by absolute long
+ * offsets, so files may exceed 2 GB, and mapped in 1 GB segments.
+ * <p/>
+ * File starts with magic "CNIX" and version byte and ends with offset of
+ * root value. Each value starts with tag byte. Ints and floats follow as
+ * 4 big-endian bytes, longs and doubles as 8, strings as int length and
+ * UTF-8 bytes. Lists hold int amount of elements and table of element
+ * offsets, maps hold int amount of entries and table of key and value
+ * offsets, sorted by UTF-8 bytes of keys, so get() is binary search.
+ * Children are written before parents, repeated keys are written once.
+ * <p/>
+ * Every lookup creates small node wrapper over mapped bytes, nothing is
+ * cached on heap. Maps iterate in key order.
+ */
+final class MappedChainNode extends ImmutableChainNode {
+
+	static final int NULL = 0;
+	static final int FALSE = 1;
+	static final int TRUE = 2;
+	static final int INT = 3;
+	static final int LONG = 4;
+	static final int FLOAT = 5;
+	static final int DOUBLE = 6;
+	static final int STRING = 7;
+	static final int LIST = 8;
+	static final int MAP = 9;
+
+	private static final byte[] MAGIC = {'C', 'N', 'I', 'X', 1};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Segment size is 1 << SEGMENT_SHIFT bytes
+	 */
+	static final int SEGMENT_SHIFT = 30;
+
+	/**
+	 * Amount of distinct keys, written once and then referenced
+	 */
+	private static final int KEY_POOL_SIZE = 65536;
+
+	private static final ChainNode NULL_NODE = new ImmutableChainNode(new ChainNode());
+	private static final ChainNode TRUE_NODE = new ImmutableChainNode(new ChainNode().setBool(true));
+	private static final ChainNode FALSE_NODE = new ImmutableChainNode(new ChainNode().setBool(false));
+
+	private MappedChainNode(Map<String, ChainNode> map, List<ChainNode> list) {
+		// Hash is computed lazily, walking mapped subtree only on demand
+		this.valueHash = map;
+		this.valueArray = list;
+	}
+
+	/**
+	 * Maps file, written by write()
+	 *
+	 * @param file File
+	 * @return Root node
+	 * @throws IOException on read failure
+	 */
+	static ChainNode map(File file) throws IOException {
+		return map(file, SEGMENT_SHIFT);
+	}
+
+	static ChainNode map(File file, int segmentShift) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// Mapping stays valid after channel is closed
+			return root(Data.map(raf.getChannel(), segmentShift));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Wraps layout, stored from position to limit of provided buffer
+	 *
+	 * @param buffer Buffer, must not be modified afterwards
+	 * @return Root node
+	 */
+	static ChainNode wrap(ByteBuffer buffer) {
+		ByteBuffer slice = buffer.slice();
+		slice.order(ByteOrder.BIG_ENDIAN);
+		return root(new Data(new ByteBuffer[]{slice}, 31, slice.limit()));
+	}
+
+	private static ChainNode root(Data data) {
+		if (data.size < MAGIC.length + 8) {
+			throw new IllegalArgumentException("Not an indexed ChainNode layout");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (data.byteAt(i) != MAGIC[i]) {
+				throw new IllegalArgumentException("Not an indexed ChainNode layout");
+			}
+		}
+		return node(data, data.longAt(data.size - 8));
+	}
+
+	private static ChainNode node(Data data, long offset) {
+		if (offset < MAGIC.length || offset >= data.size) {
+			throw new IllegalArgumentException("Invalid offset " + offset);
+		}
+		int tag = data.byteAt(offset);
+		switch (tag) {
+			case NULL:
+				return NULL_NODE;
+			case FALSE:
+				return FALSE_NODE;
+			case TRUE:
+				return TRUE_NODE;
+			case INT:
+				return new ImmutableChainNode(new ChainNode().setInt(data.intAt(offset + 1)));
+			case LONG:
+				return new ImmutableChainNode(new ChainNode().setLong(data.longAt(offset + 1)));
+			case FLOAT:
+				return new ImmutableChainNode(new ChainNode().setFloat(Float.intBitsToFloat(data.intAt(offset + 1))));
+			case DOUBLE:
+				return new ImmutableChainNode(new ChainNode().setDouble(Double.longBitsToDouble(data.longAt(offset + 1))));
+			case STRING:
+				return new ImmutableChainNode(new ChainNode(data.string(offset)));
+			case LIST:
+				return new MappedChainNode(null, new MappedList(data, offset + 5, data.intAt(offset + 1)));
+			case MAP:
+				return new MappedChainNode(new MappedMap(data, offset + 5, data.intAt(offset + 1)), null);
+			default:
+				throw new IllegalArgumentException("Unknown tag " + tag + " at position " + offset);
+		}
+	}
+
+	/////////////////////////    Writer    /////////////////////////
+
+	/**
+	 * Writes node in indexed layout
+	 * Stream is flushed, but not closed
+	 *
+	 * @param node Node to write
+	 * @param out  Target stream
+	 * @throws IOException on stream failure
+	 */
+	static void write(ChainNode node, OutputStream out) throws IOException {
+		Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(out, 65536)));
+		writer.out.write(MAGIC);
+		writer.position = MAGIC.length;
+		long root = writer.write(node);
+		writer.out.writeLong(root);
+		writer.out.flush();
+	}
+
+	private static final class Writer {
+		private final DataOutputStream out;
+		private final Map<String, Long> keys = new HashMap<String, Long>();
+		private long position;
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Writes node after its children
+		 *
+		 * @return Offset of node
+		 */
+		long write(ChainNode node) throws IOException {
+			if (node == null || node.isNull()) {
+				return tag(NULL);
+			}
+			if (node.isString()) {
+				return string(node.getString().getBytes(UTF8));
+			}
+			if (node.isBool()) {
+				return tag(node.isTrue() ? TRUE : FALSE);
+			}
+			if (node.isInt()) {
+				long offset = tag(INT);
+				out.writeInt(node.getInt());
+				position += 4;
+				return offset;
+			}
+			if (node.isLong()) {
+				long offset = tag(LONG);
+				out.writeLong(node.getLong());
+				position += 8;
+				return offset;
+			}
+			if (node.isFloat()) {
+				long offset = tag(FLOAT);
+				out.writeInt(Float.floatToIntBits(node.getFloat()));
+				position += 4;
+				return offset;
+			}
+			if (node.isDouble()) {
+				long offset = tag(DOUBLE);
+				out.writeLong(Double.doubleToLongBits(node.getDouble()));
+				position += 8;
+				return offset;
+			}
+			if (node.isMap()) {
+				return map(node);
+			}
+			if (node.isList()) {
+				long[] items = new long[node.size()];
+				int i = 0;
+				for (ChainNode item : node) {
+					items[i++] = write(item);
+				}
+				long offset = tag(LIST);
+				out.writeInt(items.length);
+				position += 4;
+				for (long item : items) {
+					out.writeLong(item);
+				}
+				position += 8L * items.length;
+				return offset;
+			}
+			throw new RuntimeException("Unsupported node type");
+		}
+
+		private long map(ChainNode node) throws IOException {
+			int size = node.size();
+			final byte[][] keyBytes = new byte[size][];
+			String[] names = new String[size];
+			ChainNode[] values = new ChainNode[size];
+			Integer[] order = new Integer[size];
+			int i = 0;
+			for (Map.Entry<String, ChainNode> entry : node.entrySet()) {
+				names[i] = entry.getKey();
+				keyBytes[i] = entry.getKey().getBytes(UTF8);
+				values[i] = entry.getValue();
+				order[i] = i;
+				i++;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return compareBytes(keyBytes[a], keyBytes[b]);
+				}
+			});
+
+			long[] table = new long[size * 2];
+			for (i = 0; i < size; i++) {
+				int n = order[i];
+				table[i * 2] = key(names[n], keyBytes[n]);
+				table[i * 2 + 1] = write(values[n]);
+			}
+			long offset = tag(MAP);
+			out.writeInt(size);
+			position += 4;
+			for (long entry : table) {
+				out.writeLong(entry);
+			}
+			position += 8L * table.length;
+			return offset;
+		}
+
+		private long key(String key, byte[] bytes) throws IOException {
+			Long known = keys.get(key);
+			if (known != null) {
+				return known;
+			}
+			long offset = string(bytes);
+			if (keys.size() < KEY_POOL_SIZE) {
+				keys.put(key, offset);
+			}
+			return offset;
+		}
+
+		private long string(byte[] bytes) throws IOException {
+			long offset = tag(STRING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			position += 4 + bytes.length;
+			return offset;
+		}
+
+		private long tag(int tag) throws IOException {
+			out.writeByte(tag);
+			return position++;
+		}
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/////////////////////////    Mapped data    /////////////////////////
+
+	/**
+	 * Bytes of mapped file, split into segments
+	 * Only absolute reads are used, so segments are shared between threads
+	 */
+	static final class Data {
+		private final ByteBuffer[] segments;
+		private final int shift;
+		private final long mask;
+		final long size;
+
+		Data(ByteBuffer[] segments, int shift, long size) {
+			this.segments = segments;
+			this.shift = shift;
+			this.mask = (1L << shift) - 1;
+			this.size = size;
+		}
+
+		static Data map(FileChannel channel, int shift) throws IOException {
+			long size = channel.size();
+			long segment = 1L << shift;
+			ByteBuffer[] segments = new ByteBuffer[(int) ((size + segment - 1) >>> shift)];
+			for (int i = 0; i < segments.length; i++) {
+				long from = (long) i << shift;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(segment, size - from));
+			}
+			return new Data(segments, shift, size);
+		}
+
+		int byteAt(long position) {
+			return segments[(int) (position >>> shift)].get((int) (position & mask)) & 0xFF;
+		}
+
+		int intAt(long position) {
+			ByteBuffer segment = segments[(int) (position >>> shift)];
+			int i = (int) (position & mask);
+			if (i + 4 <= segment.limit()) {
+				return segment.getInt(i);
+			}
+			// Value crosses segment boundary
+			return (int) bytesAt(position, 4);
+		}
+
+		long longAt(long position) {
+			ByteBuffer segment = segments[(int) (position >>> shift)];
+			int i = (int) (position & mask);
+			if (i + 8 <= segment.limit()) {
+				return segment.getLong(i);
+			}
+			return bytesAt(position, 8);
+		}
+
+		private long bytesAt(long position, int count) {
+			long value = 0;
+			for (int i = 0; i < count; i++) {
+				value = (value << 8) | byteAt(position + i);
+			}
+			return value;
+		}
+
+		/**
+		 * @return Bytes of string value at provided offset
+		 */
+		byte[] bytes(long offset) {
+			byte[] bytes = new byte[intAt(offset + 1)];
+			long position = offset + 5;
+			int copied = 0;
+			while (copied < bytes.length) {
+				ByteBuffer segment = segments[(int) (position >>> shift)].duplicate();
+				int i = (int) (position & mask);
+				int chunk = Math.min(bytes.length - copied, segment.limit() - i);
+				segment.position(i);
+				segment.get(bytes, copied, chunk);
+				copied += chunk;
+				position += chunk;
+			}
+			return bytes;
+		}
+
+		String string(long offset) {
+			return new String(bytes(offset), UTF8);
+		}
+
+		/**
+		 * Compares string value at provided offset with UTF-8 bytes
+		 */
+		int compare(long offset, byte[] key) {
+			int length = intAt(offset + 1);
+			int common = Math.min(length, key.length);
+			long position = offset + 5;
+			for (int i = 0; i < common; i++) {
+				int diff = byteAt(position + i) - (key[i] & 0xFF);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return length - key.length;
+		}
+	}
+
+	/////////////////////////    Containers    /////////////////////////
+
+	/**
+	 * Map over sorted entry table
+	 */
+	static final class MappedMap extends AbstractMap<String, ChainNode> {
+		private final Data data;
+		private final long table;
+		private final int size;
+
+		MappedMap(Data data, long table, int size) {
+			this.data = data;
+			this.table = table;
+			this.size = size;
+		}
+
+		private int indexOf(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			byte[] bytes = ((String) key).getBytes(UTF8);
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int diff = data.compare(data.longAt(table + mid * 16L), bytes);
+				if (diff < 0) {
+					low = mid + 1;
+				} else if (diff > 0) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		private ChainNode value(int i) {
+			return node(data, data.longAt(table + i * 16L + 8));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexOf(key) >= 0;
+		}
+
+		@Override
+		public ChainNode get(Object key) {
+			int i = indexOf(key);
+			return i < 0 ? null : value(i);
+		}
+
+		@Override
+		public Set<Entry<String, ChainNode>> entrySet() {
+			return new AbstractSet<Entry<String, ChainNode>>() {
+				@Override
+				public Iterator<Entry<String, ChainNode>> iterator() {
+					return new ArrayIterator<Entry<String, ChainNode>>(size) {
+						@Override
+						Entry<String, ChainNode> element(int i) {
+							String key = data.string(data.longAt(table + i * 16L));
+							return new SimpleImmutableEntry<String, ChainNode>(key, value(i));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * List over element offset table
+	 */
+	static final class MappedList extends AbstractList<ChainNode> implements RandomAccess {
+		private final Data data;
+		private final long table;
+		private final int size;
+
+		MappedList(Data data, long table, int size) {
+			this.data = data;
+			this.table = table;
+			this.size = size;
+		}
+
+		@Override
+		public ChainNode get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return node(data, data.longAt(table + index * 8L));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<ChainNode> iterator() {
+			return new ArrayIterator<ChainNode>(size) {
+				@Override
+				ChainNode element(int i) {
+					return get(i);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package me.gotter.collections;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable ChainNode with cheap versioned updates
+ * <p/>
+ * Map nodes are hash array mapped tries, with(path, value) and
+ * without(path) return new root, copying only nodes along the path -
+ * O(depth * log32 n) - and sharing all other subtrees with previous version,
+ * so many versions of a large document cost only their differences.
+ * List nodes on the path are copied as a whole.
+ * <p/>
+ * As any frozen node, persistent nodes are safe to share between threads.
+ */
+public final class PersistentChainNode extends ImmutableChainNode {
+
+	/**
+	 * Empty map node
+	 */
+	public static final PersistentChainNode EMPTY = new PersistentChainNode(PersistentMap.EMPTY, null);
+
+	private static final PersistentChainNode NULL = new PersistentChainNode(new ChainNode());
+
+	private PersistentChainNode(Map<String, ChainNode> map, List<ChainNode> list) {
+		super(map, list);
+	}
+
+	private PersistentChainNode(ChainNode scalar) {
+		super(scalar);
+	}
+
+	/**
+	 * Converts value into persistent node
+	 * Persistent nodes are returned as is, other ones are deep copied
+	 *
+	 * @param value Value or ChainNode
+	 * @return Persistent node
+	 */
+	public static PersistentChainNode of(Object value) {
+		if (value instanceof PersistentChainNode) {
+			return (PersistentChainNode) value;
+		}
+		ChainNode node = value instanceof ChainNode ? (ChainNode) value : new ChainNode(value);
+		if (node.isNull()) {
+			return NULL;
+		}
+		if (node.isMap()) {
+			PersistentMap map = PersistentMap.EMPTY;
+			for (Map.Entry<String, ChainNode> entry : node.entrySet()) {
+				map = map.assoc(entry.getKey(), of(entry.getValue()));
+			}
+			return new PersistentChainNode(map, null);
+		}
+		if (node.isList()) {
+			ChainNode[] items = new ChainNode[node.size()];
+			int i = 0;
+			for (ChainNode item : node) {
+				items[i++] = of(item);
+			}
+			return new PersistentChainNode(null, new FrozenList(items));
+		}
+		if (node instanceof ArenaChainNode) {
+			node = ((ArenaChainNode) node).toHeap();
+		}
+		return new PersistentChainNode(node);
+	}
+
+	/**
+	 * Returns new version with value at provided path set
+	 * Missing intermediate nodes are created as maps
+	 *
+	 * @param path  Dot-separated path
+	 * @param value Value
+	 * @return New root
+	 */
+	public PersistentChainNode with(String path, Object value) {
+		return with(ChainPath.compile(path), value);
+	}
+
+	/**
+	 * Returns new version with value at provided path set
+	 *
+	 * @param path  Path
+	 * @param value Value
+	 * @return New root
+	 */
+	public PersistentChainNode with(ChainPath path, Object value) {
+		return with(path, 0, of(value));
+	}
+
+	/**
+	 * Returns new version without node at provided path
+	 *
+	 * @param path Dot-separated path
+	 * @return New root, or this node if path is absent
+	 */
+	public PersistentChainNode without(String path) {
+		return without(ChainPath.compile(path));
+	}
+
+	/**
+	 * Returns new version without node at provided path
+	 *
+	 * @param path Path
+	 * @return New root, or this node if path is absent
+	 */
+	public PersistentChainNode without(ChainPath path) {
+		return without(path, 0);
+	}
+
+	private PersistentChainNode with(ChainPath path, int offset, PersistentChainNode value) {
+		if (offset == path.size()) {
+			return value;
+		}
+		String segment = path.segment(offset);
+
+		if (isList()) {
+			int index = ChainPath.parseIndex(segment);
+			if (index < 0 || index > valueArray.size()) {
+				throw new RuntimeException("Invalid list index " + segment);
+			}
+			int size = valueArray.size();
+			ChainNode[] items = valueArray.toArray(new ChainNode[index == size ? size + 1 : size]);
+			PersistentChainNode child = index == size ? NULL : (PersistentChainNode) items[index];
+			items[index] = child.with(path, offset + 1, value);
+			return new PersistentChainNode(null, new FrozenList(items));
+		}
+
+		PersistentMap map;
+		if (isMap()) {
+			map = (PersistentMap) valueHash;
+		} else if (isNull()) {
+			map = PersistentMap.EMPTY;
+		} else {
+			throw new RuntimeException("ChainNode not a map");
+		}
+		ChainNode current = map.get(segment);
+		PersistentChainNode child = current == null ? NULL : (PersistentChainNode) current;
+		PersistentChainNode updated = child.with(path, offset + 1, value);
+		if (updated == current) {
+			return this;
+		}
+		return new PersistentChainNode(map.assoc(segment, updated), null);
+	}
+
+	private PersistentChainNode without(ChainPath path, int offset) {
+		String segment = path.segment(offset);
+		boolean last = offset == path.size() - 1;
+
+		if (isList()) {
+			int index = ChainPath.parseIndex(segment);
+			if (index < 0 || index >= valueArray.size()) {
+				return this;
+			}
+			PersistentChainNode child = (PersistentChainNode) valueArray.get(index);
+			ChainNode[] items;
+			if (last) {
+				items = new ChainNode[valueArray.size() - 1];
+				int i = 0;
+				for (int j = 0; j < valueArray.size(); j++) {
+					if (j != index) {
+						items[i++] = valueArray.get(j);
+					}
+				}
+			} else {
+				PersistentChainNode updated = child.without(path, offset + 1);
+				if (updated == child) {
+					return this;
+				}
+				items = valueArray.toArray(new ChainNode[valueArray.size()]);
+				items[index] = updated;
+			}
+			return new PersistentChainNode(null, new FrozenList(items));
+		}
+
+		if (!isMap()) {
+			return this;
+		}
+		PersistentMap map = (PersistentMap) valueHash;
+		if (last) {
+			PersistentMap updated = map.dissoc(segment);
+			return updated == map ? this : new PersistentChainNode(updated, null);
+		}
+		PersistentChainNode child = (PersistentChainNode) map.get(segment);
+		if (child == null) {
+			return this;
+		}
+		PersistentChainNode updated = child.without(path, offset + 1);
+		return updated == child ? this : new PersistentChainNode(map.assoc(segment, updated), null);
+	}
+}
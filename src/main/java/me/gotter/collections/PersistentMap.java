@@ -0,0 +1,389 @@
+package me.gotter.collections;
+
+import java.util.*;
+
+/**
+ * Immutable hash array mapped trie, used by PersistentChainNode
+ * <p/>
+ * assoc() and dissoc() return new maps, copying only nodes on the way
+ * from root to changed entry, O(log32 n), everything else is shared with
+ * previous version. Size and hash code are maintained incrementally.
+ * Iteration order follows key hashes.
+ */
+final class PersistentMap extends AbstractMap<String, ChainNode> {
+
+	static final PersistentMap EMPTY = new PersistentMap(null, 0, 0);
+
+	private static final Object NOT_FOUND = new Object();
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private final Node root;
+	private final int size;
+	private final int hash;
+
+	private PersistentMap(Node root, int size, int hash) {
+		this.root = root;
+		this.size = size;
+		this.hash = hash;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static int entryHash(Object key, Object value) {
+		return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+	}
+
+	/**
+	 * Returns map with provided entry added or replaced
+	 *
+	 * @param key   Key
+	 * @param value Value
+	 * @return New map, or this map if value is already there
+	 */
+	PersistentMap assoc(String key, ChainNode value) {
+		if (key == null) {
+			throw new NullPointerException("ChainNode keys cannot be null");
+		}
+		Change change = new Change();
+		Node base = root == null ? BitmapNode.EMPTY : root;
+		Node updated = base.assoc(0, spread(key.hashCode()), key, value, change);
+		if (updated == root) {
+			return this;
+		}
+		if (change.added) {
+			return new PersistentMap(updated, size + 1, hash + entryHash(key, value));
+		}
+		return new PersistentMap(updated, size, hash - entryHash(key, change.previous) + entryHash(key, value));
+	}
+
+	/**
+	 * Returns map without provided key
+	 *
+	 * @param key Key
+	 * @return New map, or this map if key is absent
+	 */
+	PersistentMap dissoc(Object key) {
+		if (root == null || key == null) {
+			return this;
+		}
+		Change change = new Change();
+		Node updated = root.dissoc(0, spread(key.hashCode()), key, change);
+		if (updated == root) {
+			return this;
+		}
+		return new PersistentMap(updated, size - 1, hash - entryHash(key, change.previous));
+	}
+
+	@Override
+	public ChainNode get(Object key) {
+		if (root == null || key == null) {
+			return null;
+		}
+		return (ChainNode) root.find(0, spread(key.hashCode()), key, null);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (root == null || key == null) {
+			return false;
+		}
+		return root.find(0, spread(key.hashCode()), key, NOT_FOUND) != NOT_FOUND;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public Set<Entry<String, ChainNode>> entrySet() {
+		return new AbstractSet<Entry<String, ChainNode>>() {
+			@Override
+			public Iterator<Entry<String, ChainNode>> iterator() {
+				return new TrieIterator(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/////////////////////////    Trie    /////////////////////////
+
+	/**
+	 * Outcome of structural change
+	 */
+	private static final class Change {
+		boolean added;
+		Object previous;
+	}
+
+	private abstract static class Node {
+		/**
+		 * Entries, stored as key/value pairs, key is null for child node slots
+		 */
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		abstract Object find(int shift, int hash, Object key, Object notFound);
+
+		abstract Node assoc(int shift, int hash, String key, Object value, Change change);
+
+		abstract Node dissoc(int shift, int hash, Object key, Change change);
+	}
+
+	private static final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key, Object notFound) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return notFound;
+			}
+			int i = index(bit) << 1;
+			Object k = array[i];
+			if (k == null) {
+				return ((Node) array[i + 1]).find(shift + BITS, hash, key, notFound);
+			}
+			return k == key || k.equals(key) ? array[i + 1] : notFound;
+		}
+
+		@Override
+		Node assoc(int shift, int hash, String key, Object value, Change change) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int i = index(bit) << 1;
+			if ((bitmap & bit) == 0) {
+				Object[] copy = new Object[array.length + 2];
+				System.arraycopy(array, 0, copy, 0, i);
+				copy[i] = key;
+				copy[i + 1] = value;
+				System.arraycopy(array, i, copy, i + 2, array.length - i);
+				change.added = true;
+				return new BitmapNode(bitmap | bit, copy);
+			}
+
+			Object k = array[i];
+			Object v = array[i + 1];
+			if (k == null) {
+				Node child = (Node) v;
+				Node updated = child.assoc(shift + BITS, hash, key, value, change);
+				return updated == child ? this : replace(i + 1, updated);
+			}
+			if (k == key || k.equals(key)) {
+				if (v == value) {
+					return this;
+				}
+				change.previous = v;
+				return replace(i + 1, value);
+			}
+
+			change.added = true;
+			Node child = split(shift + BITS, (String) k, v, hash, key, value);
+			Object[] copy = array.clone();
+			copy[i] = null;
+			copy[i + 1] = child;
+			return new BitmapNode(bitmap, copy);
+		}
+
+		private BitmapNode replace(int i, Object value) {
+			Object[] copy = array.clone();
+			copy[i] = value;
+			return new BitmapNode(bitmap, copy);
+		}
+
+		private static Node split(int shift, String k1, Object v1, int h2, String k2, Object v2) {
+			int h1 = spread(k1.hashCode());
+			if (h1 == h2) {
+				return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+			}
+			Change ignored = new Change();
+			return EMPTY.assoc(shift, h1, k1, v1, ignored).assoc(shift, h2, k2, v2, ignored);
+		}
+
+		@Override
+		Node dissoc(int shift, int hash, Object key, Change change) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int i = index(bit) << 1;
+			Object k = array[i];
+			if (k == null) {
+				Node child = (Node) array[i + 1];
+				Node updated = child.dissoc(shift + BITS, hash, key, change);
+				if (updated == child) {
+					return this;
+				}
+				if (updated != null) {
+					return replace(i + 1, updated);
+				}
+			} else if (k == key || k.equals(key)) {
+				change.previous = array[i + 1];
+			} else {
+				return this;
+			}
+
+			if (bitmap == bit) {
+				return null;
+			}
+			Object[] copy = new Object[array.length - 2];
+			System.arraycopy(array, 0, copy, 0, i);
+			System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+			return new BitmapNode(bitmap & ~bit, copy);
+		}
+	}
+
+	/**
+	 * Keys with equal spread hash
+	 */
+	private static final class CollisionNode extends Node {
+		final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (array[i] == key || array[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key, Object notFound) {
+			int i = indexOf(key);
+			return i < 0 ? notFound : array[i + 1];
+		}
+
+		@Override
+		Node assoc(int shift, int hash, String key, Object value, Change change) {
+			if (hash != this.hash) {
+				// Nesting collision node under bitmap node, splitting by hashes
+				Node nested = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{null, this});
+				return nested.assoc(shift, hash, key, value, change);
+			}
+			int i = indexOf(key);
+			if (i >= 0) {
+				if (array[i + 1] == value) {
+					return this;
+				}
+				change.previous = array[i + 1];
+				Object[] copy = array.clone();
+				copy[i + 1] = value;
+				return new CollisionNode(hash, copy);
+			}
+			change.added = true;
+			Object[] copy = Arrays.copyOf(array, array.length + 2);
+			copy[array.length] = key;
+			copy[array.length + 1] = value;
+			return new CollisionNode(hash, copy);
+		}
+
+		@Override
+		Node dissoc(int shift, int hash, Object key, Change change) {
+			int i = indexOf(key);
+			if (i < 0) {
+				return this;
+			}
+			change.previous = array[i + 1];
+			if (array.length == 2) {
+				return null;
+			}
+			Object[] copy = new Object[array.length - 2];
+			System.arraycopy(array, 0, copy, 0, i);
+			System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+			return new CollisionNode(hash, copy);
+		}
+	}
+
+	/**
+	 * Depth-first iterator with explicit stack
+	 */
+	private static final class TrieIterator implements Iterator<Entry<String, ChainNode>> {
+		private final Node[] nodes = new Node[8];
+		private final int[] positions = new int[8];
+		private int depth = -1;
+		private Entry<String, ChainNode> next;
+
+		TrieIterator(Node root) {
+			if (root != null) {
+				depth = 0;
+				nodes[0] = root;
+			}
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Node node = nodes[depth];
+				int i = positions[depth];
+				if (i >= node.array.length) {
+					positions[depth] = 0;
+					nodes[depth--] = null;
+					continue;
+				}
+				positions[depth] = i + 2;
+				Object k = node.array[i];
+				if (k == null) {
+					depth++;
+					nodes[depth] = (Node) node.array[i + 1];
+					positions[depth] = 0;
+				} else {
+					next = new SimpleImmutableEntry<String, ChainNode>((String) k, (ChainNode) node.array[i + 1]);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<String, ChainNode> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry<String, ChainNode> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("ChainNode is immutable");
+		}
+	}
+}
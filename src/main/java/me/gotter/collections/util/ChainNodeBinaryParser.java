@@ -0,0 +1,325 @@
+package me.gotter.collections.util;
+
+import me.gotter.collections.ChainNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static me.gotter.collections.util.ChainNodeBinarySerializer.*;
+
+/**
+ * Reader of binary encoding, produced by ChainNodeBinarySerializer
+ * <p/>
+ * Strings are decoded straight from input buffer, numbers are stored
+ * as primitives without parsing text.
+ */
+public class ChainNodeBinaryParser
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Source stream or direct buffer, both null when whole input is already in buffer
+     */
+    private final InputStream in;
+    private final ByteBuffer source;
+
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * Amount of bytes, consumed before current buffer, used for error positions
+     */
+    private long consumed;
+
+    private ChainNodeBinaryParser(InputStream in, ByteBuffer source, byte[] buf, int pos, int limit)
+    {
+        this.in = in;
+        this.source = source;
+        this.buf = buf;
+        this.pos = pos;
+        this.limit = limit;
+        this.consumed = -pos;
+    }
+
+    /**
+     * Parses binary encoded node
+     *
+     * @param data Source
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] data)
+    {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * Parses binary encoded node, stored in range of provided array
+     *
+     * @param data   Source
+     * @param offset Start of node
+     * @param length Length of node in bytes
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] data, int offset, int length)
+    {
+        ChainNodeBinaryParser parser = new ChainNodeBinaryParser(null, null, data, offset, offset + length);
+        try {
+            ChainNode node = parser.parseValue();
+            if (parser.pos != parser.limit) {
+                throw parser.error("Unexpected trailing bytes");
+            }
+            return node;
+        } catch (IOException e) {
+            // No stream, no IO
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses binary encoded node, starting at buffer position, and advances
+     * position past it, so buffer may hold several nodes one by one
+     *
+     * @param buffer Source
+     * @return Parsed node
+     */
+    public static ChainNode parse(ByteBuffer buffer)
+    {
+        ChainNodeBinaryParser parser;
+        if (buffer.hasArray()) {
+            int base = buffer.arrayOffset();
+            parser = new ChainNodeBinaryParser(null, null, buffer.array(), base + buffer.position(), base + buffer.limit());
+        } else {
+            parser = new ChainNodeBinaryParser(null, buffer, new byte[BUFFER_SIZE], 0, 0);
+        }
+        ChainNode node;
+        try {
+            node = parser.parseValue();
+        } catch (IOException e) {
+            // No stream, no IO
+            throw new RuntimeException(e);
+        }
+        if (buffer.hasArray()) {
+            buffer.position(parser.pos - buffer.arrayOffset());
+        } else {
+            // Returning bytes, copied but not consumed
+            buffer.position(buffer.position() - (parser.limit - parser.pos));
+        }
+        return node;
+    }
+
+    /**
+     * Parses binary encoded node, read from provided stream
+     * Stream is read by blocks, so bytes following the node may be consumed.
+     * Stream is not closed
+     *
+     * @param in Source
+     * @return Parsed node
+     * @throws IOException on read failure
+     */
+    public static ChainNode parse(InputStream in) throws IOException
+    {
+        return new ChainNodeBinaryParser(in, null, new byte[BUFFER_SIZE], 0, 0).parseValue();
+    }
+
+    /////////////////////////    Values    /////////////////////////
+
+    /**
+     * Parses value with explicit stack of open containers, so depth is
+     * not limited. Containers are attached to parents once created and
+     * filled afterwards.
+     */
+    private ChainNode parseValue() throws IOException
+    {
+        ChainNode root = null;
+        ChainNode[] containers = new ChainNode[16];
+        int[] remaining = new int[16];
+        boolean[] maps = new boolean[16];
+        int depth = 0;
+        do {
+            String key = depth > 0 && maps[depth - 1] ? readString() : null;
+            int tag = readByte();
+            int size = 0;
+            ChainNode value;
+            switch (tag) {
+                case NULL:
+                    value = new ChainNode();
+                    break;
+                case FALSE:
+                    value = new ChainNode().setBool(false);
+                    break;
+                case TRUE:
+                    value = new ChainNode().setBool(true);
+                    break;
+                case INT:
+                    value = new ChainNode().setInt((int) unzigzag(readVarLong()));
+                    break;
+                case LONG:
+                    value = new ChainNode().setLong(unzigzag(readVarLong()));
+                    break;
+                case FLOAT:
+                    value = new ChainNode().setFloat(Float.intBitsToFloat((int) readFixed(4)));
+                    break;
+                case DOUBLE:
+                    value = new ChainNode().setDouble(Double.longBitsToDouble(readFixed(8)));
+                    break;
+                case STRING:
+                    value = new ChainNode(readString());
+                    break;
+                case LIST:
+                    size = readLength();
+                    value = new ChainNode();
+                    // Size comes from input, so it is not trusted for large reservations
+                    value.ensureCapacity(Math.min(size, BUFFER_SIZE));
+                    break;
+                case MAP:
+                    size = readLength();
+                    value = new ChainNode();
+                    // Empty map is still a map
+                    value.putAll(Collections.<String, ChainNode>emptyMap());
+                    break;
+                default:
+                    throw error("Unknown tag " + tag);
+            }
+
+            if (depth == 0) {
+                root = value;
+            } else {
+                ChainNode parent = containers[depth - 1];
+                if (key != null) {
+                    parent.put(key, value);
+                } else {
+                    parent.append(value);
+                }
+                remaining[depth - 1]--;
+            }
+            if (size > 0) {
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    remaining = Arrays.copyOf(remaining, depth * 2);
+                    maps = Arrays.copyOf(maps, depth * 2);
+                }
+                containers[depth] = value;
+                remaining[depth] = size;
+                maps[depth] = tag == MAP;
+                depth++;
+            }
+            while (depth > 0 && remaining[depth - 1] == 0) {
+                containers[--depth] = null;
+            }
+        } while (depth > 0);
+        return root;
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /////////////////////////    Input    /////////////////////////
+
+    private int readByte() throws IOException
+    {
+        if (pos == limit && !fill()) {
+            throw error("Unexpected end of input");
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private long readVarLong() throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw error("Malformed varint");
+    }
+
+    private int readLength() throws IOException
+    {
+        long length = readVarLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw error("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private long readFixed(int bytes) throws IOException
+    {
+        long bits = 0;
+        for (int i = 0; i < bytes; i++) {
+            bits = (bits << 8) | readByte();
+        }
+        return bits;
+    }
+
+    private String readString() throws IOException
+    {
+        int length = readLength();
+
+        // Fast path - string fully inside buffer
+        if (limit - pos >= length) {
+            String s = new String(buf, pos, length, UTF8);
+            pos += length;
+            return s;
+        }
+        // Length comes from input, so it is checked against remaining input first
+        if (in == null && (source == null || length - (limit - pos) > source.remaining())) {
+            throw error("Unexpected end of input");
+        }
+
+        // Slow path - collecting string over buffer refills, stream input
+        // grows array as bytes arrive instead of trusting length
+        byte[] bytes = new byte[in == null ? length : Math.min(length, BUFFER_SIZE)];
+        int copied = 0;
+        while (copied < length) {
+            if (pos == limit && !fill()) {
+                throw error("Unexpected end of input");
+            }
+            if (copied == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, (long) bytes.length * 2));
+            }
+            int chunk = Math.min(limit - pos, bytes.length - copied);
+            System.arraycopy(buf, pos, bytes, copied, chunk);
+            pos += chunk;
+            copied += chunk;
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private boolean fill() throws IOException
+    {
+        int read;
+        if (in != null) {
+            read = in.read(buf, 0, buf.length);
+        } else if (source != null) {
+            read = Math.min(source.remaining(), buf.length);
+            source.get(buf, 0, read);
+        } else {
+            return false;
+        }
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException(message + " at position " + (consumed + pos));
+    }
+}
@@ -0,0 +1,335 @@
+package me.gotter.collections.util;
+
+import me.gotter.collections.ChainNode;
+import me.gotter.collections.ChainNodeWalker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of ChainNode trees
+ * <p/>
+ * Every value starts with one byte tag. Ints and longs follow as zigzag
+ * varints, floats and doubles as big-endian IEEE 754 bits, strings as
+ * varint byte length and UTF-8 bytes. Lists hold varint amount of
+ * elements and elements, maps hold varint amount of entries and entries
+ * as key string without tag followed by value. Decoded by
+ * ChainNodeBinaryParser into tree, equal to the source one. Trees are
+ * read in place, without copying clones, and depth is not limited.
+ */
+public class ChainNodeBinarySerializer
+{
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int INT = 3;
+    static final int LONG = 4;
+    static final int FLOAT = 5;
+    static final int DOUBLE = 6;
+    static final int STRING = 7;
+    static final int LIST = 8;
+    static final int MAP = 9;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Target stream, null when whole output is collected in buffer
+     */
+    private final OutputStream out;
+
+    private byte[] buf;
+    private int pos;
+
+    private ChainNodeBinarySerializer(OutputStream out, byte[] buf)
+    {
+        this.out = out;
+        this.buf = buf;
+    }
+
+    /**
+     * Encodes node into new array
+     *
+     * @param node Node to serialize
+     * @return Binary representation
+     */
+    public static byte[] serialize(ChainNode node)
+    {
+        ChainNodeBinarySerializer serializer = new ChainNodeBinarySerializer(null, new byte[256]);
+        try {
+            serializer.write(node);
+        } catch (IOException e) {
+            // No stream, no IO
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(serializer.buf, serializer.pos);
+    }
+
+    /**
+     * Writes binary representation of node into provided stream
+     * Stream is flushed, but not closed
+     *
+     * @param node Node to serialize
+     * @param out  Target stream
+     * @throws IOException on stream failure
+     */
+    public static void serialize(ChainNode node, OutputStream out) throws IOException
+    {
+        ChainNodeBinarySerializer serializer = new ChainNodeBinarySerializer(out, new byte[BUFFER_SIZE]);
+        serializer.write(node);
+        serializer.flush();
+        out.flush();
+    }
+
+    /**
+     * Writes binary representation of node into provided buffer,
+     * starting at its position, and advances position past it
+     *
+     * @param node   Node to serialize
+     * @param target Target buffer
+     * @throws java.nio.BufferOverflowException if buffer has not enough room
+     */
+    public static void serialize(ChainNode node, final ByteBuffer target)
+    {
+        OutputStream out = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                target.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                target.put(b, off, len);
+            }
+        };
+        try {
+            serialize(node, out);
+        } catch (IOException e) {
+            // Buffer never throws IOException
+            throw new RuntimeException(e);
+        }
+    }
+
+    /////////////////////////    Values    /////////////////////////
+
+    /**
+     * Writes tree, walked with explicit stack, so depth is not limited
+     */
+    private void write(ChainNode node) throws IOException
+    {
+        try {
+            ChainNodeWalker.walk(node, new BinaryVisitor());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes tags, sizes and keys, failures of stream are rethrown unchecked
+     */
+    private final class BinaryVisitor extends ChainNodeWalker.Visitor
+    {
+        @Override
+        public void child(String key, int index)
+        {
+            if (key != null) {
+                try {
+                    writeString(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public boolean enterMap(ChainNode node)
+        {
+            return enter(MAP, node);
+        }
+
+        @Override
+        public boolean enterList(ChainNode node)
+        {
+            return enter(LIST, node);
+        }
+
+        @Override
+        public void scalar(ChainNode node)
+        {
+            try {
+                writeScalar(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private boolean enter(int tag, ChainNode node)
+        {
+            try {
+                writeByte(tag);
+                writeVarLong(node.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+    }
+
+    private void writeScalar(ChainNode node) throws IOException
+    {
+        if (node == null || node.isNull()) {
+            writeByte(NULL);
+            return;
+        }
+        if (node.isString()) {
+            writeByte(STRING);
+            writeString(node.toString());
+            return;
+        }
+        if (node.isBool()) {
+            writeByte(node.isTrue() ? TRUE : FALSE);
+            return;
+        }
+        if (node.isInt()) {
+            writeByte(INT);
+            writeVarLong(zigzag(node.getInt()));
+            return;
+        }
+        if (node.isLong()) {
+            writeByte(LONG);
+            writeVarLong(zigzag(node.getLong()));
+            return;
+        }
+        if (node.isFloat()) {
+            writeByte(FLOAT);
+            writeFixed(Float.floatToIntBits(node.getFloat()), 4);
+            return;
+        }
+        if (node.isDouble()) {
+            writeByte(DOUBLE);
+            writeFixed(Double.doubleToLongBits(node.getDouble()), 8);
+            return;
+        }
+
+        // Unknown type
+        throw new RuntimeException("Unsupported node type");
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /////////////////////////    Output    /////////////////////////
+
+    private void writeByte(int b) throws IOException
+    {
+        if (pos == buf.length) {
+            ensure(1);
+        }
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeVarLong(long value) throws IOException
+    {
+        if (pos > buf.length - 10) {
+            ensure(10);
+        }
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private void writeFixed(long bits, int bytes) throws IOException
+    {
+        if (pos > buf.length - bytes) {
+            ensure(bytes);
+        }
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (bits >>> shift);
+        }
+    }
+
+    /**
+     * Writes varint UTF-8 length and UTF-8 bytes, encoding chars directly
+     * into buffer. Unpaired surrogates are written as '?', same as
+     * String.getBytes() does.
+     */
+    private void writeString(String s) throws IOException
+    {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (!Character.isHighSurrogate(c) && !Character.isLowSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        writeVarLong(bytes);
+        ensure(Math.min(bytes, BUFFER_SIZE));
+
+        for (int i = 0; i < length; i++) {
+            if (pos > buf.length - 4) {
+                ensure(4);
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (code >> 18));
+                buf[pos++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (code & 0x3F));
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Makes room for provided amount of bytes, flushing buffer into stream,
+     * or growing it when there is no stream
+     */
+    private void ensure(int bytes) throws IOException
+    {
+        if (pos + bytes <= buf.length) {
+            return;
+        }
+        if (out != null) {
+            flush();
+            if (bytes <= buf.length) {
+                return;
+            }
+        }
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+    }
+
+    private void flush() throws IOException
+    {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
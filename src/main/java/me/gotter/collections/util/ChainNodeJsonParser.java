@@ -0,0 +1,701 @@
+package me.gotter.collections.util;
+
+import me.gotter.collections.ChainNode;
+import me.gotter.collections.ChainNodeKeyPool;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Single-pass JSON parser, building ChainNode tree directly
+ * <p/>
+ * Integral numbers are stored as Integer, or Long when they do not fit into
+ * int, fractional numbers as Double, so that serializer output parses back
+ * into equal tree. Nesting depth is limited by heap only.
+ */
+public class ChainNodeJsonParser
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Size of per-parser cache of recent keys, power of two
+     */
+    static final int KEY_CACHE_SIZE = 256;
+
+    /**
+     * Source reader, null when whole input is already in buffer
+     */
+    private final Reader reader;
+
+    private char[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * Amount of chars, consumed before current buffer, used for error positions
+     */
+    private long consumed;
+
+    /**
+     * Scratch buffer for strings with escapes or spanning buffer refills
+     */
+    private final StringBuilder scratch = new StringBuilder();
+
+    /**
+     * Pool of map keys, or null if keys are not pooled
+     */
+    private final ChainNodeKeyPool keys;
+
+    /**
+     * Recently pooled keys by hash, so that repeated keys are neither
+     * allocated nor looked up in pool
+     */
+    private String[] keyCache;
+
+    private ChainNodeJsonParser(Reader reader, char[] buf, int limit, ChainNodeKeyPool keys)
+    {
+        this.reader = reader;
+        this.buf = buf;
+        this.limit = limit;
+        this.keys = keys;
+    }
+
+    /**
+     * Parses JSON, read from provided reader
+     * Reader is not closed
+     *
+     * @param reader Source
+     * @return Parsed node
+     * @throws IOException on read failure
+     */
+    public static ChainNode parse(Reader reader) throws IOException
+    {
+        return parse(reader, null);
+    }
+
+    /**
+     * Parses JSON, read from provided reader, pooling map keys
+     * Reader is not closed
+     *
+     * @param reader Source
+     * @param keys   Pool of map keys, null to not pool them
+     * @return Parsed node
+     * @throws IOException on read failure
+     */
+    public static ChainNode parse(Reader reader, ChainNodeKeyPool keys) throws IOException
+    {
+        return new ChainNodeJsonParser(reader, new char[BUFFER_SIZE], 0, keys).parseDocument();
+    }
+
+    /**
+     * Parses JSON string
+     *
+     * @param json Source
+     * @return Parsed node
+     */
+    public static ChainNode parse(CharSequence json)
+    {
+        return parse(json, null);
+    }
+
+    /**
+     * Parses JSON string, pooling map keys
+     *
+     * @param json Source
+     * @param keys Pool of map keys, null to not pool them
+     * @return Parsed node
+     */
+    public static ChainNode parse(CharSequence json, ChainNodeKeyPool keys)
+    {
+        int length = json.length();
+        char[] chars = new char[length];
+        if (json instanceof String) {
+            ((String) json).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = json.charAt(i);
+            }
+        }
+        try {
+            return new ChainNodeJsonParser(null, chars, length, keys).parseDocument();
+        } catch (IOException e) {
+            // No reader, no IO
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON
+     *
+     * @param json Source
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] json)
+    {
+        return parse(json, 0, json.length);
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON, pooling map keys
+     *
+     * @param json Source
+     * @param keys Pool of map keys, null to not pool them
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] json, ChainNodeKeyPool keys)
+    {
+        return parse(json, 0, json.length, keys);
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON, stored in range of provided array
+     *
+     * @param json   Source
+     * @param offset Start of JSON
+     * @param length Length of JSON in bytes
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] json, int offset, int length)
+    {
+        return parse(json, offset, length, null);
+    }
+
+    /**
+     * Parses UTF-8 encoded JSON, stored in range of provided array,
+     * pooling map keys
+     *
+     * @param json   Source
+     * @param offset Start of JSON
+     * @param length Length of JSON in bytes
+     * @param keys   Pool of map keys, null to not pool them
+     * @return Parsed node
+     */
+    public static ChainNode parse(byte[] json, int offset, int length, ChainNodeKeyPool keys)
+    {
+        // Decoding whole input at once, parser then works without reader
+        CharBuffer chars = UTF8.decode(ByteBuffer.wrap(json, offset, length));
+        try {
+            return new ChainNodeJsonParser(null, chars.array(), chars.limit(), keys).parseDocument();
+        } catch (IOException e) {
+            // No reader, no IO
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses JSON, stored in range of provided chars
+     * Error positions are relative to start of the range
+     *
+     * @param json     Source
+     * @param from     Start of JSON
+     * @param to       End of JSON, exclusive
+     * @param keys     Pool of map keys, or null
+     * @param keyCache Cache of recent keys, shared by consecutive parses, or null
+     * @return Parsed node
+     */
+    static ChainNode parse(char[] json, int from, int to, ChainNodeKeyPool keys, String[] keyCache)
+    {
+        ChainNodeJsonParser parser = new ChainNodeJsonParser(null, json, to, keys);
+        parser.keyCache = keyCache;
+        parser.pos = from;
+        parser.consumed = -from;
+        try {
+            return parser.parseDocument();
+        } catch (IOException e) {
+            // No reader, no IO
+            throw new RuntimeException(e);
+        }
+    }
+
+    /////////////////////////    Grammar    /////////////////////////
+
+    private ChainNode parseDocument() throws IOException
+    {
+        ChainNode node = parseValue(skipWhitespace());
+        int c = skipWhitespace();
+        if (c != -1) {
+            throw error("Unexpected trailing character '" + (char) c + "'");
+        }
+        return node;
+    }
+
+    /**
+     * Parses value, starting with provided char
+     * Open maps and lists are kept on explicit stack, so depth of input is
+     * not limited by call stack
+     */
+    private ChainNode parseValue(int c) throws IOException
+    {
+        ChainNode[] containers = new ChainNode[16];
+        // Key of current member for open maps, null for open lists
+        String[] pendingKeys = new String[16];
+        int depth = 0;
+        while (true) {
+            ChainNode value;
+            if (c == '{' || c == '[') {
+                boolean map = c == '{';
+                ChainNode node = new ChainNode();
+                c = skipWhitespace();
+                if (c == (map ? '}' : ']')) {
+                    // Empty container is still a map or a list
+                    if (map) {
+                        node.putAll(Collections.<String, ChainNode>emptyMap());
+                    } else {
+                        node.set(new Object[0]);
+                    }
+                    value = node;
+                } else {
+                    if (depth == containers.length) {
+                        containers = Arrays.copyOf(containers, depth * 2);
+                        pendingKeys = Arrays.copyOf(pendingKeys, depth * 2);
+                    }
+                    containers[depth] = node;
+                    if (map) {
+                        pendingKeys[depth] = parseMemberKey(c);
+                        c = skipWhitespace();
+                    } else {
+                        pendingKeys[depth] = null;
+                    }
+                    depth++;
+                    continue;
+                }
+            } else {
+                value = parseScalar(c);
+            }
+
+            // Adding completed value to open containers, closing completed ones
+            while (true) {
+                if (depth == 0) {
+                    return value;
+                }
+                ChainNode parent = containers[depth - 1];
+                String key = pendingKeys[depth - 1];
+                if (key != null) {
+                    parent.put(key, value);
+                } else {
+                    parent.append(value);
+                }
+                c = skipWhitespace();
+                if (c == ',') {
+                    c = skipWhitespace();
+                    if (key != null) {
+                        pendingKeys[depth - 1] = parseMemberKey(c);
+                        c = skipWhitespace();
+                    }
+                    break;
+                }
+                if (c != (key != null ? '}' : ']')) {
+                    throw error(key != null ? "Expected ',' or '}'" : "Expected ',' or ']'");
+                }
+                containers[--depth] = null;
+                value = parent;
+            }
+        }
+    }
+
+    /**
+     * Reads map key and following colon, provided with first char of key
+     */
+    private String parseMemberKey(int c) throws IOException
+    {
+        if (c != '"') {
+            throw error("Expected object key");
+        }
+        String key = keys == null ? parseString() : parseKey();
+        if (skipWhitespace() != ':') {
+            throw error("Expected ':'");
+        }
+        return key;
+    }
+
+    private ChainNode parseScalar(int c) throws IOException
+    {
+        switch (c) {
+            case '"':
+                return new ChainNode(parseString());
+            case 't':
+                expectLiteral("true");
+                return new ChainNode().setBool(true);
+            case 'f':
+                expectLiteral("false");
+                return new ChainNode().setBool(false);
+            case 'n':
+                expectLiteral("null");
+                return new ChainNode();
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return parseNumber(c);
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Reads string contents, opening quote must be already consumed
+     */
+    private String parseString() throws IOException
+    {
+        // Fast path - string without escapes, fully inside buffer
+        int start = pos;
+        for (int i = start; i < limit; i++) {
+            char c = buf[i];
+            if (c == '"') {
+                pos = i + 1;
+                return new String(buf, start, i - start);
+            }
+            if (c == '\\' || c < 0x20) {
+                break;
+            }
+        }
+
+        // Slow path
+        scratch.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c < 0x20) {
+                // RFC 8259 requires control characters to be escaped
+                throw error("Unescaped control character in string");
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        scratch.append((char) c);
+                        break;
+                    case 'n': scratch.append('\n'); break;
+                    case 'r': scratch.append('\r'); break;
+                    case 't': scratch.append('\t'); break;
+                    case 'b': scratch.append('\b'); break;
+                    case 'f': scratch.append('\f'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        scratch.append((char) code);
+                        break;
+                    default:
+                        throw error("Invalid escape sequence");
+                }
+            } else {
+                scratch.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Reads pooled map key, opening quote must be already consumed
+     */
+    private String parseKey() throws IOException
+    {
+        // Fast path - key without escapes, fully inside buffer, looked up in cache by its chars
+        int start = pos;
+        int h = 0;
+        for (int i = start; i < limit; i++) {
+            char c = buf[i];
+            if (c == '"') {
+                if (keyCache == null) {
+                    keyCache = new String[KEY_CACHE_SIZE];
+                }
+                int slot = (h ^ (h >>> 16)) & (KEY_CACHE_SIZE - 1);
+                String cached = keyCache[slot];
+                pos = i + 1;
+                if (cached != null && matches(cached, start, i)) {
+                    return cached;
+                }
+                String key = keys.intern(new String(buf, start, i - start));
+                keyCache[slot] = key;
+                return key;
+            }
+            if (c == '\\' || c < 0x20) {
+                break;
+            }
+            h = 31 * h + c;
+        }
+        return keys.intern(parseString());
+    }
+
+    private boolean matches(String key, int from, int to)
+    {
+        if (key.length() != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (key.charAt(i - from) != buf[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads number by RFC 8259 grammar - optional minus, integer part
+     * without leading zeros, optional fraction and exponent, both with at
+     * least one digit
+     */
+    private ChainNode parseNumber(int first) throws IOException
+    {
+        boolean negative = first == '-';
+        boolean integral = true;
+
+        scratch.setLength(0);
+        scratch.append((char) first);
+        int c = first;
+        if (negative) {
+            c = peek();
+            if (!isDigit(c)) {
+                throw error("Invalid number");
+            }
+            pos++;
+            scratch.append((char) c);
+        }
+
+        long value = c - '0';
+        int digits = 1;
+        if (c == '0') {
+            if (isDigit(peek())) {
+                throw error("Invalid number, leading zero");
+            }
+        } else {
+            while (isDigit(c = peek())) {
+                pos++;
+                scratch.append((char) c);
+                digits++;
+                value = value * 10 + (c - '0');
+            }
+        }
+
+        if (peek() == '.') {
+            pos++;
+            scratch.append('.');
+            integral = false;
+            if (readDigits() == 0) {
+                throw error("Invalid number, no digits in fraction");
+            }
+        }
+        c = peek();
+        if (c == 'e' || c == 'E') {
+            pos++;
+            scratch.append((char) c);
+            integral = false;
+            c = peek();
+            if (c == '+' || c == '-') {
+                pos++;
+                scratch.append((char) c);
+            }
+            if (readDigits() == 0) {
+                throw error("Invalid number, no digits in exponent");
+            }
+        }
+
+        if (integral && digits < 19) {
+            return integer(negative ? -value : value);
+        }
+        return number(scratch.toString(), integral);
+    }
+
+    /**
+     * Parses number, taking whole provided range of bytes, by the same
+     * grammar as parser does, without decoding range into chars
+     *
+     * @param json Source bytes
+     * @param from Start of number
+     * @param to   End of number, exclusive
+     * @return Node with Integer, Long or Double value
+     * @throws IllegalArgumentException if range is not a single valid number
+     */
+    public static ChainNode parseNumber(byte[] json, int from, int to)
+    {
+        int pos = from;
+        boolean negative = pos < to && json[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos >= to || !isDigit(json[pos])) {
+            throw error("Invalid number", pos);
+        }
+
+        long value = 0;
+        int digits = 0;
+        if (json[pos] == '0') {
+            pos++;
+            digits = 1;
+            if (pos < to && isDigit(json[pos])) {
+                throw error("Invalid number, leading zero", pos);
+            }
+        } else {
+            while (pos < to && isDigit(json[pos])) {
+                value = value * 10 + (json[pos++] - '0');
+                digits++;
+            }
+        }
+
+        boolean integral = true;
+        if (pos < to && json[pos] == '.') {
+            integral = false;
+            int start = ++pos;
+            while (pos < to && isDigit(json[pos])) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Invalid number, no digits in fraction", pos);
+            }
+        }
+        if (pos < to && (json[pos] == 'e' || json[pos] == 'E')) {
+            integral = false;
+            pos++;
+            if (pos < to && (json[pos] == '+' || json[pos] == '-')) {
+                pos++;
+            }
+            int start = pos;
+            while (pos < to && isDigit(json[pos])) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Invalid number, no digits in exponent", pos);
+            }
+        }
+        if (pos != to) {
+            throw error("Invalid number", pos);
+        }
+
+        if (integral && digits < 19) {
+            return integer(negative ? -value : value);
+        }
+        return number(new String(json, from, to - from, ASCII), integral);
+    }
+
+    /**
+     * @return Int node, or long node for values out of int range
+     */
+    private static ChainNode integer(long value)
+    {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return new ChainNode().setInt((int) value);
+        }
+        return new ChainNode().setLong(value);
+    }
+
+    /**
+     * Converts text of number, already checked by grammar, integral
+     * numbers out of long range become double
+     */
+    private static ChainNode number(String text, boolean integral)
+    {
+        if (integral) {
+            try {
+                return new ChainNode().setLong(Long.parseLong(text));
+            } catch (NumberFormatException ignored) {
+                // Falls back to double
+            }
+        }
+        return new ChainNode().setDouble(Double.parseDouble(text));
+    }
+
+    /**
+     * Appends run of digits to scratch
+     *
+     * @return Amount of digits
+     */
+    private int readDigits() throws IOException
+    {
+        int count = 0;
+        int c;
+        while (isDigit(c = peek())) {
+            pos++;
+            scratch.append((char) c);
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isDigit(int c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private void expectLiteral(String literal) throws IOException
+    {
+        // First char is already consumed
+        for (int i = 1; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw error("Expected '" + literal + "'");
+            }
+        }
+    }
+
+    /////////////////////////    Input    /////////////////////////
+
+    private int skipWhitespace() throws IOException
+    {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException
+    {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException
+    {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException
+    {
+        if (reader == null) {
+            return false;
+        }
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int read = reader.read(buf, 0, buf.length);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return error(message, consumed + pos);
+    }
+
+    private static IllegalArgumentException error(String message, long position)
+    {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
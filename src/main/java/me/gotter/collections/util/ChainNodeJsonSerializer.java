@@ -1,61 +1,441 @@
 package me.gotter.collections.util;
 
 import me.gotter.collections.ChainNode;
+import me.gotter.collections.ChainNodeWalker;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 public class ChainNodeJsonSerializer
 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Maps and lists of at least this size are serialized in parallel,
+     * in chunks of this amount of elements
+     */
+    public static final int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * Shared pool, created on first parallel serialization
+     */
+    private static final class Pool
+    {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+
     public static String serialize(ChainNode node)
     {
-        // Scalars
-        if (node.isNull()) {
-            return "null";
+        StringBuilder sb = new StringBuilder();
+        try {
+            serialize(node, sb);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes JSON representation of node into provided stream using UTF-8
+     * Stream is flushed, but not closed
+     *
+     * @param node Node to serialize
+     * @param out  Target stream
+     * @throws IOException on stream failure
+     */
+    public static void serialize(ChainNode node, OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+        serialize(node, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes JSON representation of node directly into provided sink,
+     * token by token, without building intermediate strings
+     * Tree is walked with explicit stack, so depth is not limited
+     *
+     * @param node Node to serialize
+     * @param out  Target sink
+     * @throws IOException on sink failure
+     */
+    public static void serialize(ChainNode node, Appendable out) throws IOException
+    {
+        try {
+            ChainNodeWalker.walk(node, new JsonVisitor(out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeScalar(ChainNode node, Appendable out) throws IOException
+    {
+        if (node == null || node.isNull()) {
+            out.append("null");
+            return;
         }
         if (node.isString()) {
-            return "\"" + wrap(node.toString()) + "\"";
+            out.append('"');
+            wrap(node.toString(), out);
+            out.append('"');
+            return;
         }
         if (node.isBool()) {
-            return node.isTrue() ? "true" : "false";
+            out.append(node.isTrue() ? "true" : "false");
+            return;
         }
         if (node.isFloat() || node.isInt() || node.isLong() || node.isDouble()) {
-            return "" + node.get();
+            out.append(node.getString());
+            return;
         }
 
-        // Map
-        if (node.isMap()) {
-            StringBuilder sb = new StringBuilder();
-            sb.append('{');
-            int i=0;
-            for (String key :node.keySet()) {
-                if (i++ > 0) {
-                    sb.append(',');
+        // Unknown type
+        throw new RuntimeException("Unsupported node type");
+    }
+
+    /**
+     * Writes tokens into sink, failures of sink are rethrown unchecked
+     */
+    private static class JsonVisitor extends ChainNodeWalker.Visitor
+    {
+        private final Appendable out;
+
+        JsonVisitor(Appendable out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void child(String key, int index)
+        {
+            try {
+                if (index > 0) {
+                    out.append(',');
+                }
+                if (key != null) {
+                    out.append('"');
+                    wrap(key, out);
+                    out.append("\":");
                 }
-                sb.append("\"" + wrap(key) + "\":");
-                sb.append(serialize(node.get(key)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            sb.append('}');
-            return sb.toString();
         }
 
-        // Array
-        if (node.isList()) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("[");
-            int i=0;
-            for (ChainNode inner : node) {
-                if (i++ > 0) {
-                    sb.append(',');
+        @Override
+        public boolean enterMap(ChainNode node)
+        {
+            append('{');
+            return true;
+        }
+
+        @Override
+        public void leaveMap(ChainNode node)
+        {
+            append('}');
+        }
+
+        @Override
+        public boolean enterList(ChainNode node)
+        {
+            append('[');
+            return true;
+        }
+
+        @Override
+        public void leaveList(ChainNode node)
+        {
+            append(']');
+        }
+
+        @Override
+        public void scalar(ChainNode node)
+        {
+            try {
+                writeScalar(node, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void append(char c)
+        {
+            try {
+                out.append(c);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Serializes node using shared fork/join pool
+     *
+     * @param node Node to serialize
+     * @return JSON, same as of serialize(node)
+     * @see #serializeParallel(ChainNode, Appendable, ForkJoinPool)
+     */
+    public static String serializeParallel(ChainNode node)
+    {
+        StringBuilder sb = new StringBuilder();
+        try {
+            serializeParallel(node, sb, Pool.INSTANCE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Serializes node on provided fork/join pool
+     * Maps and lists of at least PARALLEL_THRESHOLD elements are split into
+     * chunks, encoded concurrently and joined in order, smaller nodes are
+     * encoded sequentially with explicit stack. Tree must not be modified
+     * meanwhile.
+     *
+     * @param node Node to serialize
+     * @param out  Target sink
+     * @param pool Pool
+     * @throws IOException on sink failure
+     */
+    public static void serializeParallel(final ChainNode node, Appendable out, ForkJoinPool pool) throws IOException
+    {
+        StringBuilder json = pool.invoke(new RecursiveTask<StringBuilder>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected StringBuilder compute()
+            {
+                StringBuilder sb = new StringBuilder();
+                writeParallel(node, sb);
+                return sb;
+            }
+        });
+        out.append(json);
+    }
+
+    /**
+     * Writes node, forking chunks of large containers, must run in pool
+     */
+    private static void writeParallel(ChainNode node, StringBuilder out)
+    {
+        ChainNodeWalker.walk(node, new ParallelVisitor(out));
+    }
+
+    private static void writeRange(String[] keys, ChainNode[] values, int from, int to, StringBuilder out)
+    {
+        ParallelVisitor visitor = new ParallelVisitor(out);
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                out.append(',');
+            }
+            if (keys != null) {
+                out.append('"');
+                try {
+                    wrap(keys[i], out);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                sb.append(serialize(inner));
+                out.append("\":");
             }
-            sb.append("]");
-            return sb.toString();
+            ChainNodeWalker.walk(values[i], visitor);
         }
+    }
 
-        // Unknown type
-        throw new RuntimeException("Unsupported node type");
+    /**
+     * Writes small containers in place and large ones by chunks, forked
+     * into current pool. Only nested large containers add call stack depth.
+     */
+    private static final class ParallelVisitor extends JsonVisitor
+    {
+        private final StringBuilder out;
+
+        ParallelVisitor(StringBuilder out)
+        {
+            super(out);
+            this.out = out;
+        }
+
+        @Override
+        public boolean enterMap(ChainNode node)
+        {
+            if (node.size() < PARALLEL_THRESHOLD) {
+                return super.enterMap(node);
+            }
+            out.append('{');
+            fork(node);
+            out.append('}');
+            return false;
+        }
+
+        @Override
+        public boolean enterList(ChainNode node)
+        {
+            if (node.size() < PARALLEL_THRESHOLD) {
+                return super.enterList(node);
+            }
+            out.append('[');
+            fork(node);
+            out.append(']');
+            return false;
+        }
+
+        private void fork(ChainNode node)
+        {
+            // Snapshot, so that chunks address elements by index
+            Children children = new Children(node.isMap(), node.size());
+            ChainNodeWalker.walk(node, children);
+            int n = children.size;
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (int from = 0; from < n; from += PARALLEL_THRESHOLD) {
+                chunks.add(new Chunk(children.keys, children.values, from, Math.min(n, from + PARALLEL_THRESHOLD)));
+            }
+            ForkJoinTask.invokeAll(chunks);
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(chunks.get(i).join());
+            }
+        }
+    }
+
+    /**
+     * Collects keys and direct children of walked container
+     */
+    private static final class Children extends ChainNodeWalker.Visitor
+    {
+        final String[] keys;
+        final ChainNode[] values;
+        int size;
+        private boolean root = true;
+
+        Children(boolean map, int size)
+        {
+            this.keys = map ? new String[size] : null;
+            this.values = new ChainNode[size];
+        }
+
+        @Override
+        public void child(String key, int index)
+        {
+            if (keys != null) {
+                keys[size] = key;
+            }
+        }
+
+        @Override
+        public boolean enterMap(ChainNode node)
+        {
+            return enter(node);
+        }
+
+        @Override
+        public boolean enterList(ChainNode node)
+        {
+            return enter(node);
+        }
+
+        @Override
+        public void scalar(ChainNode node)
+        {
+            values[size++] = node;
+        }
+
+        private boolean enter(ChainNode node)
+        {
+            if (root) {
+                root = false;
+                return true;
+            }
+            values[size++] = node;
+            return false;
+        }
+    }
+
+    /**
+     * Range of elements of a large map or list
+     */
+    private static final class Chunk extends RecursiveTask<StringBuilder>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] keys;
+        private final ChainNode[] values;
+        private final int from;
+        private final int to;
+
+        Chunk(String[] keys, ChainNode[] values, int from, int to)
+        {
+            this.keys = keys;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected StringBuilder compute()
+        {
+            StringBuilder sb = new StringBuilder();
+            writeRange(keys, values, from, to, sb);
+            return sb;
+        }
     }
 
     public static String wrap(String s) {
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        try {
+            wrap(s, sb);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes escaped string contents into sink
+     * Unescaped runs are copied as ranges, without substring allocation
+     *
+     * @param s   String to escape
+     * @param out Target sink
+     * @throws IOException on sink failure
+     */
+    public static void wrap(CharSequence s, Appendable out) throws IOException {
+        int length = s.length();
+        int from = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            if (i > from) {
+                out.append(s, from, i);
+            }
+            from = i + 1;
+            out.append('\\');
+            switch (c) {
+                case '"':  out.append('"'); break;
+                case '\\': out.append('\\'); break;
+                case '\n': out.append('n'); break;
+                case '\r': out.append('r'); break;
+                case '\t': out.append('t'); break;
+                case '\b': out.append('b'); break;
+                case '\f': out.append('f'); break;
+                default:
+                    out.append("u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        if (length > from) {
+            out.append(s, from, length);
+        }
     }
 }
@@ -0,0 +1,283 @@
+package me.gotter.collections.util;
+
+import me.gotter.collections.ChainNode;
+import me.gotter.collections.ChainNodeKeyPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses newline-delimited JSON on a pool of worker threads
+ * <p/>
+ * Input is read by calling thread in chunks, cut at line boundaries, every
+ * chunk is parsed by a worker into a batch of records, and batches are
+ * handed to consumer on calling thread - in input order, or in order of
+ * completion when unordered. At most queueCapacity chunks are in flight,
+ * reading waits for consumer beyond that, which bounds memory use.
+ * Blank lines are skipped.
+ */
+public class ChainNodeNdjsonPipeline
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Receives parsed batches, always on thread, running the pipeline
+     */
+    public interface Consumer
+    {
+        /**
+         * @param batch Records of consecutive lines of input
+         */
+        void accept(List<ChainNode> batch);
+    }
+
+    private final int threads;
+    private final int chunkSize;
+    private final int queueCapacity;
+    private final boolean ordered;
+    private final ChainNodeKeyPool keys;
+
+    /**
+     * Creates ordered pipeline with provided amount of workers, 1 MB chunks
+     * and up to two chunks in flight per worker
+     *
+     * @param threads Amount of worker threads
+     */
+    public ChainNodeNdjsonPipeline(int threads)
+    {
+        this(threads, DEFAULT_CHUNK_SIZE, threads * 2, true);
+    }
+
+    /**
+     * @param threads       Amount of worker threads
+     * @param chunkSize     Approximate size of chunk in bytes, chunks grow to fit longer lines
+     * @param queueCapacity Maximal amount of chunks, read but not consumed yet
+     * @param ordered       True to deliver batches in input order
+     */
+    public ChainNodeNdjsonPipeline(int threads, int chunkSize, int queueCapacity, boolean ordered)
+    {
+        this(threads, chunkSize, queueCapacity, ordered, null);
+    }
+
+    /**
+     * @param threads       Amount of worker threads
+     * @param chunkSize     Approximate size of chunk in bytes, chunks grow to fit longer lines
+     * @param queueCapacity Maximal amount of chunks, read but not consumed yet
+     * @param ordered       True to deliver batches in input order
+     * @param keys          Pool of map keys, shared by all records, or null to not pool them
+     */
+    public ChainNodeNdjsonPipeline(int threads, int chunkSize, int queueCapacity, boolean ordered,
+                                   ChainNodeKeyPool keys)
+    {
+        if (threads < 1 || chunkSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Threads, chunk size and queue capacity must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+        this.ordered = ordered;
+        this.keys = keys;
+    }
+
+    /**
+     * Parses file, see run(InputStream, Consumer)
+     */
+    public long run(File file, Consumer consumer) throws IOException, InterruptedException
+    {
+        InputStream in = new FileInputStream(file);
+        try {
+            return run(in, consumer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses whole stream, stream is not closed
+     *
+     * @param in       UTF-8 encoded NDJSON
+     * @param consumer Consumer of batches
+     * @return Amount of parsed records
+     * @throws IOException              on read failure
+     * @throws IllegalArgumentException on malformed record, with its position
+     */
+    public long run(InputStream in, Consumer consumer) throws IOException, InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerFactory());
+        CompletionService<List<ChainNode>> completion = new ExecutorCompletionService<List<ChainNode>>(executor);
+        Deque<Future<List<ChainNode>>> pending = new ArrayDeque<Future<List<ChainNode>>>();
+        long records = 0;
+        try {
+            byte[] buffer = new byte[chunkSize];
+            int filled = 0;
+            long offset = 0;
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                // Filling buffer, growing it when single line does not fit
+                while (!eof && filled < buffer.length) {
+                    int read = in.read(buffer, filled, buffer.length - filled);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        filled += read;
+                    }
+                }
+                int cut = filled;
+                if (!eof) {
+                    cut = lastLineEnd(buffer, filled);
+                    if (cut == 0) {
+                        byte[] grown = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, grown, 0, filled);
+                        buffer = grown;
+                        continue;
+                    }
+                }
+                if (cut == 0) {
+                    break;
+                }
+
+                if (pending.size() == queueCapacity) {
+                    records += deliver(pending, completion, consumer);
+                }
+                Chunk chunk = new Chunk(buffer, cut, offset, keys);
+                pending.add(ordered ? executor.submit(chunk) : completion.submit(chunk));
+
+                // Carrying incomplete line over into next buffer
+                byte[] next = new byte[Math.max(chunkSize, filled - cut)];
+                System.arraycopy(buffer, cut, next, 0, filled - cut);
+                buffer = next;
+                filled -= cut;
+                offset += cut;
+            }
+            while (!pending.isEmpty()) {
+                records += deliver(pending, completion, consumer);
+            }
+            return records;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int lastLineEnd(byte[] buffer, int filled)
+    {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Waits for next batch and hands it to consumer
+     */
+    private int deliver(Deque<Future<List<ChainNode>>> pending, CompletionService<List<ChainNode>> completion,
+                        Consumer consumer) throws InterruptedException
+    {
+        Future<List<ChainNode>> future;
+        if (ordered) {
+            future = pending.poll();
+        } else {
+            future = completion.take();
+            pending.remove(future);
+        }
+        List<ChainNode> batch;
+        try {
+            batch = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        consumer.accept(batch);
+        return batch.size();
+    }
+
+    /**
+     * Lines of input, parsed by worker
+     */
+    private static final class Chunk implements Callable<List<ChainNode>>
+    {
+        private final byte[] bytes;
+        private final int length;
+        private final long offset;
+        private final ChainNodeKeyPool keys;
+
+        Chunk(byte[] bytes, int length, long offset, ChainNodeKeyPool keys)
+        {
+            this.bytes = bytes;
+            this.length = length;
+            this.offset = offset;
+            this.keys = keys;
+        }
+
+        @Override
+        public List<ChainNode> call()
+        {
+            // Decoding whole chunk at once, '\n' never occurs inside multi-byte sequences
+            CharBuffer chars = UTF8.decode(ByteBuffer.wrap(bytes, 0, length));
+            char[] buf = chars.array();
+            int limit = chars.limit();
+            List<ChainNode> batch = new ArrayList<ChainNode>();
+            String[] keyCache = keys != null ? new String[ChainNodeJsonParser.KEY_CACHE_SIZE] : null;
+            int line = 0;
+            int from = 0;
+            while (from < limit) {
+                int to = from;
+                while (to < limit && buf[to] != '\n') {
+                    to++;
+                }
+                line++;
+                if (!isBlank(buf, from, to)) {
+                    try {
+                        batch.add(ChainNodeJsonParser.parse(buf, from, to, keys, keyCache));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid record in line " + line
+                                + " of chunk at byte " + offset + ": " + e.getMessage(), e);
+                    }
+                }
+                from = to + 1;
+            }
+            return batch;
+        }
+
+        private static boolean isBlank(char[] buf, int from, int to)
+        {
+            for (int i = from; i < to; i++) {
+                char c = buf[i];
+                if (c != ' ' && c != '\r' && c != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private static final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "ndjson-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChainNodeAdaptersTest {
+
+    public static class Address {
+        public String city;
+        public int zip;
+
+        Address(String city, int zip)
+        {
+            this.city = city;
+            this.zip = zip;
+        }
+    }
+
+    public static class User {
+        public long id;
+        public List<Address> addresses = new ArrayList<Address>();
+        public static int ignored = 1;
+        private String name;
+        private boolean active;
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isActive()
+        {
+            return active;
+        }
+    }
+
+    public static class Admin extends User {
+        public int level = 2;
+    }
+
+    private static User user()
+    {
+        User user = new User();
+        user.id = 5000000000L;
+        user.name = "Joe";
+        user.active = true;
+        user.addresses.add(new Address("Paris", 75001));
+        return user;
+    }
+
+    @Test
+    public void testMaps()
+    {
+        Map<String, Object> linked = new LinkedHashMap<String, Object>();
+        linked.put("b", 1);
+        linked.put("a", Arrays.asList(1L, "x"));
+        assertEquals("{\"b\":1,\"a\":[1,\"x\"]}", new ChainNode(linked).toJSON());
+
+        Map<Integer, Object> tree = new TreeMap<Integer, Object>();
+        tree.put(2, true);
+        tree.put(1, null);
+        assertEquals("{\"1\":null,\"2\":true}", new ChainNode(tree).toJSON());
+
+        // Nested hash maps
+        Map<String, Object> inner = new HashMap<String, Object>();
+        inner.put("x", 1.5);
+        Map<String, Object> outer = new HashMap<String, Object>();
+        outer.put("inner", inner);
+        ChainNode node = new ChainNode(outer);
+        assertTrue(node.path("inner.x").isDouble());
+        assertTrue(node.equals(outer));
+    }
+
+    @Test
+    public void testArrays()
+    {
+        assertEquals("[1,2]", new ChainNode(new int[]{1, 2}).toJSON());
+        assertTrue(new ChainNode(new long[]{1}).get(0).isLong());
+        assertTrue(new ChainNode(new float[]{1.5f}).get(0).isFloat());
+        assertEquals("[0.5]", new ChainNode(new double[]{0.5}).toJSON());
+        assertEquals("[true,false]", new ChainNode(new boolean[]{true, false}).toJSON());
+        assertEquals("[-1,7]", new ChainNode(new byte[]{-1, 7}).toJSON());
+        assertEquals("[3]", new ChainNode(new short[]{3}).toJSON());
+        assertEquals("abc", new ChainNode(new char[]{'a', 'b', 'c'}).getString());
+        assertEquals("[[1],[\"a\",null]]", new ChainNode(new Object[]{new int[]{1}, new String[]{"a", null}}).toJSON());
+        assertTrue(new ChainNode(new int[]{1, 2}).equals(new int[]{1, 2}));
+    }
+
+    @Test
+    public void testBean()
+    {
+        // Unregistered types are stored as is
+        User raw = user();
+        assertSame(raw, new ChainNode(raw).get());
+
+        ChainNodeAdapters.registerBean(User.class);
+        ChainNodeAdapters.registerBean(Address.class);
+        try {
+            ChainNode node = new ChainNode(user());
+            assertEquals("{\"id\":5000000000,\"addresses\":[{\"city\":\"Paris\",\"zip\":75001}],"
+                    + "\"name\":\"Joe\",\"active\":true}", node.toJSON());
+            assertTrue(node.equals(user()));
+
+            ChainNode list = new ChainNode().set("users", Arrays.asList(user(), user()));
+            assertEquals(75001, list.path("users.1.addresses.0.zip").getInt());
+
+            ChainNode concurrent = new ConcurrentChainNode(user());
+            assertEquals(node, concurrent);
+            assertTrue(concurrent.get("addresses") instanceof ConcurrentChainNode);
+
+            ChainNodeArena arena = new ChainNodeArena();
+            assertEquals(node, arena.root().set(user()));
+
+            // Subtypes are written with their own properties
+            ChainNode admin = new ChainNode(new Admin());
+            assertEquals(2, admin.get("level").getInt());
+            assertTrue(admin.containsKey("addresses"));
+        } finally {
+            ChainNodeAdapters.unregister(User.class);
+            ChainNodeAdapters.unregister(Address.class);
+        }
+        assertSame(raw, new ChainNode(raw).get());
+    }
+
+    @Test
+    public void testRegister()
+    {
+        Date date = new Date(1400000000000L);
+        assertEquals(date, new ChainNode(date).get());
+
+        ChainNodeAdapters.register(Date.class, new ChainNodeAdapters.Adapter<Date>() {
+            @Override
+            public void write(ChainNode node, Date value)
+            {
+                node.setLong(value.getTime());
+            }
+        });
+        ChainNodeAdapters.register(Address.class, new ChainNodeAdapters.Adapter<Address>() {
+            @Override
+            public void write(ChainNode node, Address value)
+            {
+                node.set(value.city + " " + value.zip);
+            }
+        });
+        try {
+            assertEquals(1400000000000L, new ChainNode(date).getLong());
+            assertEquals(1400000000000L, new ChainNode(new java.sql.Timestamp(1400000000000L)).getLong());
+            ChainNodeAdapters.registerBean(User.class);
+            assertEquals("Paris 75001", new ChainNode(user()).path("addresses.0").getString());
+        } finally {
+            ChainNodeAdapters.unregister(Date.class);
+            ChainNodeAdapters.unregister(Address.class);
+        }
+        try {
+            assertEquals(date, new ChainNode(date).get());
+            ChainNodeAdapters.registerBean(Address.class);
+            assertEquals("Paris", new ChainNode(user()).path("addresses.0.city").getString());
+        } finally {
+            ChainNodeAdapters.unregister(User.class);
+            ChainNodeAdapters.unregister(Address.class);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeArenaTest {
+
+    private static final String JSON = "{\"id\": 12345, \"big\": 5000000000, \"ratio\": 0.25, \"ok\": true,"
+            + " \"name\": \"Fran\\u00e7ois \\u4e2d\", \"roles\": [15, \"admin\", {\"level\": 2}, []], \"empty\": {}}";
+
+    @Test
+    public void testReadWrite()
+    {
+        ChainNodeArena arena = new ChainNodeArena();
+        ChainNode root = arena.root();
+        root.set("id", 12345);
+        root.get("user").set("name", "Joe");
+        root.path("user.visits").setLong(5000000000L);
+        root.path("user.score").setDouble(0.5);
+        root.get("tags").add("a").add(true).add(1.5f);
+
+        assertEquals(12345, arena.root().get("id").getInt());
+        assertEquals("Joe", root.path("user.name").getString());
+        assertEquals(5000000000L, root.path("user.visits").getLong());
+        assertEquals(0.5, root.path("user.score").getDouble(), 0);
+        assertTrue(root.path("tags.1").isTrue());
+        assertTrue(root.path("tags.2").isFloat());
+        assertEquals(3, root.get("tags").size());
+        assertEquals(Arrays.asList("id", "user", "tags"), new ArrayList<String>(root.keySet()));
+        assertTrue(root.peek("absent").isMissing());
+        assertFalse(root.containsKey("absent"));
+        assertEquals("{\"id\":12345,\"user\":{\"name\":\"Joe\",\"visits\":5000000000,\"score\":0.5},\"tags\":[\"a\",true,1.5]}",
+                root.toJSON());
+
+        root.get("user").set("name", "Bob");
+        assertEquals("Bob", root.path("user.name").getString());
+        assertEquals("Bob", root.get("user").remove("name").getString());
+        assertTrue(root.path("user").peek("name").isMissing());
+        assertEquals(2, root.get("user").size());
+
+        try {
+            root.get("id").add(1);
+            fail("Scalar node expected to reject list operations");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test
+    public void testCopy()
+    {
+        ChainNode source = ChainNode.fromJSON(JSON);
+        ChainNodeArena arena = new ChainNodeArena();
+        ChainNode root = arena.root().set(source);
+
+        assertEquals(source, root);
+        assertEquals(root, source);
+        assertEquals(source.hashCode(), root.hashCode());
+        assertEquals(source.toJSON(), root.toJSON());
+        assertEquals(root, ChainNode.fromBinary(root.toBinary()));
+        assertEquals(source, root.freeze());
+        assertEquals(source, new ChainNode(root));
+        assertEquals(source, new ConcurrentChainNode(root));
+        assertEquals(12345, new ConcurrentChainNode(root.get("id")).getInt());
+        assertEquals("{\"level\":2}", new ConcurrentChainNode().set(root.path("roles.2")).toJSON());
+
+        // Null nodes equal null, as heap ones do
+        ChainNode empty = arena.create();
+        assertTrue(empty.equals(null));
+        assertTrue(new ChainNode().equals(null));
+        assertFalse(root.equals(null));
+
+        // Deep trees are hashed and compared without recursion
+        ChainNode deep = arena.create();
+        ChainNode heap = new ChainNode();
+        ChainNode a = deep;
+        ChainNode b = heap;
+        for (int i = 0; i < 100000; i++) {
+            a = a.get("x");
+            b = b.get("x");
+        }
+        a.set(1);
+        b.set(1);
+        assertEquals(heap.hashCode(), deep.hashCode());
+        assertEquals(deep, heap);
+        assertEquals(heap, deep);
+
+        // Nodes of the same arena are linked, not copied
+        ChainNode other = arena.create();
+        other.set("roles", root.get("roles"));
+        root.get("roles").add("user");
+        assertEquals(5, other.get("roles").size());
+    }
+
+    @Test
+    public void testLargeMap()
+    {
+        // Small slabs, so tables and strings span several slabs
+        ChainNodeArena arena = new ChainNodeArena(10);
+        ChainNode root = arena.root();
+        Map<String, Integer> reference = new HashMap<String, Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String key = "key-" + random.nextInt(2000);
+            if (random.nextInt(4) == 0) {
+                reference.remove(key);
+                root.remove(key);
+            } else {
+                reference.put(key, i);
+                root.set(key, i);
+            }
+        }
+        assertEquals(reference.size(), root.size());
+        for (Map.Entry<String, Integer> entry : reference.entrySet()) {
+            assertEquals(entry.getValue().intValue(), root.get(entry.getKey()).getInt());
+        }
+
+        List<ChainNode> items = new ArrayList<ChainNode>();
+        ChainNode list = root.get("list");
+        for (int i = 0; i < 5000; i++) {
+            list.add("item " + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("item " + i, list.get(i).getString());
+        }
+        for (ChainNode item : list) {
+            items.add(item);
+        }
+        assertEquals(5000, items.size());
+        assertTrue(arena.allocated() > 1 << 10);
+    }
+
+    @Test
+    public void testClose()
+    {
+        ChainNodeArena arena = new ChainNodeArena();
+        ChainNode root = arena.root();
+        root.set("id", 1);
+        arena.close();
+        assertTrue(arena.isClosed());
+        try {
+            root.get("id");
+            fail("Closed arena expected to fail");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeBinaryTest {
+
+    private static final String JSON = "{\"id\": 12345, \"big\": 5000000000, \"neg\": -7, \"ratio\": 0.25,"
+            + " \"name\": \"Fran\\u00e7ois \\ud83d\\ude00\", \"ok\": true, \"no\": false,"
+            + " \"roles\": [15, \"admin\", {}, []], \"nested\": {\"deep\": {\"x\": [1.5, -2e10]}}}";
+
+    @Test
+    public void testRoundTrip()
+    {
+        ChainNode source = ChainNode.fromJSON(JSON);
+        source.set("float", 1.5f);
+        source.set("min", Long.MIN_VALUE);
+        source.set("imin", Integer.MIN_VALUE);
+        byte[] data = source.toBinary();
+        ChainNode parsed = ChainNode.fromBinary(data);
+
+        assertEquals(source, parsed);
+        assertEquals(source.toJSON(), parsed.toJSON());
+        assertTrue(parsed.get("id").isInt());
+        assertTrue(parsed.get("big").isLong());
+        assertTrue(parsed.get("float").isFloat());
+        assertTrue(parsed.get("ratio").isDouble());
+        assertTrue(parsed.get("roles").get(2).isMap());
+        assertTrue(parsed.get("roles").get(3).isList());
+        assertEquals(Long.MIN_VALUE, parsed.get("min").getLong());
+        assertEquals(Integer.MIN_VALUE, parsed.get("imin").getInt());
+        assertEquals("Fran\u00e7ois \ud83d\ude00", parsed.get("name").getString());
+    }
+
+    @Test
+    public void testScalars()
+    {
+        assertTrue(ChainNode.fromBinary(new ChainNode().toBinary()).isNull());
+        assertTrue(ChainNode.fromBinary(ChainNode.fromJSON("{\"nil\": null}").toBinary()).get("nil").isNull());
+        assertArrayEquals(new byte[]{3, 2}, new ChainNode(1).toBinary());
+        assertArrayEquals(new byte[]{3, 1}, new ChainNode(-1).toBinary());
+        assertArrayEquals(new byte[]{7, 2, 'h', 'i'}, new ChainNode("hi").toBinary());
+        // Unpaired surrogate is replaced, same as by String.getBytes()
+        assertEquals("a?", ChainNode.fromBinary(new ChainNode("a\ud800").toBinary()).getString());
+    }
+
+    @Test
+    public void testStreams() throws Exception
+    {
+        ChainNode source = new ChainNode();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("\u00e9x");
+        }
+        for (int i = 0; i < 500; i++) {
+            source.get("items").add(sb.substring(0, i * 7));
+        }
+        source.set("long", sb.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.writeBinary(out);
+        assertArrayEquals(source.toBinary(), out.toByteArray());
+        assertEquals(source, ChainNode.fromBinary(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void testByteBuffer()
+    {
+        ChainNode first = ChainNode.fromJSON(JSON);
+        ChainNode second = new ChainNode("tail");
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(20000), ByteBuffer.allocateDirect(20000)}) {
+            buffer.put((byte) 99);
+            first.writeBinary(buffer);
+            second.writeBinary(buffer);
+            buffer.flip();
+            buffer.get();
+
+            assertEquals(first, ChainNode.fromBinary(buffer));
+            assertEquals(second, ChainNode.fromBinary(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testMalformed()
+    {
+        byte[] data = ChainNode.fromJSON(JSON).toBinary();
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertTruncated(truncated);
+        assertMalformed(new byte[]{42});
+        assertMalformed(new byte[]{0, 0});
+        assertMalformed(new byte[]{8, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1});
+
+        // String, claiming Integer.MAX_VALUE bytes, is rejected without allocating them
+        assertTruncated(new byte[]{7, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 7, 'a', 'b'});
+    }
+
+    @Test
+    public void testSize()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"id\": ").append(i * 1000).append(", \"score\": ").append(i / 7.0).append("}");
+        }
+        ChainNode numeric = ChainNode.fromJSON(sb.append("]").toString());
+        assertTrue(numeric.toBinary().length < numeric.toJSON().getBytes().length * 2 / 3);
+    }
+
+    private static void assertMalformed(byte[] data)
+    {
+        try {
+            ChainNode.fromBinary(data);
+            fail("Malformed input expected to fail");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Truncated input must fail for array, direct buffer and stream sources
+     */
+    private static void assertTruncated(byte[] data)
+    {
+        assertMalformed(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        try {
+            ChainNode.fromBinary(direct);
+            fail("Malformed input expected to fail");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            ChainNode.fromBinary(new ByteArrayInputStream(data));
+            fail("Malformed input expected to fail");
+        } catch (IllegalArgumentException ignored) {
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
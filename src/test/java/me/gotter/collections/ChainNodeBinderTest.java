@@ -0,0 +1,132 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeBinderTest {
+
+    public enum Role {
+        ADMIN, USER
+    }
+
+    public static class Address {
+        public String city;
+        public int zip;
+    }
+
+    public static class User {
+        public long id;
+        public int visits = -1;
+        public double score;
+        public boolean active;
+        public Role role;
+        public Address address;
+        public List<Address> previous;
+        public Map<String, Integer> counters;
+        public Set<String> tags;
+        public int[] codes;
+        public ChainNode extra;
+        public User manager;
+        private String name;
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public void setName(String name)
+        {
+            this.name = "Mr. " + name;
+        }
+    }
+
+    private static final String JSON = "{\"id\": 5000000000, \"score\": 7, \"active\": true, \"role\": \"ADMIN\","
+            + " \"name\": \"Joe\", \"unknown\": [1, 2], \"address\": {\"city\": \"Paris\", \"zip\": 75001},"
+            + " \"previous\": [{\"city\": \"Lyon\"}, null], \"counters\": {\"a\": 1, \"b\": 2},"
+            + " \"tags\": [\"x\", \"y\", \"x\"], \"codes\": [3, 4], \"extra\": {\"any\": [true]},"
+            + " \"manager\": {\"id\": 1, \"visits\": null}}";
+
+    @Test
+    public void testBind()
+    {
+        ChainNode node = ChainNode.fromJSON(JSON);
+        User user = node.bind(User.class);
+
+        assertEquals(5000000000L, user.id);
+        assertEquals(-1, user.visits);
+        assertEquals(7.0, user.score, 0);
+        assertTrue(user.active);
+        assertEquals(Role.ADMIN, user.role);
+        assertEquals("Mr. Joe", user.getName());
+        assertEquals("Paris", user.address.city);
+        assertEquals(75001, user.address.zip);
+        assertEquals(2, user.previous.size());
+        assertEquals("Lyon", user.previous.get(0).city);
+        assertNull(user.previous.get(1));
+        assertEquals(Integer.valueOf(2), user.counters.get("b"));
+        assertEquals(2, user.tags.size());
+        assertArrayEquals(new int[]{3, 4}, user.codes);
+        assertEquals(1, user.manager.id);
+        assertEquals(-1, user.manager.visits);
+
+        // Bound nodes do not share writes with the tree
+        user.extra.get("any").add(false);
+        assertEquals(1, node.path("extra.any").size());
+    }
+
+    @Test
+    public void testScalars()
+    {
+        assertEquals(Integer.valueOf(5), new ChainNode(5L).bind(Integer.class));
+        assertEquals("5", new ChainNode(5).bind(String.class));
+        assertEquals(Long.valueOf(12), new ChainNode("12").bind(Long.class));
+        assertEquals(Arrays.asList(1, "a", Arrays.asList(true)),
+                ChainNode.fromJSON("[1, \"a\", [true]]").bind(List.class));
+        assertEquals("x", ChainNode.fromJSON("{\"k\": \"x\"}").bind(Map.class).get("k"));
+        assertArrayEquals(new String[]{"a", null}, ChainNode.fromJSON("[\"a\", null]").bind(String[].class));
+        assertNull(new ChainNode().bind(User.class));
+        try {
+            new ChainNode().bind(int.class);
+            fail("Null expected to be rejected for primitives");
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            new ChainNode(1).bind(User.class);
+            fail("Scalar expected to be rejected for POJO");
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        User user = ChainNode.fromJSON(JSON).bind(User.class);
+        ChainNodeAdapters.registerBean(User.class);
+        ChainNodeAdapters.registerBean(Address.class);
+        ChainNode node;
+        try {
+            node = new ChainNode(user);
+        } finally {
+            ChainNodeAdapters.unregister(User.class);
+            ChainNodeAdapters.unregister(Address.class);
+        }
+        assertEquals("Mr. Joe", node.get("name").getString());
+        assertEquals("Paris", node.path("address.city").getString());
+
+        User copy = node.bind(User.class);
+        assertEquals(user.id, copy.id);
+        assertEquals(user.address.zip, copy.address.zip);
+        assertEquals(user.tags, copy.tags);
+        assertEquals("Mr. Mr. Joe", copy.getName());
+    }
+}
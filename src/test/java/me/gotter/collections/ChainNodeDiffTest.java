@@ -0,0 +1,175 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeDiffTest {
+
+    private static final String JSON = "{\"id\": 1, \"name\": \"Joe\", \"tags\": [\"a\", \"b\", \"c\"],"
+            + " \"address\": {\"city\": \"Paris\", \"zip\": 75001}, \"a/b~c\": 1}";
+
+    @Test
+    public void testDiff()
+    {
+        ChainNode from = ChainNode.fromJSON(JSON);
+        ChainNode to = ChainNode.fromJSON("{\"id\": 1, \"name\": \"Bob\", \"tags\": [\"a\", \"x\"],"
+                + " \"address\": {\"city\": \"Paris\", \"zip\": 75001, \"street\": \"Main\"}, \"a/b~c\": 2,"
+                + " \"age\": 30}");
+
+        ChainNode patch = ChainNode.diff(from, to);
+        assertEquals("[{\"op\":\"replace\",\"path\":\"/name\",\"value\":\"Bob\"},"
+                + "{\"op\":\"replace\",\"path\":\"/tags/1\",\"value\":\"x\"},"
+                + "{\"op\":\"remove\",\"path\":\"/tags/2\"},"
+                + "{\"op\":\"add\",\"path\":\"/address/street\",\"value\":\"Main\"},"
+                + "{\"op\":\"replace\",\"path\":\"/a~1b~0c\",\"value\":2},"
+                + "{\"op\":\"add\",\"path\":\"/age\",\"value\":30}]", patch.toJSON());
+
+        assertEquals(to, from.apply(patch));
+        assertEquals(0, ChainNode.diff(from, to).size());
+        assertTrue(ChainNode.diff(to, ChainNode.fromJSON(to.toJSON())).isEmpty());
+
+        // Reverse direction
+        ChainNode back = ChainNode.fromJSON(JSON);
+        assertEquals(back, to.apply(ChainNode.diff(to, back)));
+    }
+
+    @Test
+    public void testTypeChange()
+    {
+        ChainNode from = ChainNode.fromJSON("{\"a\": [1, 2], \"b\": {\"c\": 1}, \"d\": 5000000000}");
+        ChainNode to = ChainNode.fromJSON("{\"a\": {\"x\": 1}, \"b\": [1], \"d\": 5000000000.5}");
+        assertEquals(3, ChainNode.diff(from, to).size());
+        assertEquals(to, from.apply(ChainNode.diff(from, to)));
+
+        // Whole document replacement
+        ChainNode root = ChainNode.fromJSON("[1, 2]");
+        root.apply(ChainNode.diff(root, ChainNode.fromJSON("{\"x\": 1}")));
+        assertEquals("{\"x\":1}", root.toJSON());
+    }
+
+    @Test
+    public void testCopyOnWrite()
+    {
+        ChainNode template = ChainNode.fromJSON(JSON);
+        ChainNode copy = new ChainNode(template);
+        copy.path("address.zip").setInt(75002);
+        copy.get("tags").add("d");
+
+        ChainNode patch = ChainNode.diff(template, copy);
+        assertEquals("[{\"op\":\"add\",\"path\":\"/tags/3\",\"value\":\"d\"},"
+                + "{\"op\":\"replace\",\"path\":\"/address/zip\",\"value\":75002}]", patch.toJSON());
+
+        // Patch is applied to replica, not sharing anything with source
+        ChainNode replica = ChainNode.fromJSON(JSON);
+        replica.apply(patch);
+        assertEquals(copy, replica);
+        copy.get("tags").add("e");
+        assertEquals(4, replica.get("tags").size());
+
+        // Patch values are detached from target tree, which is not unshared by diff
+        ChainNode clone = new ChainNode(template.freeze());
+        clone.set("extra", new ChainNode().set("x", 1));
+        ChainNode added = ChainNode.diff(template, clone);
+        clone.path("extra").set("x", 2);
+        assertEquals("[{\"op\":\"add\",\"path\":\"/extra\",\"value\":{\"x\":1}}]", added.toJSON());
+        ChainNode frozen = template.freeze();
+        ChainNode shared = new ChainNode(frozen);
+        assertEquals(0, ChainNode.diff(shared, new ChainNode(frozen)).size());
+        assertSame(frozen.peek("address"), shared.peek("address"));
+    }
+
+    @Test
+    public void testFrozen()
+    {
+        ChainNode from = ChainNode.fromJSON(JSON).freeze();
+        ChainNode to = ChainNode.fromJSON(JSON);
+        to.get("address").set("city", "Lyon");
+
+        assertEquals(0, ChainNode.diff(from, ChainNode.fromJSON(JSON).freeze()).size());
+        assertEquals(1, ChainNode.diff(from, to.freeze()).size());
+
+        PersistentChainNode persistent = PersistentChainNode.of(ChainNode.fromJSON(JSON));
+        ChainNode changed = persistent.with("address.city", "Lyon");
+        assertEquals("[{\"op\":\"replace\",\"path\":\"/address/city\",\"value\":\"Lyon\"}]",
+                ChainNode.diff(persistent, changed).toJSON());
+    }
+
+    @Test
+    public void testApply()
+    {
+        ChainNode node = ChainNode.fromJSON("{\"list\": [1, 2, 3]}");
+        node.apply(ChainNode.fromJSON("[{\"op\": \"add\", \"path\": \"/list/0\", \"value\": 0},"
+                + " {\"op\": \"add\", \"path\": \"/list/-\", \"value\": 4},"
+                + " {\"op\": \"remove\", \"path\": \"/list/2\"},"
+                + " {\"op\": \"add\", \"path\": \"/new\", \"value\": {\"x\": [true]}}]"));
+        assertEquals("{\"list\":[0,1,3,4],\"new\":{\"x\":[true]}}", node.toJSON());
+
+        for (String patch : Arrays.asList(
+                "{\"op\": \"remove\", \"path\": \"/absent\"}",
+                "[{\"op\": \"remove\", \"path\": \"/absent\"}]",
+                "[{\"op\": \"remove\", \"path\": \"/absent/x\"}]",
+                "[{\"op\": \"remove\", \"path\": \"/list/4\"}]",
+                "[{\"op\": \"replace\", \"path\": \"/list/x\", \"value\": 1}]",
+                "[{\"op\": \"replace\", \"path\": \"/absent\", \"value\": 1}]",
+                "[{\"op\": \"add\", \"path\": \"/list\"}]",
+                "[{\"op\": \"move\", \"path\": \"/list\"}]",
+                "[{\"op\": \"add\", \"path\": \"list\", \"value\": 1}]",
+                "[{\"op\": \"remove\"}]",
+                "[{\"op\": \"replace\", \"value\": 5}]",
+                "[{\"path\": \"/list\", \"value\": 5}]",
+                "[{\"op\": 1, \"path\": \"/list\", \"value\": 5}]",
+                "[{\"op\": \"replace\", \"path\": null, \"value\": 5}]",
+                "[{\"op\": \"remove\", \"path\": [\"list\"]}]"
+        )) {
+            try {
+                node.apply(ChainNode.fromJSON(patch));
+                fail("Malformed patch expected to fail: " + patch);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        assertEquals("{\"list\":[0,1,3,4],\"new\":{\"x\":[true]}}", node.toJSON());
+    }
+
+    @Test
+    public void testDeep()
+    {
+        ChainNode from = new ChainNode();
+        ChainNode to = new ChainNode();
+        ChainNode a = from;
+        ChainNode b = to;
+        for (int i = 0; i < 100000; i++) {
+            a = i % 2 == 0 ? a.get("x") : a.add(new ChainNode()).get(0);
+            b = i % 2 == 0 ? b.get("x") : b.add(new ChainNode()).get(0);
+        }
+        a.set(1);
+        b.set(2);
+
+        ChainNode patch = ChainNode.diff(from, to);
+        assertEquals(1, patch.size());
+        assertEquals(100000 * 2, patch.get(0).get("path").getString().length());
+        from.apply(patch);
+        assertEquals(to, from);
+    }
+
+    @Test
+    public void testKnownHashes()
+    {
+        ChainNode from = ChainNode.fromJSON(JSON);
+        ChainNode to = ChainNode.fromJSON(JSON);
+        from.hashCode();
+        to.hashCode();
+        assertEquals(0, ChainNode.diff(from, to).size());
+
+        to.get("address").set("zip", 75002);
+        from.hashCode();
+        to.hashCode();
+        assertEquals("[{\"op\":\"replace\",\"path\":\"/address/zip\",\"value\":75002}]",
+                ChainNode.diff(from, to).toJSON());
+    }
+}
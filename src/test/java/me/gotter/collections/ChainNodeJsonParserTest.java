@@ -0,0 +1,166 @@
+package me.gotter.collections;
+
+import me.gotter.collections.util.ChainNodeJsonParser;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeJsonParserTest {
+
+    @Test
+    public void testScalars()
+    {
+        assertTrue(ChainNode.fromJSON("null").isNull());
+        assertTrue(ChainNode.fromJSON(" true ").isTrue());
+        assertTrue(ChainNode.fromJSON("false").isBool());
+        assertFalse(ChainNode.fromJSON("false").isTrue());
+
+        assertTrue(ChainNode.fromJSON("5").isInt());
+        assertEquals(-5, ChainNode.fromJSON("-5").getInt());
+        assertTrue(ChainNode.fromJSON("5000000000").isLong());
+        assertFalse(ChainNode.fromJSON("5000000000").isInt());
+        assertEquals(Long.MIN_VALUE, ChainNode.fromJSON("-9223372036854775808").getLong());
+        assertEquals(1.5, ChainNode.fromJSON("1.5").getDouble(), 0);
+        assertEquals(-2e10, ChainNode.fromJSON("-2E10").getDouble(), 0);
+
+        assertEquals("text", ChainNode.fromJSON("\"text\"").getString());
+        assertEquals("a\"b\\c\nd\u00e9/", ChainNode.fromJSON("\"a\\\"b\\\\c\\nd\\u00e9\\/\"").getString());
+    }
+
+    @Test
+    public void testStructures()
+    {
+        ChainNode cn = ChainNode.fromJSON("{\"id\": 12345, \"roles\": [15, \"admin\", {}], \"empty\": []}");
+
+        assertTrue(cn.isMap());
+        assertEquals(12345, cn.get("id").getInt());
+        assertTrue(cn.get("roles").isList());
+        assertEquals(3, cn.get("roles").size());
+        assertTrue(cn.get("empty").isList());
+        assertEquals(0, cn.get("empty").size());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        ChainNode cn = new ChainNode();
+        ChainNode inner = new ChainNode();
+        cn.set("name", "Fran\u00e7ois \"tab\"\t");
+        cn.set("roles", inner);
+        cn.set("score", 0.25);
+        cn.set("active", true);
+        inner.add(15);
+        inner.add(5000000000L);
+
+        String json = cn.toJSON();
+        assertEquals(cn, ChainNode.fromJSON(json));
+        assertEquals(cn, ChainNode.fromJSON(json.getBytes("UTF-8")));
+        assertEquals(cn, ChainNode.fromJSON(new StringReader(json)));
+    }
+
+    @Test
+    public void testLongString() throws Exception
+    {
+        // Crosses reader buffer boundaries
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        ChainNode cn = ChainNode.fromJSON(new StringReader("[\"" + sb + "\"]"));
+        assertEquals(sb.toString(), cn.iterator().next().getString());
+    }
+
+    @Test
+    public void testNumberGrammar()
+    {
+        assertEquals(0, ChainNode.fromJSON("0").getInt());
+        assertEquals(0, ChainNode.fromJSON("-0").getInt());
+        assertEquals(0.5, ChainNode.fromJSON("0.5").getDouble(), 0);
+        assertEquals(100, ChainNode.fromJSON("1E+2").getDouble(), 0);
+        assertEquals(-0.01, ChainNode.fromJSON("-1.0e-2").getDouble(), 0);
+        assertEquals(10, ChainNode.fromJSON("[10]").get(0).getInt());
+
+        for (String json : Arrays.asList("-", "[-]", "1.", "1.e5", ".5", "1e", "1e+", "[1E-]", "01", "-01", "00.5",
+                "+1", "1.5.5", "1e5e5", "--1", "1-2")) {
+            try {
+                ChainNode.fromJSON(json);
+                fail("Invalid number expected to fail: " + json);
+            } catch (IllegalArgumentException ignored) {
+            }
+            try {
+                byte[] bytes = json.getBytes();
+                ChainNodeJsonParser.parseNumber(bytes, 0, bytes.length);
+                fail("Invalid number expected to fail: " + json);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
+        // Same grammar and types, scanned directly from bytes
+        for (String json : Arrays.asList("0", "-0", "0.5", "1E+2", "-1.0e-2", "2147483648", "-9223372036854775808",
+                "9223372036854775808")) {
+            byte[] bytes = (" " + json + " ").getBytes();
+            assertEquals(ChainNode.fromJSON(json).get(), ChainNodeJsonParser.parseNumber(bytes, 1, bytes.length - 1).get());
+        }
+    }
+
+    @Test
+    public void testControlCharacters() throws Exception
+    {
+        assertEquals("a\tb\n", ChainNode.fromJSON("\"a\\tb\\n\"").getString());
+        assertEquals("\u001f", ChainNode.fromJSON("\"\\u001f\"").getString());
+
+        for (String json : Arrays.asList("\"a\tb\"", "\"a\nb\"", "\"\u0000\"", "\"\\n\u001f\"", "{\"a\rb\": 1}",
+                "[\"\u0001\"]")) {
+            try {
+                ChainNode.fromJSON(json);
+                fail("Unescaped control character expected to fail: " + json);
+            } catch (IllegalArgumentException ignored) {
+            }
+            try {
+                ChainNode.fromJSON(new StringReader(json));
+                fail("Unescaped control character expected to fail: " + json);
+            } catch (IllegalArgumentException ignored) {
+            }
+            try {
+                ChainNode lazy = ChainNode.fromJSONLazy(json.getBytes("UTF-8"));
+                lazy.isEmpty();
+                if (lazy.isIterable()) {
+                    lazy.values().iterator().next();
+                }
+                fail("Unescaped control character expected to fail: " + json);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        assertEquals(1, ChainNode.fromJSON("{\"key\": 1}", new ChainNodeKeyPool()).get("key").getInt());
+        try {
+            ChainNode.fromJSON("{\"k\tey\": 1}", new ChainNodeKeyPool());
+            fail("Unescaped control character in pooled key expected to fail");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failTrailing()
+    {
+        ChainNode.fromJSON("{} x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failUnterminated()
+    {
+        ChainNode.fromJSON("[1, 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failKey()
+    {
+        ChainNode.fromJSON("{id: 1}");
+    }
+
+}
@@ -1,6 +1,12 @@
 package me.gotter.collections;
 
+import me.gotter.collections.util.ChainNodeJsonSerializer;
 import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.assertEquals;
 
 public class ChainNodeJsonTest {
@@ -50,4 +56,58 @@ public class ChainNodeJsonTest {
         assertEquals("{\"id\":12345,\"roles\":[15,\"admin\"]}", cn.toJSON());
     }
 
+    @Test
+    public void testEscape()
+    {
+        assertEquals("\"a\\\\b\"", new ChainNode("a\\b").toJSON());
+        assertEquals("\"line\\nbreak\\ttab\\u0001\"", new ChainNode("line\nbreak\ttab\u0001").toJSON());
+    }
+
+    @Test
+    public void testWriteJSON() throws Exception
+    {
+        ChainNode cn = new ChainNode();
+        ChainNode inner = new ChainNode();
+        cn.set("name", "Fran\u00e7ois");
+        cn.set("roles", inner);
+        inner.add(15);
+        inner.add(true);
+
+        StringWriter writer = new StringWriter();
+        cn.writeJSON(writer);
+        assertEquals(cn.toJSON(), writer.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cn.writeJSON(bytes);
+        assertEquals(cn.toJSON(), new String(bytes.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testParallel() throws Exception
+    {
+        assertEquals("null", new ChainNode().toJSONParallel());
+        assertEquals("{\"a\":[1,\"x\"]}", ChainNode.fromJSON("{\"a\": [1, \"x\"]}").toJSONParallel());
+
+        // Large list of records with a large nested map, split into several chunks
+        ChainNode cn = new ChainNode();
+        ChainNode list = cn.get("list");
+        for (int i = 0; i < 20000; i++) {
+            list.append(new ChainNode().set("id", i).set("name", "user \"" + i + "\""));
+        }
+        ChainNode map = cn.get("map");
+        for (int i = 0; i < 10000; i++) {
+            map.set("key" + i, i % 3 == 0 ? new ChainNode(new int[]{i}) : new ChainNode(i * 0.5));
+        }
+        assertEquals(cn.toJSON(), cn.toJSONParallel());
+
+        StringWriter writer = new StringWriter();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ChainNodeJsonSerializer.serializeParallel(cn, writer, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(cn.toJSON(), writer.toString());
+    }
+
 }
@@ -0,0 +1,97 @@
+package me.gotter.collections;
+
+import me.gotter.collections.util.ChainNodeNdjsonPipeline;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChainNodeKeyPoolTest {
+
+    private static String key(ChainNode map, String name)
+    {
+        for (String key : map.keySet()) {
+            if (key.equals(name)) {
+                return key;
+            }
+        }
+        throw new AssertionError("No key " + name);
+    }
+
+    @Test
+    public void testIntern()
+    {
+        ChainNodeKeyPool pool = new ChainNodeKeyPool();
+        String a = new String("name");
+        String b = new String("name");
+        assertSame(a, pool.intern(a));
+        assertSame(a, pool.intern(b));
+        assertEquals(1, pool.size());
+
+        assertSame("name", ChainNodeKeyPool.shared().intern(b));
+        assertEquals(-1, ChainNodeKeyPool.shared().size());
+    }
+
+    @Test
+    public void testParse() throws Exception
+    {
+        ChainNodeKeyPool pool = new ChainNodeKeyPool();
+        String json = "[{\"id\": 1, \"user\": {\"id\": 2, \"n\\u0061me\": \"x\"}}, {\"id\": 3, \"name\": \"y\"}]";
+        ChainNode node = ChainNode.fromJSON(json, pool);
+        assertSame(key(node.get(0), "id"), key(node.get(1), "id"));
+        assertSame(key(node.path("0.user"), "id"), key(node.get(1), "id"));
+        assertSame(key(node.path("0.user"), "name"), key(node.get(1), "name"));
+        assertSame(key(node.get(0), "id"), key(ChainNode.fromJSON(json.getBytes("UTF-8"), pool).get(1), "id"));
+        assertEquals(ChainNode.fromJSON(json), node);
+        assertEquals(3, pool.size());
+
+        // Records of pipeline share keys
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append("{\"id\": ").append(i).append(", \"tags\": {\"k\": true}}\n");
+        }
+        final List<ChainNode> records = new ArrayList<ChainNode>();
+        new ChainNodeNdjsonPipeline(2, 128, 2, true, pool).run(new ByteArrayInputStream(lines.toString().getBytes("UTF-8")),
+                new ChainNodeNdjsonPipeline.Consumer() {
+                    @Override
+                    public void accept(List<ChainNode> batch)
+                    {
+                        records.addAll(batch);
+                    }
+                });
+        assertEquals(100, records.size());
+        for (ChainNode record : records) {
+            assertSame(key(node.get(0), "id"), key(record, "id"));
+            assertSame(key(records.get(0).get("tags"), "k"), key(record.get("tags"), "k"));
+        }
+    }
+
+    @Test
+    public void testInternKeys()
+    {
+        ChainNode a = ChainNode.fromJSON("{\"id\": 1, \"list\": [{\"name\": \"x\"}]}");
+        ChainNode b = ChainNode.fromJSON("{\"id\": 2, \"list\": [{\"name\": \"y\"}]}");
+        ChainNode clone = new ChainNode(a);
+        int hash = a.hashCode();
+        assertNotSame(key(a, "id"), key(b, "id"));
+
+        ChainNodeKeyPool pool = new ChainNodeKeyPool();
+        a.internKeys(pool);
+        b.internKeys(pool);
+        assertSame(key(a, "id"), key(b, "id"));
+        assertSame(key(a.path("list.0"), "name"), key(b.path("list.0"), "name"));
+        assertEquals(hash, a.hashCode());
+        assertEquals(clone, a);
+
+        // Clone still owns its values
+        a.path("list.0").set("name", "z");
+        assertEquals("x", clone.path("list.0.name").getString());
+        assertTrue(a.get("id").isInt());
+    }
+}
@@ -0,0 +1,92 @@
+package me.gotter.collections;
+
+import me.gotter.collections.util.ChainNodeNdjsonPipeline;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChainNodeNdjsonPipelineTest {
+
+    private static byte[] input(int records) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            sb.append("{\"id\": ").append(i).append(", \"name\": \"user \\u00e9").append(i).append("\"}");
+            sb.append(i % 10 == 0 ? "\r\n\n" : "\n");
+        }
+        // Line, longer than chunk
+        sb.append("{\"id\": ").append(records).append(", \"pad\": \"");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("x");
+        }
+        sb.append("\"}");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static class Collector implements ChainNodeNdjsonPipeline.Consumer {
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+        final Thread thread = Thread.currentThread();
+        int batches;
+
+        @Override
+        public void accept(List<ChainNode> batch)
+        {
+            assertEquals(thread, Thread.currentThread());
+            batches++;
+            for (ChainNode record : batch) {
+                ids.add(record.get("id").getInt());
+            }
+        }
+    }
+
+    @Test
+    public void testOrdered() throws Exception
+    {
+        Collector collector = new Collector();
+        long records = new ChainNodeNdjsonPipeline(4, 256, 2, true).run(new ByteArrayInputStream(input(1000)), collector);
+
+        assertEquals(1001, records);
+        assertEquals(1001, collector.ids.size());
+        for (int i = 0; i <= 1000; i++) {
+            assertEquals(i, collector.ids.get(i).intValue());
+        }
+        assertTrue(collector.batches > 10);
+    }
+
+    @Test
+    public void testUnordered() throws Exception
+    {
+        Collector collector = new Collector();
+        long records = new ChainNodeNdjsonPipeline(3, 512, 4, false).run(new ByteArrayInputStream(input(2000)), collector);
+
+        assertEquals(2001, records);
+        List<Integer> ids = new ArrayList<Integer>(collector.ids);
+        Collections.sort(ids);
+        for (int i = 0; i <= 2000; i++) {
+            assertEquals(i, ids.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testEmptyAndInvalid() throws Exception
+    {
+        Collector collector = new Collector();
+        assertEquals(0, new ChainNodeNdjsonPipeline(2).run(new ByteArrayInputStream(new byte[0]), collector));
+        assertEquals(0, new ChainNodeNdjsonPipeline(2).run(new ByteArrayInputStream("\n \n".getBytes("UTF-8")), collector));
+
+        byte[] invalid = "{\"id\": 1}\n{\"id\": 2}\n{\"id\": }\n".getBytes("UTF-8");
+        try {
+            new ChainNodeNdjsonPipeline(2).run(new ByteArrayInputStream(invalid), collector);
+            fail("Malformed record expected to fail");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 3"));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChainNodeStreamTest {
+
+    private static ChainNode numbers(int count)
+    {
+        ChainNode node = new ChainNode();
+        for (int i = 0; i < count; i++) {
+            node.add(i);
+        }
+        return node;
+    }
+
+    @Test
+    public void testChildren()
+    {
+        ChainNode list = numbers(10000);
+        assertEquals(49995000L, list.stream().mapToLong(ChainNode::getLong).sum());
+        assertEquals(49995000L, list.parallelStream().mapToLong(ChainNode::getLong).sum());
+        assertEquals(list.stream().map(ChainNode::getInt).collect(Collectors.toList()),
+                list.parallelStream().map(ChainNode::getInt).collect(Collectors.toList()));
+
+        ChainNode map = new ChainNode();
+        for (int i = 0; i < 1000; i++) {
+            map.set("k" + i, i);
+        }
+        assertEquals(499500L, map.parallelStream().mapToLong(ChainNode::getLong).sum());
+        assertEquals(1000, map.stream().count());
+
+        assertEquals(0, new ChainNode().stream().count());
+        assertEquals(0, new ChainNode(5).stream().count());
+    }
+
+    @Test
+    public void testSplit()
+    {
+        Spliterator<ChainNode> list = numbers(100).spliterator();
+        Spliterator<ChainNode> prefix = list.trySplit();
+        assertEquals(50, prefix.estimateSize());
+        assertEquals(50, list.estimateSize());
+        prefix.tryAdvance(node -> assertEquals(0, node.getInt()));
+
+        ChainNode map = new ChainNode().set("a", 1).set("b", 2).set("c", 3);
+        Spliterator<ChainNode> values = map.spliterator();
+        assertNotNull(values.trySplit());
+        assertEquals(2, values.estimateSize());
+
+        // Map, traversal of which has started, is not split anymore
+        values = map.spliterator();
+        values.tryAdvance(node -> {
+        });
+        assertNull(values.trySplit());
+        assertEquals(2, values.estimateSize());
+
+        ConcurrentChainNode concurrent = new ConcurrentChainNode();
+        concurrent.add(1).add(2).add(3);
+        assertEquals(6, concurrent.parallelStream().mapToInt(ChainNode::getInt).sum());
+        assertEquals(6, new ChainNodeArena().root().set(numbers(4)).stream().mapToInt(ChainNode::getInt).sum());
+    }
+
+    @Test
+    public void testEntries()
+    {
+        ChainNode node = ChainNode.fromJSON("{\"a\": {\"b\": [1, {\"c\": 2}]}, \"d\": 3}");
+        List<String> paths = new ArrayList<String>();
+        for (Map.Entry<ChainPath, ChainNode> entry : node.entries(false).collect(Collectors.toList())) {
+            paths.add(entry.getKey().toString());
+            assertEquals(entry.getValue(), node.find(entry.getKey()));
+        }
+        assertEquals("[a, a.b, a.b.0, a.b.1, a.b.1.c, d]", paths.toString());
+        assertEquals(0, new ChainNode(1).entries(false).count());
+
+        // Wide tree in parallel keeps order
+        ChainNode wide = new ChainNode();
+        for (int i = 0; i < 500; i++) {
+            wide.add(new ChainNode().set("id", i).set("tags", numbers(3)));
+        }
+        List<String> sequential = wide.entries(false).map(e -> e.getKey().toString()).collect(Collectors.toList());
+        List<String> parallel = wide.entries(true).map(e -> e.getKey().toString()).collect(Collectors.toList());
+        assertEquals(500 * 6, sequential.size());
+        assertEquals(sequential, parallel);
+        assertEquals(500 * 4, wide.entries(true).filter(e -> e.getValue().isInt()).count());
+
+        // Single list, wrapped into a map, is split by its elements
+        ChainNode wrapped = new ChainNode();
+        wrapped.put("records", numbers(200000));
+        Spliterator<Map.Entry<ChainPath, ChainNode>> suffix = ChainNodeSpliterators.tree(wrapped);
+        Spliterator<Map.Entry<ChainPath, ChainNode>> head = suffix.trySplit();
+        assertNotNull(head);
+        assertTrue(suffix.estimateSize() > 1);
+        List<String> first = new ArrayList<String>();
+        head.forEachRemaining(e -> first.add(e.getKey().toString()));
+        assertEquals(100001, first.size());
+        assertEquals("records", first.get(0));
+        assertEquals("records.0", first.get(1));
+        suffix.tryAdvance(e -> assertEquals("records.100000", e.getKey().toString()));
+        assertEquals(wrapped.entries(false).map(e -> e.getKey().toString()).collect(Collectors.toList()),
+                wrapped.entries(true).map(e -> e.getKey().toString()).collect(Collectors.toList()));
+        assertEquals(200001, wrapped.entries(true).count());
+
+        // Deep tree
+        ChainNode deep = new ChainNode();
+        ChainNode current = deep;
+        for (int i = 0; i < 100000; i++) {
+            current = current.get("x");
+        }
+        current.set(1);
+        assertEquals(100000, deep.entries(false).count());
+        assertEquals(100000, deep.entries(true).count());
+    }
+}
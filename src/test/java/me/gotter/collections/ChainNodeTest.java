@@ -2,6 +2,11 @@ package me.gotter.collections;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
@@ -160,6 +165,82 @@ public class ChainNodeTest {
 		assertEquals(new Integer(5).hashCode(), new ChainNode(5).hashCode());
 		assertEquals(new Float(5).hashCode(), new ChainNode(5f).hashCode());
 	}
+
+	@Test
+	public void testHashCodeCache()
+	{
+		ChainNode node = ChainNode.fromJSON("{\"a\": {\"b\": [1, 2, {\"c\": \"d\"}]}, \"e\": 1.5}");
+		ChainNode copy = ChainNode.fromJSON(node.toJSON());
+		int hash = node.hashCode();
+		assertEquals(hash, node.hashCode());
+		assertEquals(hash, copy.hashCode());
+		assertEquals(node, copy);
+
+		// Writes deep inside the tree drop cached hashes of ancestors
+		node.path("a.b.2").set("c", "x");
+		assertFalse(hash == node.hashCode());
+		assertFalse(node.equals(copy));
+		node.path("a.b.2").set("c", "d");
+		assertEquals(hash, node.hashCode());
+		assertEquals(node, copy);
+
+		// Writes through views too
+		node.hashCode();
+		node.path("a.b").values().clear();
+		assertEquals(ChainNode.fromJSON("{\"a\": {\"b\": []}, \"e\": 1.5}").hashCode(), node.hashCode());
+		for (Map.Entry<String, ChainNode> entry : node.entrySet()) {
+			entry.setValue(new ChainNode(1));
+		}
+		assertEquals(ChainNode.fromJSON("{\"a\": 1, \"e\": 1}").hashCode(), node.hashCode());
+
+		// Entries, taken before hashing, write through too
+		Map.Entry<String, ChainNode> first = node.entrySet().iterator().next();
+		hash = node.hashCode();
+		first.setValue(new ChainNode(2));
+		assertFalse(hash == node.hashCode());
+		assertEquals(ChainNode.fromJSON("{\"a\": 2, \"e\": 1}").hashCode(), node.hashCode());
+
+		// Reads and writes to trees, not hashed, keep cached hashes
+		long stamp = ChainNode.hashStamp();
+		node.keySet();
+		node.values();
+		node.iterator();
+		node.entrySet();
+		node.peek("a");
+		new ChainNode().set("x", 1).get("y").set(2);
+		assertEquals(stamp, ChainNode.hashStamp());
+		assertTrue(node.isHashKnown(stamp));
+	}
+
+	@Test
+	public void testEqualsValues()
+	{
+		assertTrue(new ChainNode().equals(new ChainNode()));
+		assertTrue(new ChainNode().equals(new ChainNode(null)));
+		assertFalse(new ChainNode().equals(new ChainNode(0)));
+		assertFalse(new ChainNode(0).equals(new ChainNode()));
+		assertEquals(ChainNode.fromJSON("{\"a\": null}"), ChainNode.fromJSON("{\"a\": null}"));
+		assertEquals(ChainNode.fromJSON("[null, 1]"), ChainNode.fromJSON("[null, 1]"));
+
+		assertTrue(new ChainNode(5L).equals(5L));
+		assertFalse(new ChainNode(5L).equals(5));
+		assertTrue(new ChainNode(0.5).equals(0.5));
+		assertFalse(new ChainNode(0.5).equals(0.5f));
+		assertTrue(new ChainNode(Double.NaN).equals(Double.NaN));
+
+		ChainNode list = ChainNode.fromJSON("[1, \"a\", [true, null]]");
+		assertTrue(list.equals(new Object[]{1, "a", new Object[]{true, null}}));
+		assertTrue(list.equals(Arrays.asList(1, "a", Arrays.asList(true, null))));
+		assertFalse(list.equals(new Object[]{1, "a"}));
+		assertFalse(list.equals(new Object[]{1, "b", new Object[]{true, null}}));
+
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		map.put("id", 1);
+		map.put("tags", new Object[]{"x"});
+		assertTrue(ChainNode.fromJSON("{\"id\": 1, \"tags\": [\"x\"]}").equals(map));
+		assertFalse(ChainNode.fromJSON("{\"id\": 2, \"tags\": [\"x\"]}").equals(map));
+		assertFalse(ChainNode.fromJSON("{\"id\": 1}").equals(map));
+	}
 	
 	@Test
 	public void testSetter()
@@ -169,6 +250,41 @@ public class ChainNodeTest {
 		assertTrue(x.set("5").isString());
 	}
 	
+	@Test
+	public void testPrimitiveSetters()
+	{
+		ChainNode x = new ChainNode();
+		assertTrue(x.setInt(7).isInt());
+		assertEquals(7, x.getInt());
+		assertEquals(7L, x.getLong());
+		assertEquals(new ChainNode(7), x);
+		assertEquals(new Integer(7).hashCode(), x.hashCode());
+		assertEquals(7, x.get());
+
+		assertTrue(x.setLong(1L << 40).isLong());
+		assertFalse(x.isInt());
+		assertEquals(1L << 40, x.getLong());
+		assertEquals(new Long(1L << 40).hashCode(), x.hashCode());
+
+		assertTrue(x.setFloat(0.25f).isFloat());
+		assertEquals(0.25f, x.getFloat(), 0);
+		assertEquals(0.25, x.getDouble(), 0);
+		assertEquals(new ChainNode(0.25f), x);
+		assertFalse(new ChainNode(0.25).equals(x));
+
+		assertTrue(x.setDouble(-1.5).isDouble());
+		assertFalse(x.isFloat());
+		assertEquals("-1.5", x.getString());
+		assertEquals(new Double(-1.5).hashCode(), x.hashCode());
+
+		assertTrue(x.setBool(true).isTrue());
+		assertEquals(Boolean.TRUE, x.get());
+
+		assertFalse(new ChainNode(1).equals(1L));
+		x.clear();
+		assertTrue(x.isNull());
+	}
+
 	@Test
 	public void testMap()
 	{
@@ -221,6 +337,76 @@ public class ChainNodeTest {
 		assertTrue(x.path("level12.level2.integer").equals(354));
 	}
 	
+	@Test
+	public void testList()
+	{
+		ChainNode x = new ChainNode();
+		x.ensureCapacity(100);
+		assertTrue(x.isList());
+		assertEquals(0, x.size());
+
+		x.add("zero").add(1).add(new ChainNode());
+		assertEquals(3, x.size());
+		assertEquals("zero", x.get(0).getString());
+		assertEquals(1, x.get(1).getInt());
+
+		x.set(1, "one");
+		assertEquals("one", x.get(1).getString());
+		x.get(2).set("name", "nested");
+
+		ChainNode root = new ChainNode();
+		root.set("items", x);
+		assertEquals("nested", root.path("items.2.name").getString());
+		assertEquals("zero", root.path(new String[]{"items", "0"}).getString());
+
+		try {
+			root.path("items.3");
+			fail("Expecting exception");
+		} catch (IndexOutOfBoundsException e) {
+			assertTrue(true);
+		}
+		try {
+			new ChainNode(5).ensureCapacity(10);
+			fail("Expecting exception");
+		} catch (IllegalStateException e) {
+			assertTrue(true);
+		}
+	}
+
+	@Test
+	public void testReadOnlyLookup()
+	{
+		ChainNode x = ChainNode.fromJSON("{\"user\": {\"roles\": [\"admin\"]}, \"id\": 5}");
+
+		assertEquals(5, x.peek("id").getInt());
+		assertEquals("admin", x.find("user.roles.0").getString());
+		assertTrue(x.peek("absent").isMissing());
+		assertTrue(x.find("user.name.first").isMissing());
+		assertTrue(x.find("user.roles.3").isMissing());
+		assertTrue(x.find("id.value").isMissing());
+		assertTrue(x.peek("id").peek(0).isMissing());
+		assertFalse(x.containsKey("absent"));
+		assertFalse(x.get("user").containsKey("name"));
+
+		assertTrue(ChainNode.MISSING.isNull());
+		assertTrue(ChainNode.MISSING.get("any").isMissing());
+		assertTrue(ChainNode.MISSING.path("a.b").isMissing());
+		assertTrue(new ChainNode().peek("a").isMissing());
+		assertTrue(new ChainNode().isEmpty());
+		try {
+			ChainNode.MISSING.set("key", 1);
+			fail("Expecting exception");
+		} catch (UnsupportedOperationException e) {
+			assertTrue(true);
+		}
+		try {
+			ChainNode.MISSING.set(1);
+			fail("Expecting exception");
+		} catch (UnsupportedOperationException e) {
+			assertTrue(true);
+		}
+	}
+
 	@Test
 	public void testIterator()
 	{
@@ -256,4 +442,108 @@ public class ChainNodeTest {
         assertTrue(one && two && three);
 	}
 	
+	@Test
+	public void testCopyOnWrite()
+	{
+		ChainNode template = ChainNode.fromJSON("{\"user\": {\"name\": \"Joe\", \"roles\": [\"admin\"]}, \"other\": {\"x\": 1}}");
+		ChainNode copy = new ChainNode(template);
+
+		copy.path("user").set("name", "Bob");
+		copy.path("user.roles").add("user");
+		copy.set("added", true);
+		assertEquals("Joe", template.path("user.name").getString());
+		assertEquals(1, template.path("user.roles").size());
+		assertFalse(template.containsKey("added"));
+		assertEquals("Bob", copy.path("user.name").getString());
+		assertEquals(2, copy.path("user.roles").size());
+
+		// Writes to source do not leak into copy
+		template.path("other").set("x", 2);
+		assertEquals(1, copy.path("other.x").getInt());
+
+		// Frozen templates are cloned without being touched
+		ChainNode frozen = template.freeze();
+		ChainNode fromFrozen = new ChainNode(frozen);
+		fromFrozen.path("other").set("x", 3);
+		assertEquals(3, fromFrozen.path("other.x").getInt());
+		assertEquals(2, frozen.path("other.x").getInt());
+		assertEquals(template, frozen);
+
+		// Children, taken before cloning, stay children of source only
+		ChainNode source = ChainNode.fromJSON("{\"child\": {\"v\": \"a\"}, \"list\": [\"a\"]}");
+		ChainNode child = source.get("child");
+		ChainNode item = source.get("list").get(0);
+		ChainNode clone = new ChainNode(source);
+		child.set("v", "b");
+		item.set("b");
+		assertEquals("a", clone.find("child.v").getString());
+		assertEquals("a", clone.find("list.0").getString());
+		assertEquals("b", source.find("list.0").getString());
+
+		// Reads of clone do not copy borrowed containers
+		clone = new ChainNode(frozen);
+		assertTrue(clone.peek("user") == frozen.peek("user"));
+		assertTrue(clone.find("user.roles.0") == frozen.find("user.roles.0"));
+		assertEquals(2, clone.keySet().size());
+		clone.path("user.roles.0").set("root");
+		assertEquals("root", clone.find("user.roles.0").getString());
+		assertEquals("admin", frozen.find("user.roles.0").getString());
+		assertTrue(clone.find("other.x") == frozen.find("other.x"));
+	}
+
+	@Test
+	public void testCopyOnWriteViews()
+	{
+		ChainNode frozen = ChainNode.fromJSON("{\"a\": 1, \"b\": 2, \"c\": 3, \"list\": [1, 2, 3]}").freeze();
+
+		ChainNode clone = new ChainNode(frozen);
+		assertTrue(clone.keySet().remove("a"));
+		assertFalse(clone.containsKey("a"));
+
+		clone = new ChainNode(frozen);
+		Iterator<String> keys = clone.keySet().iterator();
+		keys.next();
+		keys.remove();
+		assertEquals("b", keys.next());
+		keys.remove();
+		assertEquals("[c, list]", clone.keySet().toString());
+
+		clone = new ChainNode(frozen);
+		Iterator<ChainNode> values = clone.values().iterator();
+		values.next();
+		values.remove();
+		assertEquals(3, clone.size());
+		assertTrue(clone.values().remove(new ChainNode(2)));
+		assertEquals("[c, list]", clone.keySet().toString());
+
+		clone = new ChainNode(frozen);
+		Map.Entry<String, ChainNode> first = clone.entrySet().iterator().next();
+		assertEquals(new ChainNode(1), first.setValue(new ChainNode(10)));
+		assertEquals(10, clone.get("a").getInt());
+		assertEquals(10, first.getValue().getInt());
+		first.setValue(new ChainNode(11));
+		assertEquals(11, clone.get("a").getInt());
+		clone.entrySet().clear();
+		assertTrue(clone.isEmpty());
+
+		clone = new ChainNode(frozen);
+		Iterator<ChainNode> items = clone.path("list").iterator();
+		items.next();
+		items.next();
+		items.remove();
+		items.next();
+		items.remove();
+		assertEquals("[1]", clone.get("list").toJSON());
+		clone.path("list").values().add(new ChainNode(5));
+		assertEquals("[1,5]", clone.get("list").toJSON());
+
+		clone = new ChainNode(frozen);
+		Iterator<ChainNode> all = clone.iterator();
+		all.next();
+		all.remove();
+		assertFalse(clone.containsKey("a"));
+
+		assertEquals(ChainNode.fromJSON("{\"a\": 1, \"b\": 2, \"c\": 3, \"list\": [1, 2, 3]}"), frozen);
+	}
+
 }
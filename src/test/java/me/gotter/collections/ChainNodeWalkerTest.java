@@ -0,0 +1,138 @@
+package me.gotter.collections;
+
+import me.gotter.collections.util.ChainNodeBinaryParser;
+import me.gotter.collections.util.ChainNodeBinarySerializer;
+import me.gotter.collections.util.ChainNodeJsonSerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChainNodeWalkerTest {
+
+    private static final int DEPTH = 100000;
+
+    private static ChainNode deep(int leaf)
+    {
+        ChainNode root = new ChainNode();
+        ChainNode current = root;
+        for (int i = 0; i < DEPTH; i++) {
+            current = i % 2 == 0 ? current.get("x") : current.add(new ChainNode()).get(0);
+        }
+        current.set(leaf);
+        return root;
+    }
+
+    @Test
+    public void testEvents()
+    {
+        final List<String> events = new ArrayList<String>();
+        ChainNode node = ChainNode.fromJSON("{\"a\": [1, {\"b\": true}], \"skip\": {\"c\": 1}, \"d\": null}");
+        ChainNodeWalker.walk(node, new ChainNodeWalker.Visitor() {
+            @Override
+            public void child(String key, int index)
+            {
+                events.add(key == null ? "#" + index : key);
+            }
+
+            @Override
+            public boolean enterMap(ChainNode node)
+            {
+                events.add("{");
+                return !node.containsKey("c");
+            }
+
+            @Override
+            public void leaveMap(ChainNode node)
+            {
+                events.add("}");
+            }
+
+            @Override
+            public boolean enterList(ChainNode node)
+            {
+                events.add("[");
+                return true;
+            }
+
+            @Override
+            public void leaveList(ChainNode node)
+            {
+                events.add("]");
+            }
+
+            @Override
+            public void scalar(ChainNode node)
+            {
+                events.add(node.toJSON());
+                if (node.isNull()) {
+                    stop();
+                }
+            }
+        });
+        assertEquals("[{, a, [, #0, 1, #1, {, b, true, }, ], skip, {, d, null]", events.toString());
+    }
+
+    @Test
+    public void testDeep()
+    {
+        ChainNode a = deep(1);
+        ChainNode b = deep(1);
+        ChainNode c = deep(2);
+
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a.hashCode(), c.hashCode());
+        assertTrue(a.equals(b));
+        assertFalse(a.equals(c));
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < DEPTH / 2; i++) {
+            expected.append("{\"x\":[");
+        }
+        expected.append(1);
+        for (int i = 0; i < DEPTH / 2; i++) {
+            expected.append("]}");
+        }
+        assertEquals(expected.toString(), a.toJSON());
+    }
+
+    @Test
+    public void testDeepConversions()
+    {
+        ChainNode a = deep(1);
+        String json = a.toJSON();
+        assertEquals(json, ChainNodeJsonSerializer.serializeParallel(a));
+
+        ChainNode frozen = a.freeze();
+        assertTrue(frozen.isFrozen());
+        assertEquals(a.hashCode(), frozen.hashCode());
+        assertTrue(frozen.equals(a));
+
+        ChainNode parsed = ChainNode.fromJSON(json);
+        assertTrue(parsed.equals(a));
+        assertTrue(ChainNodeBinaryParser.parse(ChainNodeBinarySerializer.serialize(a)).equals(a));
+        assertEquals(DEPTH, a.entries(false).count());
+    }
+
+    @Test
+    public void testPlainValues()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", Arrays.asList(1, 2L, "x", null));
+        map.put("b", true);
+        ChainNode node = new ChainNode(map);
+        assertEquals(map.hashCode(), node.hashCode());
+        assertEquals(map.hashCode(), node.freeze().hashCode());
+        assertEquals(map.hashCode(), new ConcurrentChainNode(map).hashCode());
+        assertTrue(node.equals(new ConcurrentChainNode(map)));
+        assertTrue(new ConcurrentChainNode(map).equals(node.freeze()));
+    }
+}
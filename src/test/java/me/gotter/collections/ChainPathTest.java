@@ -0,0 +1,58 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChainPathTest {
+
+    @Test
+    public void testCompile()
+    {
+        ChainPath path = ChainPath.compile("items.3.name");
+        assertEquals(3, path.size());
+        assertEquals("items", path.segment(0));
+        assertEquals("3", path.segment(1));
+        assertEquals("items.3.name", path.toString());
+        assertEquals(new ChainPath("items", "3", "name"), path);
+        assertSame(path, ChainPath.compile("items.3.name"));
+
+        assertEquals(2, ChainPath.compile("a.b..").size());
+    }
+
+    @Test
+    public void testResolve()
+    {
+        ChainNode root = ChainNode.fromJSON("{\"items\": [{\"name\": \"a\"}, {\"name\": \"b\"}], \"10\": 5}");
+        ChainPath path = ChainPath.compile("items.1.name");
+
+        assertEquals("b", path.resolve(root).getString());
+        assertEquals("b", root.path(path).getString());
+        assertEquals("a", root.path("items.0.name").getString());
+        assertEquals(5, root.path("10").getInt());
+    }
+
+    @Test
+    public void testCreatesMissing()
+    {
+        ChainNode root = new ChainNode();
+        new ChainPath("a", "b").resolve(root).set(1);
+        assertTrue(root.get("a").isMap());
+        assertEquals(1, root.path("a.b").getInt());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void failEmpty()
+    {
+        ChainPath.compile("");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void failListKey()
+    {
+        ChainNode.fromJSON("[1, 2]").path("first");
+    }
+
+}
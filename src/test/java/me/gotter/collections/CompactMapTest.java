@@ -0,0 +1,138 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactMapTest {
+
+    @Test
+    public void testSmall()
+    {
+        CompactMap map = new CompactMap();
+        assertTrue(map.isEmpty());
+        assertNull(map.put("a", new ChainNode(1)));
+        assertNull(map.put("b", new ChainNode(2)));
+        assertEquals(new ChainNode(1), map.put("a", new ChainNode(3)));
+
+        assertEquals(2, map.size());
+        assertEquals(new ChainNode(3), map.get("a"));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertNull(map.get(null));
+        assertFalse(map.isPromoted());
+
+        assertEquals(new ChainNode(2), map.remove("b"));
+        assertEquals(1, map.size());
+        assertEquals("a", map.keySet().iterator().next());
+    }
+
+    @Test
+    public void testInsertionOrder()
+    {
+        CompactMap map = new CompactMap();
+        for (int i = 0; i < CompactMap.THRESHOLD; i++) {
+            map.put("k" + i, new ChainNode(i));
+        }
+        map.remove("k2");
+
+        int expected = 0;
+        for (Map.Entry<String, ChainNode> entry : map.entrySet()) {
+            if (expected == 2) {
+                expected++;
+            }
+            assertEquals("k" + expected, entry.getKey());
+            assertEquals(expected, entry.getValue().getInt());
+            expected++;
+        }
+    }
+
+    @Test
+    public void testPromotion()
+    {
+        CompactMap map = new CompactMap();
+        Map<String, ChainNode> reference = new HashMap<String, ChainNode>();
+        for (int i = 0; i < 20; i++) {
+            map.put("k" + i, new ChainNode(i));
+            reference.put("k" + i, new ChainNode(i));
+            assertEquals(i >= CompactMap.THRESHOLD, map.isPromoted());
+        }
+
+        assertEquals(20, map.size());
+        assertEquals(reference, map);
+        assertEquals(map, reference);
+        assertEquals(reference.hashCode(), map.hashCode());
+
+        // Insertion order survives promotion
+        int expected = 0;
+        for (String key : map.keySet()) {
+            assertEquals("k" + expected++, key);
+        }
+    }
+
+    @Test
+    public void testFailFast()
+    {
+        CompactMap map = new CompactMap();
+        map.put("a", new ChainNode(1));
+        map.put("b", new ChainNode(2));
+
+        Iterator<String> it = map.keySet().iterator();
+        it.next();
+        map.put("a", new ChainNode(3));
+        assertEquals("b", it.next());
+
+        it = map.keySet().iterator();
+        it.next();
+        map.put("c", new ChainNode(4));
+        try {
+            it.next();
+            fail("Iterator expected to fail after put");
+        } catch (ConcurrentModificationException ignored) {
+        }
+
+        it = map.keySet().iterator();
+        it.next();
+        it.remove();
+        assertEquals("b", it.next());
+        map.remove("c");
+        try {
+            it.remove();
+            fail("Iterator expected to fail after remove");
+        } catch (ConcurrentModificationException ignored) {
+        }
+    }
+
+    @Test
+    public void testViewsWriteThrough()
+    {
+        CompactMap map = new CompactMap();
+        map.put("a", new ChainNode(1));
+        map.put("b", new ChainNode(2));
+        map.put("c", new ChainNode(3));
+
+        map.entrySet().iterator().next().setValue(new ChainNode(10));
+        assertEquals(10, map.get("a").getInt());
+
+        Iterator<ChainNode> it = map.values().iterator();
+        it.next();
+        it.next();
+        it.remove();
+        assertFalse(map.containsKey("b"));
+        assertEquals(3, it.next().getInt());
+        assertFalse(it.hasNext());
+
+        map.keySet().remove("a");
+        assertEquals(1, map.size());
+    }
+
+}
@@ -0,0 +1,111 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentChainNodeTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 10000;
+
+    private static void runConcurrently(final Runnable task) throws InterruptedException
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(task));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testBasics()
+    {
+        ConcurrentChainNode cn = new ConcurrentChainNode(ChainNode.fromJSON("{\"a\": {\"b\": [1, 2]}, \"c\": \"d\"}"));
+        assertTrue(cn.get("a") instanceof ConcurrentChainNode);
+        assertTrue(cn.path("a.b.0") instanceof ConcurrentChainNode);
+        assertEquals(2, cn.path("a.b.1").getInt());
+        assertEquals("d", cn.find("c").getString());
+        assertTrue(cn.find("a.x").isMissing());
+        assertEquals(ChainNode.fromJSON("{\"a\": {\"b\": [1, 2]}, \"c\": \"d\"}"), cn);
+
+        cn.set("e", new ChainNode(5));
+        assertTrue(cn.get("e") instanceof ConcurrentChainNode);
+        assertEquals(3, cn.size());
+    }
+
+    @Test
+    public void testConcurrentIncrement() throws InterruptedException
+    {
+        final ConcurrentChainNode cn = new ConcurrentChainNode();
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    cn.increment("stats.hits", 1);
+                    cn.increment("stats.bucket" + (i % 4), 2);
+                }
+            }
+        });
+
+        assertEquals((long) THREADS * ITERATIONS, cn.path("stats.hits").getLong());
+        assertEquals((long) THREADS * ITERATIONS / 2, cn.path("stats.bucket3").getLong());
+    }
+
+    @Test
+    public void testConcurrentAppend() throws InterruptedException
+    {
+        final ConcurrentChainNode cn = new ConcurrentChainNode();
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    cn.get("events").add(i);
+                    cn.get("users").set("u" + (i % 100), true);
+                }
+            }
+        });
+
+        assertEquals(THREADS * ITERATIONS, cn.get("events").size());
+        assertEquals(100, cn.get("users").size());
+        int count = 0;
+        for (ChainNode ignored : cn.get("events")) {
+            count++;
+        }
+        assertEquals(THREADS * ITERATIONS, count);
+    }
+
+    @Test
+    public void testComputeRemove()
+    {
+        ConcurrentChainNode cn = new ConcurrentChainNode();
+        cn.mergeAt("a.b", "x", null);
+        assertEquals("x", cn.path("a.b").getString());
+        assertEquals("xy", cn.mergeAt("a.b", "y", (current, value) -> current.getString() + value).getString());
+        assertTrue(cn.compute("a.b", current -> null).isMissing());
+        assertEquals(2, cn.mergeAt("n", 2L, ConcurrentChainNode.SUM).getLong());
+        assertEquals(2.5, cn.mergeAt("n", 0.5, ConcurrentChainNode.SUM).getDouble(), 0);
+        assertTrue(cn.find("a.b").isMissing());
+
+        // Fractional values are merged with SUM, not incremented
+        try {
+            cn.increment("n", 1);
+            fail("Fractional value expected to be rejected");
+        } catch (IllegalStateException ignored) {
+        }
+        assertEquals(2.5, cn.path("n").getDouble(), 0);
+        assertEquals(3, cn.increment("m", 3));
+        assertEquals(4, cn.increment("m", 1));
+    }
+
+}
@@ -0,0 +1,102 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImmutableChainNodeTest {
+
+    private static ChainNode sample()
+    {
+        StringBuilder sb = new StringBuilder("{\"id\": 7, \"roles\": [\"admin\", {\"level\": 2}], \"wide\": {");
+        for (int i = 0; i < 20; i++) {
+            sb.append(i > 0 ? "," : "").append("\"k").append(i).append("\": ").append(i);
+        }
+        return ChainNode.fromJSON(sb.append("}}").toString());
+    }
+
+    @Test
+    public void testFreeze()
+    {
+        ChainNode source = sample();
+        ChainNode frozen = source.freeze();
+
+        assertTrue(frozen.isFrozen());
+        assertFalse(source.isFrozen());
+        assertSame(frozen, frozen.freeze());
+        assertTrue(frozen.get("roles").isFrozen());
+
+        assertEquals(source, frozen);
+        assertEquals(frozen, source);
+        assertEquals(source.hashCode(), frozen.hashCode());
+        assertEquals(source.toJSON(), frozen.toJSON());
+
+        assertEquals(7, frozen.get("id").getInt());
+        assertEquals(2, frozen.path("roles.1.level").getInt());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, frozen.get("wide").get("k" + i).getInt());
+        }
+        assertTrue(frozen.get("wide").get("k20").isMissing());
+        assertTrue(frozen.path("absent.deeper").isMissing());
+        assertEquals(3, frozen.size());
+    }
+
+    @Test
+    public void testIndependentFromSource()
+    {
+        ChainNode source = sample();
+        ChainNode frozen = source.freeze();
+        source.set("id", 8);
+        source.get("roles").add("user");
+
+        assertEquals(7, frozen.get("id").getInt());
+        assertEquals(2, frozen.get("roles").size());
+        assertFalse(source.equals(frozen));
+    }
+
+    @Test
+    public void testRejectsWrites()
+    {
+        ChainNode frozen = sample().freeze();
+        try {
+            frozen.set("id", 1);
+            fail("Expecting exception");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+        try {
+            frozen.get("roles").add(1);
+            fail("Expecting exception");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+        try {
+            frozen.get("id").setInt(1);
+            fail("Expecting exception");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+        try {
+            frozen.keySet().remove("id");
+            fail("Expecting exception");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+        try {
+            Iterator<ChainNode> it = frozen.get("roles").iterator();
+            it.next();
+            it.remove();
+            fail("Expecting exception");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+        assertEquals(7, frozen.get("id").getInt());
+    }
+
+}
@@ -0,0 +1,105 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyJsonTest {
+
+    private static final String JSON = "{\"id\": 12345, \"name\": \"Fran\\u00e7ois\","
+            + " \"roles\": [15, \"admin\", {\"level\": 2}], \"meta\": {\"tags\": [\"a\", \"b\"], \"score\": 0.5}}";
+
+    @Test
+    public void testMaterializesOnAccess() throws Exception
+    {
+        ChainNode cn = ChainNode.fromJSONLazy(JSON.getBytes("UTF-8"));
+        assertTrue(cn.isMap());
+        assertTrue(((LazyJson.LazyMap) cn.valueHash).isPending());
+
+        assertEquals(12345, cn.get("id").getInt());
+        assertFalse(((LazyJson.LazyMap) cn.valueHash).isPending());
+
+        // Siblings stay untouched
+        ChainNode meta = cn.get("meta");
+        ChainNode roles = cn.get("roles");
+        assertTrue(meta.isMap());
+        assertTrue(((LazyJson.LazyMap) meta.valueHash).isPending());
+        assertTrue(roles.isList());
+        assertTrue(((LazyJson.LazyList) roles.valueArray).isPending());
+
+        assertEquals(15, cn.path("roles").iterator().next().getInt());
+        assertFalse(((LazyJson.LazyList) roles.valueArray).isPending());
+        assertTrue(((LazyJson.LazyMap) meta.valueHash).isPending());
+
+        assertEquals(0.5, cn.path("meta.score").getDouble(), 0);
+    }
+
+    @Test
+    public void testEqualsEager() throws Exception
+    {
+        assertEquals(ChainNode.fromJSON(JSON), ChainNode.fromJSONLazy(JSON.getBytes("UTF-8")));
+        assertEquals("Fran\u00e7ois", ChainNode.fromJSONLazy(JSON.getBytes("UTF-8")).get("name").getString());
+        assertEquals(
+                ChainNode.fromJSON(JSON).toJSON(),
+                ChainNode.fromJSONLazy(JSON.getBytes("UTF-8")).toJSON()
+        );
+    }
+
+    @Test
+    public void testMutation() throws Exception
+    {
+        ChainNode cn = ChainNode.fromJSONLazy("{\"list\": [1, 2], \"map\": {}}".getBytes("UTF-8"));
+        cn.get("list").add(3);
+        cn.get("map").set("x", "y");
+        cn.set("extra", true);
+
+        assertEquals(3, cn.get("list").size());
+        assertEquals("{\"x\":\"y\"}", cn.get("map").toJSON());
+        assertEquals(3, cn.size());
+    }
+
+    @Test
+    public void testScalarRoot() throws Exception
+    {
+        assertEquals("a\"b", ChainNode.fromJSONLazy(" \"a\\\"b\" ".getBytes("UTF-8")).getString());
+        assertTrue(ChainNode.fromJSONLazy("null".getBytes("UTF-8")).isNull());
+        assertTrue(ChainNode.fromJSONLazy("[]".getBytes("UTF-8")).isEmpty());
+    }
+
+    @Test
+    public void testScalars() throws Exception
+    {
+        String json = "[0, -1, 2147483648, -9223372036854775808, 12345678901234567890, 0.5, -1e3, 2E+2, true, false, null,"
+                + " \"\\u00e7a\\n\\/\\\\\", \"\u4e2d\\t\u00e7\"]";
+        ChainNode lazy = ChainNode.fromJSONLazy(json.getBytes("UTF-8"));
+        ChainNode eager = ChainNode.fromJSON(json);
+        assertEquals(eager, lazy);
+        for (int i = 0; i < eager.size(); i++) {
+            assertEquals(eager.get(i).get(), lazy.get(i).get());
+        }
+        assertTrue(lazy.get(1).isInt());
+        assertTrue(lazy.get(2).isLong());
+        assertTrue(lazy.get(4).isDouble());
+        assertEquals("\u00e7a\n/\\", lazy.get(11).getString());
+
+        for (String malformed : new String[]{"[01]", "[-]", "[1.]", "[1e]", "[.5]", "[1.5x]", "[tru]", "[nulls]", "[\"\\x\"]",
+                "[\"\\u12\"]"}) {
+            try {
+                ChainNode.fromJSONLazy(malformed.getBytes("UTF-8")).get(0);
+                fail("Malformed scalar expected to fail: " + malformed);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failMalformedOnAccess() throws Exception
+    {
+        ChainNode cn = ChainNode.fromJSONLazy("{\"a\": {\"b\" 1}}".getBytes("UTF-8"));
+        cn.get("a").get("b");
+    }
+
+}
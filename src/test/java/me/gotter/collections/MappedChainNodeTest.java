@@ -0,0 +1,137 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedChainNodeTest {
+
+    private static ChainNode sample()
+    {
+        StringBuilder sb = new StringBuilder("{\"id\": 12345, \"big\": 5000000000, \"ratio\": 0.25, \"ok\": true,"
+                + " \"name\": \"Fran\\u00e7ois\", \"\\ue000\": 1, \"\\ud83d\\ude00\": 2,"
+                + " \"roles\": [15, \"admin\", {\"level\": 2}, []], \"empty\": {}, \"wide\": {");
+        for (int i = 0; i < 300; i++) {
+            sb.append(i > 0 ? "," : "").append("\"k").append(i).append("\": {\"id\": ").append(i).append("}");
+        }
+        ChainNode node = ChainNode.fromJSON(sb.append("}}").toString());
+        node.set("float", 1.5f);
+        return node;
+    }
+
+    private static File write(ChainNode node) throws IOException
+    {
+        File file = File.createTempFile("chainnode", ".idx");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            node.writeIndexed(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testMapped() throws IOException
+    {
+        ChainNode source = sample();
+        ChainNode mapped = ChainNode.mapIndexed(write(source));
+
+        assertTrue(mapped.isFrozen());
+        assertEquals(source, mapped);
+        assertEquals(mapped, source);
+        assertEquals(source.hashCode(), mapped.hashCode());
+
+        assertEquals(12345, mapped.get("id").getInt());
+        assertTrue(mapped.get("big").isLong());
+        assertTrue(mapped.get("float").isFloat());
+        assertEquals(0.25, mapped.get("ratio").getDouble(), 0);
+        assertTrue(mapped.get("ok").isTrue());
+        assertEquals("Fran\u00e7ois", mapped.get("name").getString());
+        assertEquals(1, mapped.get("\ue000").getInt());
+        assertEquals(2, mapped.get("\ud83d\ude00").getInt());
+        assertEquals(2, mapped.path("roles.2.level").getInt());
+        assertTrue(mapped.path("roles.3").isList());
+        assertTrue(mapped.get("empty").isMap());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, mapped.find("wide.k" + i + ".id").getInt());
+        }
+        assertTrue(mapped.get("absent").isMissing());
+        assertTrue(mapped.find("wide.k300.id").isMissing());
+        assertTrue(mapped.containsKey("roles"));
+        assertFalse(mapped.containsKey("absent"));
+
+        try {
+            mapped.set("id", 1);
+            fail("Mapped node expected to be immutable");
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testIteration() throws IOException
+    {
+        ChainNode mapped = ChainNode.mapIndexed(write(sample()));
+
+        // Keys come in order of their UTF-8 bytes
+        List<String> keys = new ArrayList<String>(mapped.keySet());
+        assertEquals("big", keys.get(0));
+        assertEquals("\ue000", keys.get(keys.size() - 2));
+        assertEquals("\ud83d\ude00", keys.get(keys.size() - 1));
+        assertEquals(300, mapped.get("wide").values().size());
+
+        Iterator<ChainNode> roles = mapped.get("roles").iterator();
+        assertEquals(15, roles.next().getInt());
+        assertEquals("admin", roles.next().getString());
+    }
+
+    @Test
+    public void testSegments() throws IOException
+    {
+        // Tiny segments, so values cross segment boundaries
+        ChainNode source = sample();
+        source.set("long", new String(new char[5000]).replace('\0', 'x'));
+        File file = write(source);
+        for (int shift = 3; shift <= 7; shift++) {
+            assertEquals(source, MappedChainNode.map(file, shift));
+        }
+    }
+
+    @Test
+    public void testBuffer() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(42);
+        sample().writeIndexed(out);
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        buffer.get();
+        assertEquals(sample(), ChainNode.fromIndexed(buffer));
+        assertEquals("abc", ChainNode.fromIndexed(indexed(new ChainNode("abc"))).getString());
+
+        try {
+            ChainNode.fromIndexed(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13}));
+            fail("Malformed layout expected to fail");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private static ByteBuffer indexed(ChainNode node) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        node.writeIndexed(out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
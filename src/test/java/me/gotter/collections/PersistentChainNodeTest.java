@@ -0,0 +1,142 @@
+package me.gotter.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PersistentChainNodeTest {
+
+    private static final String JSON = "{\"id\": 7, \"user\": {\"name\": \"Joe\", \"tags\": [\"a\", {\"level\": 2}]}, \"other\": {\"x\": 1}}";
+
+    @Test
+    public void testOf()
+    {
+        ChainNode source = ChainNode.fromJSON(JSON);
+        PersistentChainNode node = PersistentChainNode.of(source);
+
+        assertTrue(node.isFrozen());
+        assertEquals(source, node);
+        assertEquals(node, source);
+        assertEquals(source.hashCode(), node.hashCode());
+        assertEquals(2, node.path("user.tags.1.level").getInt());
+        assertTrue(node.path("user.absent").isMissing());
+        assertSame(node, PersistentChainNode.of(node));
+        assertTrue(PersistentChainNode.EMPTY.isMap());
+        assertEquals(0, PersistentChainNode.EMPTY.size());
+    }
+
+    @Test
+    public void testWith()
+    {
+        PersistentChainNode v1 = PersistentChainNode.of(ChainNode.fromJSON(JSON));
+        PersistentChainNode v2 = v1.with("user.name", "Bob");
+
+        assertEquals("Joe", v1.path("user.name").getString());
+        assertEquals("Bob", v2.path("user.name").getString());
+        assertSame(v1.get("other"), v2.get("other"));
+        assertSame(v1.path("user.tags"), v2.path("user.tags"));
+        assertSame(v1.get("id"), v2.get("id"));
+
+        PersistentChainNode v3 = v2.with("user.tags.1.level", 3).with("user.tags.2", true);
+        assertEquals(2, v2.path("user.tags.1.level").getInt());
+        assertEquals(3, v3.path("user.tags.1.level").getInt());
+        assertTrue(v3.path("user.tags.2").getBool());
+        assertSame(v2.path("user.tags.0"), v3.path("user.tags.0"));
+
+        PersistentChainNode v4 = v3.with("created.deep.key", 1L);
+        assertEquals(1L, v4.path("created.deep.key").getLong());
+        assertTrue(v3.path("created").isMissing());
+
+        assertSame(v4, v4.with("id", v4.get("id")));
+
+        try {
+            v4.with("id.nested", 1);
+            fail("Scalar parent expected to fail");
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            v4.set("id", 8);
+            fail("Persistent node expected to be immutable");
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testWithout()
+    {
+        PersistentChainNode v1 = PersistentChainNode.of(ChainNode.fromJSON(JSON));
+        PersistentChainNode v2 = v1.without("user.name").without("user.tags.0");
+
+        assertEquals("Joe", v1.path("user.name").getString());
+        assertTrue(v2.path("user.name").isMissing());
+        assertEquals(1, v2.path("user.tags").size());
+        assertEquals(2, v2.path("user.tags.0.level").getInt());
+        assertSame(v1.get("other"), v2.get("other"));
+
+        assertSame(v2, v2.without("absent.key"));
+        assertSame(v2, v2.without("user.tags.5"));
+    }
+
+    @Test
+    public void testManyKeys()
+    {
+        Random random = new Random(42);
+        Map<String, ChainNode> reference = new HashMap<String, ChainNode>();
+        PersistentChainNode node = PersistentChainNode.EMPTY;
+
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                reference.remove(key);
+                node = node.without(key);
+            } else {
+                ChainNode value = new ChainNode(i);
+                reference.put(key, value);
+                node = node.with(key, value);
+            }
+        }
+
+        assertEquals(reference.size(), node.size());
+        for (Map.Entry<String, ChainNode> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), node.get(entry.getKey()));
+        }
+        for (Map.Entry<String, ChainNode> entry : node.entrySet()) {
+            assertEquals(reference.get(entry.getKey()), entry.getValue());
+        }
+
+        ChainNode plain = new ChainNode();
+        plain.putAll(reference);
+        assertEquals(plain, node);
+        assertEquals(plain.hashCode(), node.hashCode());
+        assertEquals(node, ChainNode.fromJSON(node.toJSON()));
+        assertFalse(node.equals(node.with("k0", "changed")));
+    }
+
+    @Test
+    public void testLargeMapHash()
+    {
+        ChainNode plain = new ChainNode();
+        for (int i = 0; i < 100000; i++) {
+            plain.set("k" + i, i);
+        }
+        PersistentChainNode node = PersistentChainNode.of(plain);
+        assertEquals(plain.hashCode(), node.hashCode());
+
+        // Updates take hash of the map, maintained by trie, without rehashing entries
+        for (int i = 0; i < 2000; i++) {
+            node = node.with("k" + i, -i);
+            plain.set("k" + i, -i);
+        }
+        assertEquals(plain.hashCode(), node.hashCode());
+        assertEquals(plain, node);
+        assertEquals(node.hashCode(), new ChainNode(node).hashCode());
+    }
+}